@@ -0,0 +1,128 @@
+package nl.info.flume.serialization;
+
+import nl.info.flume.serialization.ApacheLogAvroEventSerializer.ApacheEvent;
+import nl.info.flume.serialization.JavaLogAvroEventSerializer.JavaEvent;
+import nl.info.flume.serialization.SyslogAvroEventSerializer.SyslogEvent;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.reflect.ReflectDatumWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static nl.info.flume.serialization.SerializerFixture.APACHE_LINE;
+import static nl.info.flume.serialization.SerializerFixture.JAVA_LINE;
+import static nl.info.flume.serialization.SerializerFixture.SYSLOG_LINE;
+
+/**
+ * Compares the speed of the hand-written datum writers with the reflect datum writer Flume uses,
+ * for one parsed line of every format. It runs with the jmh profile, not with the tests:
+ * <code>mvn -Pjmh test-compile exec:exec</code>.
+ *
+ * @author daan.debie
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DatumWriterBenchmark {
+
+    private ApacheEvent apache;
+    private SyslogEvent syslog;
+    private JavaEvent java;
+
+    private DatumWriter<ApacheEvent> apacheReflect;
+    private DatumWriter<SyslogEvent> syslogReflect;
+    private DatumWriter<JavaEvent> javaReflect;
+    private DatumWriter<ApacheEvent> apacheDirect;
+    private DatumWriter<SyslogEvent> syslogDirect;
+    private DatumWriter<JavaEvent> javaDirect;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private BinaryEncoder encoder;
+
+    private static Map<String, String> headers() {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("host", "web01");
+        headers.put("customer", "info");
+        headers.put("timestamp", "1362133406000");
+        return headers;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        apache = new ApacheEvent();
+        apache.setHeaders(headers());
+        apache.setOriginal(APACHE_LINE);
+        ApacheLogParser.parse(APACHE_LINE, apache);
+        syslog = new SyslogEvent();
+        syslog.setHeaders(headers());
+        syslog.setOriginal(SYSLOG_LINE);
+        SyslogParser.parse(SYSLOG_LINE, syslog);
+        java = new JavaEvent();
+        java.setHeaders(headers());
+        java.setOriginal(JAVA_LINE);
+        JavaLogParser.parse(JAVA_LINE, java);
+
+        apacheReflect = new ReflectDatumWriter<ApacheEvent>(new ApacheLogAvroEventSerializer(out).getSchema());
+        syslogReflect = new ReflectDatumWriter<SyslogEvent>(new SyslogAvroEventSerializer(out, "", "customer", "host").getSchema());
+        javaReflect = new ReflectDatumWriter<JavaEvent>(new JavaLogAvroEventSerializer(out).getSchema());
+        apacheDirect = new ApacheLogAvroEventSerializer.ApacheEventDatumWriter();
+        syslogDirect = new SyslogAvroEventSerializer.SyslogEventDatumWriter();
+        javaDirect = new JavaLogAvroEventSerializer.JavaEventDatumWriter();
+        encoder = EncoderFactory.get().binaryEncoder(out, null);
+    }
+
+    private <T> int write(DatumWriter<T> writer, T datum) throws IOException {
+        out.reset();
+        writer.write(datum, encoder);
+        encoder.flush();
+        return out.size();
+    }
+
+    @Benchmark
+    public int apacheReflect() throws IOException {
+        return write(apacheReflect, apache);
+    }
+
+    @Benchmark
+    public int apacheDirect() throws IOException {
+        return write(apacheDirect, apache);
+    }
+
+    @Benchmark
+    public int syslogReflect() throws IOException {
+        return write(syslogReflect, syslog);
+    }
+
+    @Benchmark
+    public int syslogDirect() throws IOException {
+        return write(syslogDirect, syslog);
+    }
+
+    @Benchmark
+    public int javaReflect() throws IOException {
+        return write(javaReflect, java);
+    }
+
+    @Benchmark
+    public int javaDirect() throws IOException {
+        return write(javaDirect, java);
+    }
+}
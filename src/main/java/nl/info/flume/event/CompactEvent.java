@@ -0,0 +1,51 @@
+package nl.info.flume.event;
+
+import org.apache.flume.Event;
+
+import java.util.Map;
+
+/**
+ * An event whose headers are kept in a {@link CompactHeaderMap}, to keep the per-event
+ * overhead low while lots of events are queued in a memory channel.
+ *
+ * @author daan.debie
+ */
+public class CompactEvent implements Event {
+
+    private Map<String, String> headers;
+    private byte[] body;
+
+    public CompactEvent(byte[] body) {
+        this.headers = new CompactHeaderMap();
+        this.body = body;
+    }
+
+    public static Event withBody(byte[] body) {
+        return new CompactEvent(body);
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public void setHeaders(Map<String, String> headers) {
+        this.headers = headers;
+    }
+
+    @Override
+    public byte[] getBody() {
+        return body;
+    }
+
+    @Override
+    public void setBody(byte[] body) {
+        this.body = body;
+    }
+
+    @Override
+    public String toString() {
+        return "[Event headers = " + headers + ", body.length = " + (body == null ? 0 : body.length) + " ]";
+    }
+}
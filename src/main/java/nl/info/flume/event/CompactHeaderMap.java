@@ -0,0 +1,237 @@
+package nl.info.flume.event;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A header map that stores its keys and values in two small arrays, in insertion order.
+ * Events usually carry only a handful of headers (host, customer, some statics, a timestamp),
+ * for which a linear scan is as fast as hashing, while taking a fraction of the memory of a
+ * {@link HashMap} with its table and entry objects. Once the map grows past
+ * {@link #HASH_THRESHOLD} headers it switches to a {@link HashMap}.
+ *
+ * @author daan.debie
+ */
+public class CompactHeaderMap extends AbstractMap<String, String> {
+
+    static final int HASH_THRESHOLD = 8;
+
+    private static final int DEFAULT_CAPACITY = 4;
+
+    private String[] keys;
+    private String[] values;
+    private int size;
+    private Map<String, String> hashed;
+
+    public CompactHeaderMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public CompactHeaderMap(int capacity) {
+        int arrayCapacity = Math.max(1, Math.min(capacity, HASH_THRESHOLD));
+        keys = new String[arrayCapacity];
+        values = new String[arrayCapacity];
+    }
+
+    public CompactHeaderMap(Map<String, String> headers) {
+        this(headers.size());
+        putAll(headers);
+    }
+
+    private int indexOf(Object key) {
+        for (int i = 0; i < size; i++) {
+            String k = keys[i];
+            if (k == key || (k != null && k.equals(key))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return hashed != null ? hashed.size() : size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return hashed != null ? hashed.containsKey(key) : indexOf(key) > -1;
+    }
+
+    @Override
+    public String get(Object key) {
+        if (hashed != null) {
+            return hashed.get(key);
+        }
+        int i = indexOf(key);
+        return i > -1 ? values[i] : null;
+    }
+
+    @Override
+    public String put(String key, String value) {
+        if (hashed != null) {
+            return hashed.put(key, value);
+        }
+        int i = indexOf(key);
+        if (i > -1) {
+            String previous = values[i];
+            values[i] = value;
+            return previous;
+        }
+        if (size == HASH_THRESHOLD) {
+            hashed = new HashMap<String, String>(HASH_THRESHOLD * 4);
+            for (int j = 0; j < size; j++) {
+                hashed.put(keys[j], values[j]);
+            }
+            keys = null;
+            values = null;
+            size = 0;
+            return hashed.put(key, value);
+        }
+        if (size == keys.length) {
+            int capacity = Math.min(keys.length * 2, HASH_THRESHOLD);
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        keys[size] = key;
+        values[size] = value;
+        size++;
+        return null;
+    }
+
+    @Override
+    public String remove(Object key) {
+        if (hashed != null) {
+            return hashed.remove(key);
+        }
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        String previous = values[i];
+        removeAt(i);
+        return previous;
+    }
+
+    private void removeAt(int i) {
+        int moved = size - i - 1;
+        if (moved > 0) {
+            System.arraycopy(keys, i + 1, keys, i, moved);
+            System.arraycopy(values, i + 1, values, i, moved);
+        }
+        size--;
+        keys[size] = null;
+        values[size] = null;
+    }
+
+    @Override
+    public void clear() {
+        if (hashed != null) {
+            hashed = null;
+            keys = new String[DEFAULT_CAPACITY];
+            values = new String[DEFAULT_CAPACITY];
+        } else {
+            Arrays.fill(keys, 0, size, null);
+            Arrays.fill(values, 0, size, null);
+        }
+        size = 0;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return hashed != null ? hashed.entrySet().iterator() : new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return CompactHeaderMap.this.size();
+            }
+        };
+    }
+
+    private class EntryIterator implements Iterator<Entry<String, String>> {
+        private int next;
+        private int last = -1;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Entry<String, String> next() {
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            last = next++;
+            return new ArrayEntry(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            removeAt(last);
+            next = last;
+            last = -1;
+        }
+    }
+
+    private class ArrayEntry implements Entry<String, String> {
+        private final int index;
+
+        private ArrayEntry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return keys[index];
+        }
+
+        @Override
+        public String getValue() {
+            return values[index];
+        }
+
+        @Override
+        public String setValue(String value) {
+            String previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> other = (Entry<?, ?>) o;
+            return eq(getKey(), other.getKey()) && eq(getValue(), other.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return (getKey() == null ? 0 : getKey().hashCode()) ^ (getValue() == null ? 0 : getValue().hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    private static boolean eq(Object left, Object right) {
+        return left == null ? right == null : left.equals(right);
+    }
+}
@@ -0,0 +1,143 @@
+package nl.info.flume.interceptor;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Matches many strings against the UTF-8 bytes of an event body at once (Aho-Corasick).
+ * The patterns are compiled into a table with one transition per byte, so finding
+ * any of the patterns in a body takes one table lookup per byte, regardless of the
+ * number of patterns. The body doesn't have to be decoded to a String first.
+ *
+ * @author daan.debie
+ */
+public final class BytePatternMatcher {
+
+    private static final int ALPHABET = 256;
+
+    private final int[][] transitions;
+    private final int[] depths;
+    private final int[] terminals;
+    private final int[] outputs;
+
+    /**
+     * @param patterns the patterns, which are identified by their index in the list
+     */
+    public BytePatternMatcher(List<String> patterns) {
+        List<int[]> transitionList = new ArrayList<int[]>();
+        List<Integer> depthList = new ArrayList<Integer>();
+        List<Integer> terminalList = new ArrayList<Integer>();
+        addNode(transitionList, depthList, terminalList, 0);
+
+        for (int id = 0; id < patterns.size(); id++) {
+            byte[] pattern = patterns.get(id).getBytes(Charsets.UTF_8);
+            Preconditions.checkArgument(pattern.length > 0, "Patterns can't be empty");
+            int node = 0;
+            for (byte b : pattern) {
+                int c = b & 0xff;
+                if (transitionList.get(node)[c] < 0) {
+                    transitionList.get(node)[c] = addNode(transitionList, depthList, terminalList, depthList.get(node) + 1);
+                }
+                node = transitionList.get(node)[c];
+            }
+            if (terminalList.get(node) < 0) {
+                terminalList.set(node, id);
+            }
+        }
+
+        int size = transitionList.size();
+        transitions = transitionList.toArray(new int[size][]);
+        depths = new int[size];
+        terminals = new int[size];
+        outputs = new int[size];
+        for (int i = 0; i < size; i++) {
+            depths[i] = depthList.get(i);
+            terminals[i] = terminalList.get(i);
+            outputs[i] = terminals[i];
+        }
+        buildFailureTransitions();
+    }
+
+    private static int addNode(List<int[]> transitionList, List<Integer> depthList, List<Integer> terminalList, int depth) {
+        int[] next = new int[ALPHABET];
+        Arrays.fill(next, -1);
+        transitionList.add(next);
+        depthList.add(depth);
+        terminalList.add(-1);
+        return transitionList.size() - 1;
+    }
+
+    /**
+     * Turns the trie into a full automaton: missing transitions go to where the longest
+     * proper suffix that is also a prefix of some pattern would go, and each node outputs
+     * what its failure node outputs if it doesn't end a pattern itself.
+     */
+    private void buildFailureTransitions() {
+        int[] failures = new int[transitions.length];
+        Queue<Integer> queue = new LinkedList<Integer>();
+        for (int c = 0; c < ALPHABET; c++) {
+            int child = transitions[0][c];
+            if (child < 0) {
+                transitions[0][c] = 0;
+            } else {
+                failures[child] = 0;
+                queue.add(child);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            if (outputs[node] < 0) {
+                outputs[node] = outputs[failures[node]];
+            }
+            for (int c = 0; c < ALPHABET; c++) {
+                int child = transitions[node][c];
+                if (child < 0) {
+                    transitions[node][c] = transitions[failures[node]][c];
+                } else {
+                    failures[child] = transitions[failures[node]][c];
+                    queue.add(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the id of a pattern contained in the bytes, or -1 if there is none.
+     * When several patterns occur, the one that ends first is returned.
+     */
+    public int find(byte[] bytes) {
+        int node = 0;
+        for (byte b : bytes) {
+            node = transitions[node][b & 0xff];
+            if (outputs[node] > -1) {
+                return outputs[node];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the id of a pattern the bytes start with, or -1 if there is none.
+     * When several patterns match, the shortest one is returned.
+     */
+    public int findPrefix(byte[] bytes) {
+        int node = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            node = transitions[node][bytes[i] & 0xff];
+            if (depths[node] != i + 1) {
+                // fell back to a shorter suffix, so no pattern starts at the beginning
+                return -1;
+            }
+            if (terminals[node] > -1) {
+                return terminals[node];
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,298 @@
+package nl.info.flume.interceptor;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flume.Context;
+import org.apache.flume.CounterGroup;
+import org.apache.flume.Event;
+import org.apache.flume.interceptor.Interceptor;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static nl.info.flume.interceptor.EnrichmentInterceptor.Constants.*;
+
+/**
+ * Does the work of the {@link StaticFileInterceptor}, the {@link HostToCustomerInterceptor} and
+ * Flume's host and timestamp interceptors in a single pass over each event. Everything is optional:
+ * statics are only added when staticsPath is set, customers only resolved when customerPath is set.
+ * <br/>
+ * Within a batch, the timestamp is taken once and the customer lookup is reused for consecutive
+ * events from the same host, which is the common case. The number of enriched events and the time
+ * spent enriching them are counted, and logged when the interceptor is closed.
+ *
+ * @author daan.debie
+ */
+@Slf4j
+public class EnrichmentInterceptor implements Interceptor {
+
+    private static final String UNKNOWN_CUSTOMER = "UNKNOWN";
+
+    private final String staticsPath;
+    private final boolean preserveExisting;
+    private final long reloadInterval;
+    private final String customerPath;
+    private final String customerHeader;
+    private final String hostHeader;
+    private final boolean addLocalHost;
+    private final boolean shortenHost;
+    private final String timestampHeader;
+    private final boolean preserveExistingTimestamp;
+
+    private File staticFile;
+    private volatile Map<String, String> statics = Collections.emptyMap();
+    private volatile long lastModified;
+    private volatile long nextReloadCheck;
+    private Map<String, String> hostToCustomerMap;
+    private String localHost;
+
+    private final CounterGroup counterGroup = new CounterGroup();
+    private final AtomicLong enrichedEvents = counterGroup.getCounter("enrichment.events");
+    private final AtomicLong enrichmentNanos = counterGroup.getCounter("enrichment.nanos");
+
+    /**
+     * The host, short host and customer of the previous event in a batch.
+     */
+    private static final class Lookup {
+        private String host;
+        private String shortHost;
+        private String customer;
+    }
+
+    /**
+     * Only {@link EnrichmentInterceptor.Builder} can build me
+     */
+    private EnrichmentInterceptor(Builder builder) {
+        this.staticsPath = builder.staticsPath;
+        this.preserveExisting = builder.preserveExisting;
+        this.reloadInterval = builder.reloadInterval;
+        this.customerPath = builder.customerPath;
+        this.customerHeader = builder.customerHeader;
+        this.hostHeader = builder.hostHeader;
+        this.addLocalHost = builder.addLocalHost;
+        this.shortenHost = builder.shortenHost;
+        this.timestampHeader = builder.timestampHeader;
+        this.preserveExistingTimestamp = builder.preserveExistingTimestamp;
+    }
+
+    @Override
+    public void initialize() {
+        if (staticsPath != null) {
+            staticFile = new File(staticsPath);
+            reloadStatics();
+        }
+        if (customerPath != null) {
+            try {
+                hostToCustomerMap = HostToCustomerInterceptor.buildCustomerToHostMapFromFile(new File(customerPath));
+            } catch (FileNotFoundException e) {
+                log.warn("Could not find file: {}", customerPath);
+            } catch (IOException e) {
+                log.warn("File IO error in: {}", customerPath);
+            }
+            if (hostToCustomerMap == null) {
+                hostToCustomerMap = Collections.emptyMap();
+            }
+        }
+        if (addLocalHost) {
+            try {
+                localHost = HeaderInterner.intern(InetAddress.getLocalHost().getHostName());
+            } catch (UnknownHostException e) {
+                log.warn("Could not get local hostname", e);
+            }
+        }
+    }
+
+    /**
+     * Modifies events in-place.
+     */
+    @Override
+    public Event intercept(Event event) {
+        long start = System.nanoTime();
+        reloadStaticsIfModified();
+        enrich(event, String.valueOf(System.currentTimeMillis()), new Lookup());
+        enrichedEvents.incrementAndGet();
+        enrichmentNanos.addAndGet(System.nanoTime() - start);
+        return event;
+    }
+
+    /**
+     * Enriches all events with the same timestamp, reusing lookups between events.
+     * @param events
+     * @return
+     */
+    @Override
+    public List<Event> intercept(List<Event> events) {
+        long start = System.nanoTime();
+        reloadStaticsIfModified();
+        String timestamp = String.valueOf(System.currentTimeMillis());
+        Lookup lookup = new Lookup();
+        for (Event event : events) {
+            enrich(event, timestamp, lookup);
+        }
+        enrichedEvents.addAndGet(events.size());
+        enrichmentNanos.addAndGet(System.nanoTime() - start);
+        return events;
+    }
+
+    private void enrich(Event event, String timestamp, Lookup lookup) {
+        Map<String, String> headers = event.getHeaders();
+
+        for (Map.Entry<String, String> entry : statics.entrySet()) {
+            if (preserveExisting && headers.containsKey(entry.getKey())) {
+                continue;
+            }
+            headers.put(entry.getKey(), entry.getValue());
+        }
+
+        if (timestampHeader != null && !(preserveExistingTimestamp && headers.containsKey(timestampHeader))) {
+            headers.put(timestampHeader, timestamp);
+        }
+
+        String host = headers.get(hostHeader);
+        if (host == null && localHost != null) {
+            host = localHost;
+            headers.put(hostHeader, host);
+        }
+
+        if (host == null) {
+            if (hostToCustomerMap != null) {
+                headers.put(customerHeader, UNKNOWN_CUSTOMER);
+            }
+            return;
+        }
+
+        if (!host.equals(lookup.host)) {
+            lookup.host = HeaderInterner.intern(host);
+            int dot = host.indexOf('.');
+            lookup.shortHost = HeaderInterner.intern(dot > -1 ? host.substring(0, dot) : host);
+            if (hostToCustomerMap != null) {
+                String customer = hostToCustomerMap.get(lookup.shortHost.toLowerCase());
+                lookup.customer = customer != null ? customer : UNKNOWN_CUSTOMER;
+            }
+        }
+        if (hostToCustomerMap != null) {
+            headers.put(customerHeader, lookup.customer);
+        }
+        if (shortenHost) {
+            headers.put(hostHeader, lookup.shortHost);
+        } else if (lookup.host != host) {
+            headers.put(hostHeader, lookup.host);
+        }
+    }
+
+    private void reloadStaticsIfModified() {
+        if (staticFile == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now < nextReloadCheck) {
+            return;
+        }
+        nextReloadCheck = now + reloadInterval;
+        if (staticFile.lastModified() != lastModified) {
+            reloadStatics();
+        }
+    }
+
+    private synchronized void reloadStatics() {
+        lastModified = staticFile.lastModified();
+        try {
+            statics = StaticFileInterceptor.buildStaticsFromFile(staticFile);
+        } catch (FileNotFoundException e) {
+            log.warn("Could not find file: {}", staticsPath);
+        } catch (IOException e) {
+            log.warn("File IO error in: {}", staticsPath);
+        }
+    }
+
+    @Override
+    public void close() {
+        log.info("EnrichmentInterceptor closed. Metrics: {}", counterGroup);
+    }
+
+    public CounterGroup getCounterGroup() {
+        return counterGroup;
+    }
+
+    /**
+     * Builder which builds new instance of the EnrichmentInterceptor.
+     */
+    public static class Builder implements Interceptor.Builder {
+
+        private String staticsPath;
+        private boolean preserveExisting;
+        private long reloadInterval;
+        private String customerPath;
+        private String customerHeader;
+        private String hostHeader;
+        private boolean addLocalHost;
+        private boolean shortenHost;
+        private String timestampHeader;
+        private boolean preserveExistingTimestamp;
+
+        @Override
+        public void configure(Context context) {
+            staticsPath = context.getString(STATICS_PATH);
+            preserveExisting = context.getBoolean(PRESERVE, PRESERVE_DEFAULT);
+            reloadInterval = context.getLong(RELOAD_INTERVAL, RELOAD_INTERVAL_DEFAULT);
+            customerPath = context.getString(CUSTOMER_PATH);
+            customerHeader = context.getString(CUSTOMER_HEADER, CUSTOMER_HEADER_DEFAULT);
+            hostHeader = context.getString(HOST_HEADER, HOST_HEADER_DEFAULT);
+            addLocalHost = context.getBoolean(ADD_LOCAL_HOST, ADD_LOCAL_HOST_DEFAULT);
+            shortenHost = context.getBoolean(SHORTEN_HOST, SHORTEN_HOST_DEFAULT);
+            boolean timestamp = context.getBoolean(TIMESTAMP, TIMESTAMP_DEFAULT);
+            timestampHeader = timestamp ? context.getString(TIMESTAMP_HEADER, TIMESTAMP_HEADER_DEFAULT) : null;
+            preserveExistingTimestamp = context.getBoolean(PRESERVE_TIMESTAMP, PRESERVE_TIMESTAMP_DEFAULT);
+        }
+
+        @Override
+        public Interceptor build() {
+            log.info(String.format(
+                    "Creating EnrichmentInterceptor: staticsPath=%s, customerPath=%s, addLocalHost=%s, shortenHost=%s, timestampHeader=%s",
+                    staticsPath, customerPath, addLocalHost, shortenHost, timestampHeader));
+            return new EnrichmentInterceptor(this);
+        }
+
+    }
+
+    public static class Constants {
+
+        public static final String STATICS_PATH = "staticsPath";
+
+        public static final String PRESERVE = "preserveExisting";
+        public static final boolean PRESERVE_DEFAULT = true;
+
+        public static final String RELOAD_INTERVAL = "reloadInterval";
+        public static final long RELOAD_INTERVAL_DEFAULT = 10000L;
+
+        public static final String CUSTOMER_PATH = "customerPath";
+
+        public static final String CUSTOMER_HEADER = "customerHeader";
+        public static final String CUSTOMER_HEADER_DEFAULT = "customer";
+
+        public static final String HOST_HEADER = "hostHeader";
+        public static final String HOST_HEADER_DEFAULT = "host";
+
+        public static final String ADD_LOCAL_HOST = "addLocalHost";
+        public static final boolean ADD_LOCAL_HOST_DEFAULT = false;
+
+        public static final String SHORTEN_HOST = "shortenHost";
+        public static final boolean SHORTEN_HOST_DEFAULT = false;
+
+        public static final String TIMESTAMP = "timestamp";
+        public static final boolean TIMESTAMP_DEFAULT = true;
+
+        public static final String TIMESTAMP_HEADER = "timestampHeader";
+        public static final String TIMESTAMP_HEADER_DEFAULT = "timestamp";
+
+        public static final String PRESERVE_TIMESTAMP = "preserveExistingTimestamp";
+        public static final boolean PRESERVE_TIMESTAMP_DEFAULT = false;
+    }
+
+}
@@ -0,0 +1,237 @@
+package nl.info.flume.interceptor;
+
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flume.Context;
+import org.apache.flume.CounterGroup;
+import org.apache.flume.Event;
+import org.apache.flume.interceptor.Interceptor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static nl.info.flume.interceptor.FairShareInterceptor.Constants.*;
+
+/**
+ * Gives every customer its own share of the event rate, so one noisy customer can't fill the
+ * channels for everyone else. Each customer (taken from the header set by the
+ * {@link HostToCustomerInterceptor}) gets a {@link TokenBucket} with a rate and burst that are
+ * multiplied by its weight. Events over quota are dropped, sampled or tagged, depending on the action.
+ * <br/>
+ * Admitted, over quota and shed events are counted per customer.
+ *
+ * @author daan.debie
+ */
+@Slf4j
+public class FairShareInterceptor implements Interceptor {
+
+    public enum Action {
+        DROP, SAMPLE, TAG
+    }
+
+    private final String customerHeader;
+    private final double rate;
+    private final long burst;
+    private final Map<String, Double> weights;
+    private final double defaultWeight;
+    private final Action action;
+    private final int sampleRate;
+    private final String tagHeader;
+
+    private final ConcurrentMap<String, Share> shares = new ConcurrentHashMap<String, Share>();
+    private final CounterGroup counterGroup = new CounterGroup();
+
+    /**
+     * The bucket and counters of one customer.
+     */
+    private static final class Share {
+        private final TokenBucket bucket;
+        private final AtomicLong admitted;
+        private final AtomicLong overQuota;
+        private final AtomicLong shed;
+
+        private Share(TokenBucket bucket, CounterGroup counterGroup, String customer) {
+            this.bucket = bucket;
+            this.admitted = counterGroup.getCounter("admission." + customer + ".admitted");
+            this.overQuota = counterGroup.getCounter("admission." + customer + ".overQuota");
+            this.shed = counterGroup.getCounter("admission." + customer + ".shed");
+        }
+    }
+
+    /**
+     * Only {@link FairShareInterceptor.Builder} can build me
+     */
+    private FairShareInterceptor(Builder builder) {
+        this.customerHeader = builder.customerHeader;
+        this.rate = builder.rate;
+        this.burst = builder.burst;
+        this.weights = builder.weights;
+        this.defaultWeight = builder.defaultWeight;
+        this.action = builder.action;
+        this.sampleRate = builder.sampleRate;
+        this.tagHeader = builder.tagHeader;
+    }
+
+    @Override
+    public void initialize() {
+    }
+
+    /**
+     * Returns null when the event is shed, otherwise the (possibly tagged) event.
+     */
+    @Override
+    public Event intercept(Event event) {
+        Share share = shareOf(event.getHeaders().get(customerHeader));
+        if (share.bucket.tryAcquire()) {
+            share.admitted.incrementAndGet();
+            return event;
+        }
+
+        long overQuota = share.overQuota.incrementAndGet();
+        switch (action) {
+            case TAG:
+                event.getHeaders().put(tagHeader, "true");
+                share.admitted.incrementAndGet();
+                return event;
+            case SAMPLE:
+                if (overQuota % sampleRate == 0) {
+                    event.getHeaders().put(tagHeader, String.valueOf(sampleRate));
+                    share.admitted.incrementAndGet();
+                    return event;
+                }
+                return shed(share);
+            default:
+                return shed(share);
+        }
+    }
+
+    private static Event shed(Share share) {
+        share.shed.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Returns a new list with the admitted events.
+     * @param events
+     * @return
+     */
+    @Override
+    public List<Event> intercept(List<Event> events) {
+        List<Event> intercepted = new ArrayList<Event>(events.size());
+        for (Event event : events) {
+            if (intercept(event) != null) {
+                intercepted.add(event);
+            }
+        }
+        return intercepted;
+    }
+
+    private Share shareOf(String customer) {
+        if (customer == null) {
+            customer = UNKNOWN_CUSTOMER;
+        }
+        Share share = shares.get(customer);
+        if (share == null) {
+            Double weight = weights.get(customer);
+            double factor = weight != null ? weight : defaultWeight;
+            Share created = new Share(
+                    new TokenBucket(rate * factor, Math.max(1L, (long) (burst * factor))), counterGroup, customer);
+            share = shares.putIfAbsent(customer, created);
+            if (share == null) {
+                share = created;
+            }
+        }
+        return share;
+    }
+
+    @Override
+    public void close() {
+        log.info("FairShareInterceptor closed. Metrics: {}", counterGroup);
+    }
+
+    public CounterGroup getCounterGroup() {
+        return counterGroup;
+    }
+
+    /**
+     * Builder which builds new instance of the FairShareInterceptor.
+     */
+    public static class Builder implements Interceptor.Builder {
+
+        private String customerHeader;
+        private double rate;
+        private long burst;
+        private Map<String, Double> weights;
+        private double defaultWeight;
+        private Action action;
+        private int sampleRate;
+        private String tagHeader;
+
+        @Override
+        public void configure(Context context) {
+            customerHeader = context.getString(CUSTOMER_HEADER, CUSTOMER_HEADER_DEFAULT);
+            rate = Double.parseDouble(context.getString(RATE, RATE_DEFAULT));
+            Preconditions.checkState(rate > 0, "The parameter " + RATE + " must be positive");
+            burst = context.getLong(BURST, (long) Math.ceil(rate));
+            Preconditions.checkState(burst > 0, "The parameter " + BURST + " must be positive");
+            defaultWeight = Double.parseDouble(context.getString(DEFAULT_WEIGHT, DEFAULT_WEIGHT_DEFAULT));
+            Preconditions.checkState(defaultWeight > 0, "The parameter " + DEFAULT_WEIGHT + " must be positive");
+
+            weights = new HashMap<String, Double>();
+            for (Map.Entry<String, String> weight : context.getSubProperties(WEIGHTS + ".").entrySet()) {
+                double value = Double.parseDouble(weight.getValue());
+                Preconditions.checkState(value > 0,
+                        "The parameter " + WEIGHTS + "." + weight.getKey() + " must be positive");
+                weights.put(weight.getKey(), value);
+            }
+
+            action = Action.valueOf(context.getString(ACTION, ACTION_DEFAULT).toUpperCase(Locale.ENGLISH));
+            sampleRate = context.getInteger(SAMPLE_RATE, SAMPLE_RATE_DEFAULT);
+            Preconditions.checkState(sampleRate > 0, "The parameter " + SAMPLE_RATE + " must be positive");
+            tagHeader = context.getString(TAG_HEADER, TAG_HEADER_DEFAULT);
+        }
+
+        @Override
+        public Interceptor build() {
+            log.info(String.format(
+                    "Creating FairShareInterceptor: rate=%s, burst=%s, weights=%s, action=%s",
+                    rate, burst, weights, action));
+            return new FairShareInterceptor(this);
+        }
+
+    }
+
+    public static class Constants {
+
+        public static final String UNKNOWN_CUSTOMER = "UNKNOWN";
+
+        public static final String CUSTOMER_HEADER = "customerHeader";
+        public static final String CUSTOMER_HEADER_DEFAULT = "customer";
+
+        public static final String RATE = "rate";
+        public static final String RATE_DEFAULT = "1000";
+
+        public static final String BURST = "burst";
+
+        public static final String WEIGHTS = "weights";
+
+        public static final String DEFAULT_WEIGHT = "defaultWeight";
+        public static final String DEFAULT_WEIGHT_DEFAULT = "1";
+
+        public static final String ACTION = "action";
+        public static final String ACTION_DEFAULT = "drop";
+
+        public static final String SAMPLE_RATE = "sampleRate";
+        public static final int SAMPLE_RATE_DEFAULT = 10;
+
+        public static final String TAG_HEADER = "tagHeader";
+        public static final String TAG_HEADER_DEFAULT = "overQuota";
+    }
+
+}
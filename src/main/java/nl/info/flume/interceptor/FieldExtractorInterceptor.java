@@ -0,0 +1,126 @@
+package nl.info.flume.interceptor;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flume.Context;
+import org.apache.flume.CounterGroup;
+import org.apache.flume.Event;
+import org.apache.flume.interceptor.Interceptor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static nl.info.flume.interceptor.FieldExtractorInterceptor.Constants.*;
+
+/**
+ * Extracts fields from the body of each event into the headers, using a grok-like
+ * {@link FieldPattern}. This way new log formats can be parsed without writing a serializer.
+ * Matches and misses are counted, and logged when the interceptor is closed.
+ *
+ * @author daan.debie
+ */
+@Slf4j
+public class FieldExtractorInterceptor implements Interceptor {
+
+    private final FieldPattern pattern;
+    private final String[] headerNames;
+    private final CounterGroup counterGroup;
+    private final AtomicLong matched;
+    private final AtomicLong missed;
+
+    /**
+     * Only {@link FieldExtractorInterceptor.Builder} can build me
+     */
+    private FieldExtractorInterceptor(FieldPattern pattern, String headerPrefix) {
+        this.pattern = pattern;
+        String[] fieldNames = pattern.getFieldNames();
+        this.headerNames = new String[fieldNames.length];
+        for (int i = 0; i < fieldNames.length; i++) {
+            headerNames[i] = headerPrefix + fieldNames[i];
+        }
+        this.counterGroup = new CounterGroup();
+        this.matched = counterGroup.getCounter("field.extractor.matched");
+        this.missed = counterGroup.getCounter("field.extractor.missed");
+    }
+
+    @Override
+    public void initialize() {
+        // no-op
+    }
+
+    /**
+     * Modifies events in-place.
+     */
+    @Override
+    public Event intercept(Event event) {
+        String[] values = pattern.match(new String(event.getBody(), Charsets.UTF_8));
+        if (values == null) {
+            missed.incrementAndGet();
+            return event;
+        }
+        matched.incrementAndGet();
+        Map<String, String> headers = event.getHeaders();
+        for (int i = 0; i < values.length; i++) {
+            headers.put(headerNames[i], values[i]);
+        }
+        return event;
+    }
+
+    /**
+     * Delegates to {@link #intercept(Event)} in a loop.
+     * @param events
+     * @return
+     */
+    @Override
+    public List<Event> intercept(List<Event> events) {
+        for (Event event : events) {
+            intercept(event);
+        }
+        return events;
+    }
+
+    @Override
+    public void close() {
+        log.info("FieldExtractorInterceptor with pattern: {} closed. Metrics: {}", pattern, counterGroup);
+    }
+
+    public CounterGroup getCounterGroup() {
+        return counterGroup;
+    }
+
+    /**
+     * Builder which builds new instance of the FieldExtractorInterceptor.
+     */
+    public static class Builder implements Interceptor.Builder {
+
+        private FieldPattern pattern;
+        private String headerPrefix;
+
+        @Override
+        public void configure(Context context) {
+            String patternString = context.getString(PATTERN);
+            Preconditions.checkState(patternString != null, "The parameter " + PATTERN + " must be specified");
+            pattern = FieldPattern.compile(patternString);
+            headerPrefix = context.getString(HEADER_PREFIX, HEADER_PREFIX_DEFAULT);
+        }
+
+        @Override
+        public Interceptor build() {
+            log.info(String.format(
+                    "Creating FieldExtractorInterceptor: pattern=%s, headerPrefix=%s", pattern, headerPrefix));
+            return new FieldExtractorInterceptor(pattern, headerPrefix);
+        }
+
+    }
+
+    public static class Constants {
+
+        public static final String PATTERN = "pattern";
+
+        public static final String HEADER_PREFIX = "headerPrefix";
+        public static final String HEADER_PREFIX_DEFAULT = "";
+    }
+
+}
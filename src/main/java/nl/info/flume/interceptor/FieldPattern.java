@@ -0,0 +1,265 @@
+package nl.info.flume.interceptor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A grok-like pattern, compiled into a scanner that walks a line once from left to right, without
+ * backtracking. A pattern consists of literal text and captures like <code>%{INT:status}</code>,
+ * where the type determines what the capture can contain and the name is the field it's stored in.
+ * A capture without a name (<code>%{DATA}</code>) is matched but not stored. Supported types:
+ * <ul>
+ *     <li>INT: an optional '-' followed by digits</li>
+ *     <li>NUMBER: an optional '-' followed by digits, optionally followed by '.' and digits</li>
+ *     <li>WORD: letters, digits and '_'</li>
+ *     <li>NOTSPACE: anything but whitespace</li>
+ *     <li>IP: hex digits, '.' and ':', so both IPv4 and IPv6 addresses</li>
+ *     <li>DATA: anything, up to the first occurrence of the literal that follows</li>
+ *     <li>GREEDYDATA: anything, up to the last occurrence of the literal that follows</li>
+ * </ul>
+ * Typed captures never contain the first character of the literal that follows them, so
+ * <code>"%{NOTSPACE:uri}"</code> doesn't swallow the closing quote.
+ * The pattern is anchored at both ends, so the whole line must match.
+ * DATA and GREEDYDATA at the end of a pattern take the rest of the line.
+ *
+ * @author daan.debie
+ */
+public final class FieldPattern {
+
+    private static final String CAPTURE_START = "%{";
+    private static final String CAPTURE_END = "}";
+
+    public enum Type {
+        INT(false) {
+            @Override
+            int scan(String line, int pos, String next) {
+                int end = pos;
+                if (end < line.length() && line.charAt(end) == '-') {
+                    end++;
+                }
+                int digits = scanDigits(line, end);
+                return digits > end ? digits : pos;
+            }
+        },
+        NUMBER(false) {
+            @Override
+            int scan(String line, int pos, String next) {
+                int end = INT.scan(line, pos, next);
+                if (end > pos && end + 1 < line.length() && line.charAt(end) == '.') {
+                    int fraction = scanDigits(line, end + 1);
+                    if (fraction > end + 1) {
+                        end = fraction;
+                    }
+                }
+                return end;
+            }
+        },
+        WORD(false) {
+            @Override
+            int scan(String line, int pos, String next) {
+                int stop = stop(next);
+                int end = pos;
+                while (end < line.length() && line.charAt(end) != stop
+                        && (Character.isLetterOrDigit(line.charAt(end)) || line.charAt(end) == '_')) {
+                    end++;
+                }
+                return end;
+            }
+        },
+        NOTSPACE(false) {
+            @Override
+            int scan(String line, int pos, String next) {
+                int stop = stop(next);
+                int end = pos;
+                while (end < line.length() && line.charAt(end) != stop && !Character.isWhitespace(line.charAt(end))) {
+                    end++;
+                }
+                return end;
+            }
+        },
+        IP(false) {
+            @Override
+            int scan(String line, int pos, String next) {
+                int stop = stop(next);
+                int end = pos;
+                while (end < line.length() && line.charAt(end) != stop && (Character.digit(line.charAt(end), 16) > -1
+                        || line.charAt(end) == '.' || line.charAt(end) == ':')) {
+                    end++;
+                }
+                return end;
+            }
+        },
+        DATA(true) {
+            @Override
+            int scan(String line, int pos, String next) {
+                return next == null ? line.length() : line.indexOf(next, pos);
+            }
+        },
+        GREEDYDATA(true) {
+            @Override
+            int scan(String line, int pos, String next) {
+                return next == null ? line.length() : line.lastIndexOf(next);
+            }
+        };
+
+        private final boolean toLiteral;
+
+        private Type(boolean toLiteral) {
+            this.toLiteral = toLiteral;
+        }
+
+        /**
+         * Returns whether the type matches anything up to the literal that follows it, which may
+         * be nothing at all. Such a type must be followed by a literal or end the pattern.
+         */
+        boolean scansToLiteral() {
+            return toLiteral;
+        }
+
+        /**
+         * Returns the end of the match starting at pos, or a position before pos if there is none.
+         * A type that doesn't scan to the literal returns pos if there is no match, and doesn't
+         * match the first character of the next literal.
+         * @param next the literal that follows, or null at the end of the pattern
+         */
+        abstract int scan(String line, int pos, String next);
+
+        private static int stop(String next) {
+            return next != null ? next.charAt(0) : -1;
+        }
+
+        private static int scanDigits(String line, int pos) {
+            int end = pos;
+            while (end < line.length() && line.charAt(end) >= '0' && line.charAt(end) <= '9') {
+                end++;
+            }
+            return end;
+        }
+    }
+
+    /**
+     * Either a literal, or a capture of a certain type.
+     */
+    private static final class Element {
+        private final String literal;
+        private final Type type;
+        private final int index;
+        private String next;
+
+        private Element(String literal, Type type, int index) {
+            this.literal = literal;
+            this.type = type;
+            this.index = index;
+        }
+    }
+
+    private final String pattern;
+    private final Element[] elements;
+    private final String[] fieldNames;
+
+    private FieldPattern(String pattern, Element[] elements, String[] fieldNames) {
+        this.pattern = pattern;
+        this.elements = elements;
+        this.fieldNames = fieldNames;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    public static FieldPattern compile(String pattern) {
+        List<Element> elements = new ArrayList<Element>();
+        List<String> fieldNames = new ArrayList<String>();
+
+        int seek = 0;
+        while (seek < pattern.length()) {
+            int start = pattern.indexOf(CAPTURE_START, seek);
+            if (start < 0) {
+                start = pattern.length();
+            }
+            if (start > seek) {
+                elements.add(new Element(pattern.substring(seek, start), null, -1));
+            }
+            if (start == pattern.length()) {
+                break;
+            }
+
+            int end = pattern.indexOf(CAPTURE_END, start);
+            if (end < 0) {
+                throw new IllegalArgumentException("Unterminated capture at position " + start + " in: " + pattern);
+            }
+            String capture = pattern.substring(start + CAPTURE_START.length(), end);
+            int colon = capture.indexOf(':');
+            String typeName = colon > -1 ? capture.substring(0, colon) : capture;
+            Type type;
+            try {
+                type = Type.valueOf(typeName);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown type " + typeName + " in: " + pattern);
+            }
+            int index = -1;
+            if (colon > -1) {
+                index = fieldNames.size();
+                fieldNames.add(capture.substring(colon + 1));
+            }
+
+            if (!elements.isEmpty()) {
+                Element previous = elements.get(elements.size() - 1);
+                if (previous.type != null && previous.type.scansToLiteral()) {
+                    throw new IllegalArgumentException(previous.type + " must be followed by a literal or end the pattern: " + pattern);
+                }
+            }
+            elements.add(new Element(null, type, index));
+            seek = end + CAPTURE_END.length();
+        }
+
+        for (int i = 0; i + 1 < elements.size(); i++) {
+            elements.get(i).next = elements.get(i + 1).literal;
+        }
+        return new FieldPattern(pattern, elements.toArray(new Element[elements.size()]),
+                fieldNames.toArray(new String[fieldNames.size()]));
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * The names of the fields, in the same order as the values returned by {@link #match(String)}.
+     */
+    public String[] getFieldNames() {
+        return fieldNames.clone();
+    }
+
+    /**
+     * Returns the captured values, or null if the line doesn't match.
+     */
+    public String[] match(String line) {
+        String[] values = new String[fieldNames.length];
+        int pos = 0;
+        int length = line.length();
+        for (Element element : elements) {
+            if (element.literal != null) {
+                if (!line.startsWith(element.literal, pos)) {
+                    return null;
+                }
+                pos += element.literal.length();
+                continue;
+            }
+
+            int end = element.type.scan(line, pos, element.next);
+            if (end < pos || (end == pos && !element.type.scansToLiteral())) {
+                return null;
+            }
+            if (element.index > -1) {
+                values[element.index] = line.substring(pos, end);
+            }
+            pos = end;
+        }
+        return pos == length ? values : null;
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
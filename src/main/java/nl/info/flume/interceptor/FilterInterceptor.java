@@ -0,0 +1,351 @@
+package nl.info.flume.interceptor;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flume.Context;
+import org.apache.flume.CounterGroup;
+import org.apache.flume.Event;
+import org.apache.flume.interceptor.Interceptor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import static nl.info.flume.interceptor.FilterInterceptor.Constants.*;
+
+/**
+ * Drops events matching any of the configured rules, as early as possible in the pipeline.
+ * All rules are compiled into one plan, which checks the cheap rules first:
+ * <ol>
+ *     <li>header value rules, with one hash lookup per header for all rules on that header</li>
+ *     <li>log level thresholds</li>
+ *     <li>body prefix rules, all checked at once with a {@link BytePatternMatcher}</li>
+ *     <li>body contains rules, all checked at once with a {@link BytePatternMatcher}</li>
+ * </ol>
+ * An event is counted as dropped by the first rule in the plan that matches it.
+ *
+ * @author daan.debie
+ */
+@Slf4j
+public class FilterInterceptor implements Interceptor {
+
+    public enum RuleType {
+        HEADER_EQUALS("headerEquals"),
+        HEADER_IN("headerIn"),
+        LEVEL("level"),
+        BODY_PREFIX("bodyPrefix"),
+        BODY_CONTAINS("bodyContains");
+
+        private final String name;
+
+        private RuleType(String name) {
+            this.name = name;
+        }
+
+        public static RuleType fromName(String name) {
+            for (RuleType type : values()) {
+                if (type.name.equals(name)) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown rule type: " + name);
+        }
+
+        /**
+         * Rules on the same header are checked with the same lookup, whether they test one value or a set.
+         */
+        private int stage() {
+            return this == HEADER_EQUALS ? HEADER_IN.ordinal() : ordinal();
+        }
+    }
+
+    public static class Rule {
+        private final String name;
+        private final RuleType type;
+        private final String header;
+        private final List<String> values;
+
+        public Rule(String name, RuleType type, String header, List<String> values) {
+            this.name = name;
+            this.type = type;
+            this.header = header;
+            this.values = values;
+        }
+    }
+
+    private final Rule[] rules;
+    private final String[] headerNames;
+    private final List<Map<String, Integer>> headerValues;
+    private final String[] levelHeaders;
+    private final int[] levelThresholds;
+    private final int[] levelRules;
+    private final BytePatternMatcher prefixMatcher;
+    private final int[] prefixRules;
+    private final BytePatternMatcher containsMatcher;
+    private final int[] containsRules;
+
+    private final CounterGroup counterGroup;
+    private final AtomicLong events;
+    private final AtomicLong kept;
+    private final AtomicLong[] dropped;
+
+    /**
+     * Only {@link FilterInterceptor.Builder} can build me
+     */
+    private FilterInterceptor(List<Rule> configuredRules) {
+        List<Rule> plan = new ArrayList<Rule>(configuredRules);
+        Collections.sort(plan, new Comparator<Rule>() {
+            @Override
+            public int compare(Rule left, Rule right) {
+                return left.type.stage() - right.type.stage();
+            }
+        });
+        rules = plan.toArray(new Rule[plan.size()]);
+
+        Map<String, Map<String, Integer>> valuesByHeader = new LinkedHashMap<String, Map<String, Integer>>();
+        List<Integer> levels = new ArrayList<Integer>();
+        List<String> prefixes = new ArrayList<String>();
+        List<Integer> prefixRuleList = new ArrayList<Integer>();
+        List<String> substrings = new ArrayList<String>();
+        List<Integer> containsRuleList = new ArrayList<Integer>();
+        for (int i = 0; i < rules.length; i++) {
+            Rule rule = rules[i];
+            switch (rule.type) {
+                case HEADER_EQUALS:
+                case HEADER_IN:
+                    Map<String, Integer> ruleByValue = valuesByHeader.get(rule.header);
+                    if (ruleByValue == null) {
+                        ruleByValue = new HashMap<String, Integer>();
+                        valuesByHeader.put(rule.header, ruleByValue);
+                    }
+                    for (String value : rule.values) {
+                        if (!ruleByValue.containsKey(value)) {
+                            ruleByValue.put(value, i);
+                        }
+                    }
+                    break;
+                case LEVEL:
+                    levels.add(i);
+                    break;
+                case BODY_PREFIX:
+                    for (String value : rule.values) {
+                        prefixes.add(value);
+                        prefixRuleList.add(i);
+                    }
+                    break;
+                case BODY_CONTAINS:
+                    for (String value : rule.values) {
+                        substrings.add(value);
+                        containsRuleList.add(i);
+                    }
+                    break;
+            }
+        }
+
+        headerNames = valuesByHeader.keySet().toArray(new String[valuesByHeader.size()]);
+        headerValues = new ArrayList<Map<String, Integer>>(headerNames.length);
+        for (String headerName : headerNames) {
+            headerValues.add(ImmutableMap.copyOf(valuesByHeader.get(headerName)));
+        }
+
+        levelHeaders = new String[levels.size()];
+        levelThresholds = new int[levels.size()];
+        levelRules = new int[levels.size()];
+        for (int i = 0; i < levels.size(); i++) {
+            Rule rule = rules[levels.get(i)];
+            levelHeaders[i] = rule.header;
+            levelThresholds[i] = LogLevels.rankOf(rule.values.get(0));
+            levelRules[i] = levels.get(i);
+        }
+
+        prefixMatcher = prefixes.isEmpty() ? null : new BytePatternMatcher(prefixes);
+        prefixRules = toArray(prefixRuleList);
+        containsMatcher = substrings.isEmpty() ? null : new BytePatternMatcher(substrings);
+        containsRules = toArray(containsRuleList);
+
+        counterGroup = new CounterGroup();
+        events = counterGroup.getCounter("filter.events");
+        kept = counterGroup.getCounter("filter.kept");
+        dropped = new AtomicLong[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            dropped[i] = counterGroup.getCounter("filter." + rules[i].name + ".dropped");
+        }
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    @Override
+    public void initialize() {
+        // no-op
+    }
+
+    /**
+     * Returns null if the event is dropped.
+     */
+    @Override
+    public Event intercept(Event event) {
+        events.incrementAndGet();
+        int rule = match(event);
+        if (rule > -1) {
+            dropped[rule].incrementAndGet();
+            return null;
+        }
+        kept.incrementAndGet();
+        return event;
+    }
+
+    /**
+     * Returns the events that aren't dropped.
+     * @param events
+     * @return
+     */
+    @Override
+    public List<Event> intercept(List<Event> events) {
+        List<Event> intercepted = new ArrayList<Event>(events.size());
+        for (Event event : events) {
+            if (intercept(event) != null) {
+                intercepted.add(event);
+            }
+        }
+        return intercepted;
+    }
+
+    /**
+     * Returns the index of the first rule in the plan that matches, or -1 if none does.
+     */
+    private int match(Event event) {
+        Map<String, String> headers = event.getHeaders();
+        for (int i = 0; i < headerNames.length; i++) {
+            String value = headers.get(headerNames[i]);
+            if (value != null) {
+                Integer rule = headerValues.get(i).get(value);
+                if (rule != null) {
+                    return rule;
+                }
+            }
+        }
+
+        for (int i = 0; i < levelHeaders.length; i++) {
+            int rank = LogLevels.rankOf(headers.get(levelHeaders[i]));
+            if (rank != LogLevels.UNKNOWN && rank < levelThresholds[i]) {
+                return levelRules[i];
+            }
+        }
+
+        byte[] body = event.getBody();
+        if (prefixMatcher != null) {
+            int pattern = prefixMatcher.findPrefix(body);
+            if (pattern > -1) {
+                return prefixRules[pattern];
+            }
+        }
+        if (containsMatcher != null) {
+            int pattern = containsMatcher.find(body);
+            if (pattern > -1) {
+                return containsRules[pattern];
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() {
+        log.info("FilterInterceptor closed. Metrics: {}", getCounterGroup());
+    }
+
+    /**
+     * Besides the dropped events per rule, the counters contain the events that passed each rule,
+     * which are the events that weren't dropped by that rule or any rule before it in the plan.
+     */
+    public CounterGroup getCounterGroup() {
+        long passed = events.get();
+        for (int i = 0; i < rules.length; i++) {
+            passed -= dropped[i].get();
+            counterGroup.set("filter." + rules[i].name + ".kept", passed);
+        }
+        return counterGroup;
+    }
+
+    /**
+     * Builder which builds new instance of the FilterInterceptor.
+     */
+    public static class Builder implements Interceptor.Builder {
+
+        private List<Rule> rules;
+
+        @Override
+        public void configure(Context context) {
+            String ruleNames = context.getString(RULES);
+            Preconditions.checkState(ruleNames != null, "The parameter " + RULES + " must be specified");
+
+            rules = new ArrayList<Rule>();
+            for (String name : ruleNames.trim().split("\\s+")) {
+                Context ruleContext = new Context(context.getSubProperties(RULES + "." + name + "."));
+                String typeName = ruleContext.getString(RULE_TYPE);
+                Preconditions.checkState(typeName != null, "The type of rule " + name + " must be specified");
+                RuleType type = RuleType.fromName(typeName);
+
+                String header = ruleContext.getString(RULE_HEADER);
+                Preconditions.checkState(header != null || type == RuleType.BODY_PREFIX || type == RuleType.BODY_CONTAINS,
+                        "The header of rule " + name + " must be specified");
+
+                List<String> values;
+                if (type == RuleType.HEADER_EQUALS) {
+                    values = Collections.singletonList(ruleContext.getString(RULE_VALUE));
+                } else if (type == RuleType.LEVEL) {
+                    values = Collections.singletonList(ruleContext.getString(RULE_BELOW));
+                    Preconditions.checkState(LogLevels.rankOf(values.get(0)) != LogLevels.UNKNOWN,
+                            "Rule " + name + " needs a known log level for " + RULE_BELOW);
+                } else {
+                    String separator = ruleContext.getString(RULE_SEPARATOR, RULE_SEPARATOR_DEFAULT);
+                    String valueList = ruleContext.getString(RULE_VALUES);
+                    Preconditions.checkState(valueList != null, "The values of rule " + name + " must be specified");
+                    values = new ArrayList<String>();
+                    for (String value : valueList.split(Pattern.quote(separator))) {
+                        if (!value.isEmpty()) {
+                            values.add(value);
+                        }
+                    }
+                    Preconditions.checkState(!values.isEmpty(), "The values of rule " + name + " must be specified");
+                }
+                Preconditions.checkState(values.get(0) != null, "The value of rule " + name + " must be specified");
+                rules.add(new Rule(name, type, header, values));
+            }
+        }
+
+        @Override
+        public Interceptor build() {
+            log.info(String.format("Creating FilterInterceptor: rules=%s", rules.size()));
+            return new FilterInterceptor(rules);
+        }
+
+    }
+
+    public static class Constants {
+
+        public static final String RULES = "rules";
+
+        public static final String RULE_TYPE = "type";
+        public static final String RULE_HEADER = "header";
+        public static final String RULE_VALUE = "value";
+        public static final String RULE_VALUES = "values";
+        public static final String RULE_BELOW = "below";
+
+        public static final String RULE_SEPARATOR = "separator";
+        public static final String RULE_SEPARATOR_DEFAULT = " ";
+    }
+
+}
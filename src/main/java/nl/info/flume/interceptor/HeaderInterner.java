@@ -0,0 +1,50 @@
+package nl.info.flume.interceptor;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import org.apache.flume.CounterGroup;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gives canonical instances of header keys and values, so events queued in a channel share
+ * the same few hundred customer names, hostnames and static values instead of each holding
+ * their own copies. The interner only holds weak references, so values that are no longer
+ * used by any event are garbage collected. Long values are unlikely to be shared and are
+ * returned as they are.
+ * <br/>
+ * The counters tell how many values were replaced by a canonical instance (interned) and how
+ * many were canonical already (unique).
+ *
+ * @author daan.debie
+ */
+public final class HeaderInterner {
+
+    private static final int MAX_LENGTH = 256;
+
+    private static final Interner<String> INTERNER = Interners.newWeakInterner();
+
+    private static final CounterGroup COUNTER_GROUP = new CounterGroup();
+    private static final AtomicLong INTERNED = COUNTER_GROUP.getCounter("header.interner.interned");
+    private static final AtomicLong UNIQUE = COUNTER_GROUP.getCounter("header.interner.unique");
+
+    private HeaderInterner() {
+    }
+
+    public static String intern(String value) {
+        if (value == null || value.length() > MAX_LENGTH) {
+            return value;
+        }
+        String canonical = INTERNER.intern(value);
+        if (canonical == value) {
+            UNIQUE.incrementAndGet();
+        } else {
+            INTERNED.incrementAndGet();
+        }
+        return canonical;
+    }
+
+    public static CounterGroup getCounterGroup() {
+        return COUNTER_GROUP;
+    }
+}
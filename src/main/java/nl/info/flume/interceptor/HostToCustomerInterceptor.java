@@ -29,16 +29,18 @@ public class HostToCustomerInterceptor implements Interceptor {
     private final String path;
     private final String customerHeader;
     private final String hostHeader;
+    private final boolean internHeaders;
     private static final String UNKNOWN_CUSTOMER = "UNKNOWN";
     private Map<String, String> hostToCustomerMap;
 
     /**
      * Only {@link StaticFileInterceptor.Builder} can build me
      */
-    private HostToCustomerInterceptor(String path, String customerHeader, String hostHeader) {
+    private HostToCustomerInterceptor(String path, String customerHeader, String hostHeader, boolean internHeaders) {
         this.path = path;
         this.customerHeader = customerHeader;
         this.hostHeader = hostHeader;
+        this.internHeaders = internHeaders;
     }
 
     @Override
@@ -67,6 +69,13 @@ public class HostToCustomerInterceptor implements Interceptor {
             return event;
         } else {
             String host = headers.get(hostHeader);
+            if (internHeaders) {
+                String canonicalHost = HeaderInterner.intern(host);
+                if (canonicalHost != host) {
+                    host = canonicalHost;
+                    headers.put(hostHeader, host);
+                }
+            }
             if(host.contains(".")) {
                 shortHost = host.substring(0, host.indexOf("."));
             } else {
@@ -98,7 +107,9 @@ public class HostToCustomerInterceptor implements Interceptor {
 
     @Override
     public void close() {
-        // no-op
+        if (internHeaders) {
+            log.info("HostToCustomerInterceptor closed. Header interner metrics: {}", HeaderInterner.getCounterGroup());
+        }
     }
 
     public static Map<String, String> buildCustomerToHostMapFromFile(File file) throws FileNotFoundException, IOException {
@@ -123,7 +134,7 @@ public class HostToCustomerInterceptor implements Interceptor {
                     if(host.contains(".")) {
                         host = host.substring(0, host.indexOf("."));
                     }
-                    hostToCustomerMap.put(host, customer);
+                    hostToCustomerMap.put(HeaderInterner.intern(host), HeaderInterner.intern(customer));
                 }
             }
             line = bufferedReader.readLine();
@@ -141,19 +152,21 @@ public class HostToCustomerInterceptor implements Interceptor {
         private String customerHeader;
         private String hostHeader;
         private String path;
+        private boolean internHeaders;
 
         @Override
         public void configure(Context context) {
             path = context.getString(PATH, PATH_DEFAULT);
             customerHeader = context.getString(CUSTOMER_HEADER, CUSTOMER_HEADER_DEFAULT);
             hostHeader = context.getString(HOST_HEADER, HOST_HEADER_DEFAULT);
+            internHeaders = context.getBoolean(INTERN_HEADERS, INTERN_HEADERS_DEFAULT);
         }
 
         @Override
         public Interceptor build() {
             log.info(String.format(
                     "Creating HostToCustomerInterceptor: path=%s, customerHeader=%s", path, customerHeader));
-            return new HostToCustomerInterceptor(path, customerHeader, hostHeader);
+            return new HostToCustomerInterceptor(path, customerHeader, hostHeader, internHeaders);
         }
 
 
@@ -169,6 +182,9 @@ public class HostToCustomerInterceptor implements Interceptor {
 
         public static final String HOST_HEADER = "hostHeader";
         public static final String HOST_HEADER_DEFAULT = "host";
+
+        public static final String INTERN_HEADERS = "internHeaders";
+        public static final boolean INTERN_HEADERS_DEFAULT = true;
     }
 
 }
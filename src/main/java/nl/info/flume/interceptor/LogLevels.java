@@ -0,0 +1,55 @@
+package nl.info.flume.interceptor;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Ranks the log levels of java.util.logging, Log4J and Syslog on one scale, so
+ * levels from different sources can be compared to a threshold.
+ *
+ * @author daan.debie
+ */
+public final class LogLevels {
+
+    public static final int UNKNOWN = -1;
+
+    private static final Map<String, Integer> RANKS = new HashMap<String, Integer>();
+
+    static {
+        rank(0, "FINEST", "TRACE");
+        rank(1, "FINER");
+        rank(2, "FINE", "DEBUG");
+        rank(3, "CONFIG");
+        rank(4, "INFO");
+        rank(5, "NOTICE");
+        rank(6, "WARNING", "WARN");
+        rank(7, "SEVERE", "ERROR", "ERR");
+        rank(8, "CRITICAL", "CRIT");
+        rank(9, "ALERT");
+        rank(10, "FATAL", "EMERGENCY", "EMERG");
+    }
+
+    private LogLevels() {
+    }
+
+    private static void rank(int rank, String... levels) {
+        for (String level : levels) {
+            RANKS.put(level, rank);
+        }
+    }
+
+    /**
+     * Returns the rank of the level (higher is more severe), or {@link #UNKNOWN}.
+     */
+    public static int rankOf(String level) {
+        if (level == null) {
+            return UNKNOWN;
+        }
+        Integer rank = RANKS.get(level);
+        if (rank == null) {
+            rank = RANKS.get(level.trim().toUpperCase(Locale.ENGLISH));
+        }
+        return rank != null ? rank : UNKNOWN;
+    }
+}
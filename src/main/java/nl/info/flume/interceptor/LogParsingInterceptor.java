@@ -0,0 +1,143 @@
+package nl.info.flume.interceptor;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+import nl.info.flume.serialization.ApacheLogAvroEventSerializer.ApacheEvent;
+import nl.info.flume.serialization.ApacheLogParser;
+import nl.info.flume.serialization.JavaLogAvroEventSerializer.JavaEvent;
+import nl.info.flume.serialization.JavaLogParser;
+import nl.info.flume.serialization.ParsedHeaders;
+import nl.info.flume.serialization.SyslogAvroEventSerializer.SyslogEvent;
+import nl.info.flume.serialization.SyslogParser;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.interceptor.Interceptor;
+
+import java.util.List;
+import java.util.Map;
+
+import static nl.info.flume.interceptor.LogParsingInterceptor.Constants.*;
+
+/**
+ * Parses the body of each event once, at the source tier, and puts the parsed fields in the
+ * headers (see {@link ParsedHeaders}). Channel selectors and HDFS path escapes can then use them,
+ * and the matching serializer uses them instead of parsing the body again.
+ * The format is one of apache, syslog or java, like the serializers.
+ *
+ * @author daan.debie
+ */
+@Slf4j
+public class LogParsingInterceptor implements Interceptor {
+
+    private final String format;
+    private final String hostHeader;
+
+    /**
+     * Only {@link LogParsingInterceptor.Builder} can build me
+     */
+    private LogParsingInterceptor(String format, String hostHeader) {
+        this.format = format;
+        this.hostHeader = hostHeader;
+    }
+
+    @Override
+    public void initialize() {
+        // no-op
+    }
+
+    /**
+     * Modifies events in-place.
+     */
+    @Override
+    public Event intercept(Event event) {
+        Map<String, String> headers = event.getHeaders();
+        if (ParsedHeaders.isParsed(headers, format)) {
+            // parsed at a previous hop
+            return event;
+        }
+
+        boolean parsed = false;
+        if (ParsedHeaders.APACHE.equals(format)) {
+            String logline = new String(event.getBody(), Charsets.UTF_8);
+            ApacheEvent apacheEvent = new ApacheEvent();
+            parsed = ApacheLogParser.parse(logline, apacheEvent);
+            if (parsed) {
+                apacheEvent.toHeaders(headers);
+            } else {
+                log.warn("The event doesn't match the Apache LogFormat! [{}]", logline);
+            }
+        } else if (ParsedHeaders.SYSLOG.equals(format)) {
+            if (event.getBody().length >= SyslogParser.MIN_LENGTH) {
+                SyslogEvent sle = new SyslogEvent();
+                parsed = SyslogParser.parse(event.getBody(), sle);
+                if (parsed) {
+                    headers.put(hostHeader, sle.getHostname());
+                }
+                sle.toHeaders(headers);
+            }
+        } else {
+            JavaEvent jve = new JavaEvent();
+            parsed = JavaLogParser.parse(event.getBody(), jve);
+            jve.toHeaders(headers);
+        }
+        headers.put(ParsedHeaders.FORMAT, format);
+        if (!parsed) {
+            // so the serializers can still keep the original of lines that didn't parse
+            headers.put(ParsedHeaders.FAILED, "true");
+        }
+        return event;
+    }
+
+    /**
+     * Delegates to {@link #intercept(Event)} in a loop.
+     * @param events
+     * @return
+     */
+    @Override
+    public List<Event> intercept(List<Event> events) {
+        for (Event event : events) {
+            intercept(event);
+        }
+        return events;
+    }
+
+    @Override
+    public void close() {
+        // no-op
+    }
+
+    /**
+     * Builder which builds new instance of the LogParsingInterceptor.
+     */
+    public static class Builder implements Interceptor.Builder {
+
+        private String format;
+        private String hostHeader;
+
+        @Override
+        public void configure(Context context) {
+            format = context.getString(FORMAT);
+            Preconditions.checkState(ParsedHeaders.APACHE.equals(format) || ParsedHeaders.SYSLOG.equals(format)
+                    || ParsedHeaders.JAVA.equals(format), "The parameter " + FORMAT + " must be one of apache, syslog or java");
+            hostHeader = context.getString(HOST_HEADER, HOST_HEADER_DEFAULT);
+        }
+
+        @Override
+        public Interceptor build() {
+            log.info(String.format(
+                    "Creating LogParsingInterceptor: format=%s, hostHeader=%s", format, hostHeader));
+            return new LogParsingInterceptor(format, hostHeader);
+        }
+
+    }
+
+    public static class Constants {
+
+        public static final String FORMAT = "format";
+
+        public static final String HOST_HEADER = "hostHeader";
+        public static final String HOST_HEADER_DEFAULT = "host";
+    }
+
+}
@@ -0,0 +1,172 @@
+package nl.info.flume.interceptor;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.FlumeException;
+import org.apache.flume.interceptor.Interceptor;
+import org.apache.flume.interceptor.InterceptorBuilderFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static nl.info.flume.interceptor.ParallelInterceptor.Constants.*;
+
+/**
+ * Wraps another interceptor and runs it on a thread pool for large batches.
+ * A batch of at least threshold events is split into chunks of chunkSize events, which are
+ * intercepted concurrently. The calling thread intercepts the last chunk itself. The results
+ * are concatenated in the original order, so events the delegate drops stay dropped.
+ * Smaller batches are passed to the delegate on the calling thread.
+ * <br/>
+ * The wrapped interceptor must be safe to call from multiple threads at once.
+ *
+ * @author daan.debie
+ */
+@Slf4j
+public class ParallelInterceptor implements Interceptor {
+
+    private final Interceptor delegate;
+    private final int threshold;
+    private final int chunkSize;
+    private final int threads;
+    private ExecutorService executor;
+
+    /**
+     * Only {@link ParallelInterceptor.Builder} can build me
+     */
+    private ParallelInterceptor(Interceptor delegate, int threshold, int chunkSize, int threads) {
+        this.delegate = delegate;
+        this.threshold = threshold;
+        this.chunkSize = chunkSize;
+        this.threads = threads;
+    }
+
+    @Override
+    public void initialize() {
+        delegate.initialize();
+        executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("ParallelInterceptor-%d").setDaemon(true).build());
+    }
+
+    @Override
+    public Event intercept(Event event) {
+        return delegate.intercept(event);
+    }
+
+    @Override
+    public List<Event> intercept(List<Event> events) {
+        int size = events.size();
+        if (size < threshold) {
+            return delegate.intercept(events);
+        }
+
+        List<Future<List<Event>>> futures = new ArrayList<Future<List<Event>>>(size / chunkSize + 1);
+        int lastChunkStart = ((size - 1) / chunkSize) * chunkSize;
+        for (int from = 0; from < lastChunkStart; from += chunkSize) {
+            final List<Event> chunk = new ArrayList<Event>(events.subList(from, from + chunkSize));
+            futures.add(executor.submit(new Callable<List<Event>>() {
+                @Override
+                public List<Event> call() {
+                    return delegate.intercept(chunk);
+                }
+            }));
+        }
+        List<Event> lastChunk = delegate.intercept(new ArrayList<Event>(events.subList(lastChunkStart, size)));
+
+        List<Event> intercepted = new ArrayList<Event>(size);
+        for (Future<List<Event>> future : futures) {
+            intercepted.addAll(getChunk(future));
+        }
+        intercepted.addAll(lastChunk);
+        return intercepted;
+    }
+
+    private List<Event> getChunk(Future<List<Event>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FlumeException("Interrupted while waiting for intercepted chunk", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new FlumeException("Intercepting chunk failed", e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(500, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        delegate.close();
+    }
+
+    /**
+     * Builder which builds the delegate from the "delegate." properties, and wraps it.
+     */
+    public static class Builder implements Interceptor.Builder {
+
+        private Interceptor.Builder delegateBuilder;
+        private int threshold;
+        private int chunkSize;
+        private int threads;
+
+        @Override
+        public void configure(Context context) {
+            Context delegateContext = new Context(context.getSubProperties(DELEGATE_PREFIX));
+            String delegateType = delegateContext.getString(DELEGATE_TYPE);
+            Preconditions.checkState(delegateType != null, "The parameter " + DELEGATE_PREFIX + DELEGATE_TYPE + " must be specified");
+            try {
+                delegateBuilder = InterceptorBuilderFactory.newInstance(delegateType);
+            } catch (Exception e) {
+                throw new FlumeException("Unable to create delegate interceptor builder: " + delegateType, e);
+            }
+            delegateBuilder.configure(delegateContext);
+
+            threshold = context.getInteger(THRESHOLD, THRESHOLD_DEFAULT);
+            chunkSize = context.getInteger(CHUNK_SIZE, CHUNK_SIZE_DEFAULT);
+            threads = context.getInteger(THREADS, Runtime.getRuntime().availableProcessors());
+            Preconditions.checkState(chunkSize > 0, "The parameter " + CHUNK_SIZE + " must be positive");
+            Preconditions.checkState(threads > 0, "The parameter " + THREADS + " must be positive");
+        }
+
+        @Override
+        public Interceptor build() {
+            log.info(String.format(
+                    "Creating ParallelInterceptor: threshold=%s, chunkSize=%s, threads=%s", threshold, chunkSize, threads));
+            return new ParallelInterceptor(delegateBuilder.build(), threshold, chunkSize, threads);
+        }
+
+    }
+
+    public static class Constants {
+
+        public static final String DELEGATE_PREFIX = "delegate.";
+        public static final String DELEGATE_TYPE = "type";
+
+        public static final String THRESHOLD = "threshold";
+        public static final int THRESHOLD_DEFAULT = 1000;
+
+        public static final String CHUNK_SIZE = "chunkSize";
+        public static final int CHUNK_SIZE_DEFAULT = 250;
+
+        public static final String THREADS = "threads";
+    }
+
+}
@@ -0,0 +1,190 @@
+package nl.info.flume.interceptor;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.interceptor.Interceptor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static nl.info.flume.interceptor.PartitionKeyInterceptor.Constants.*;
+
+/**
+ * Computes a stable partition for each event from the values of the configured headers, and puts
+ * it in a header that a multiplexing channel selector or a sink processor can route on.
+ * <br/>
+ * Partitions are placed on a consistent hash ring with a number of virtual nodes each, so all events
+ * with the same key (say, the same customer) end up in the same partition, and adding or removing a
+ * partition only moves the keys of that partition instead of reshuffling all of them.
+ *
+ * @author daan.debie
+ */
+@Slf4j
+public class PartitionKeyInterceptor implements Interceptor {
+
+    private static final HashFunction HASH = Hashing.murmur3_32();
+    private static final int MAX_CACHED_KEYS = 10000;
+
+    private final String[] headers;
+    private final String[] partitions;
+    private final int virtualNodes;
+    private final String partitionHeader;
+
+    private int[] ringHashes;
+    private String[] ringPartitions;
+    private final Map<String, String> cache = new ConcurrentHashMap<String, String>();
+
+    /**
+     * Only {@link PartitionKeyInterceptor.Builder} can build me
+     */
+    private PartitionKeyInterceptor(String[] headers, String[] partitions, int virtualNodes, String partitionHeader) {
+        this.headers = headers;
+        this.partitions = partitions;
+        this.virtualNodes = virtualNodes;
+        this.partitionHeader = partitionHeader;
+    }
+
+    @Override
+    public void initialize() {
+        TreeMap<Integer, String> ring = new TreeMap<Integer, String>();
+        for (String partition : partitions) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(partition + "#" + i), partition);
+            }
+        }
+        ringHashes = new int[ring.size()];
+        ringPartitions = new String[ring.size()];
+        int i = 0;
+        for (Map.Entry<Integer, String> node : ring.entrySet()) {
+            ringHashes[i] = node.getKey();
+            ringPartitions[i] = node.getValue();
+            i++;
+        }
+    }
+
+    /**
+     * Modifies events in-place.
+     */
+    @Override
+    public Event intercept(Event event) {
+        Map<String, String> eventHeaders = event.getHeaders();
+        eventHeaders.put(partitionHeader, partitionFor(keyOf(eventHeaders)));
+        return event;
+    }
+
+    /**
+     * Delegates to {@link #intercept(Event)} in a loop.
+     * @param events
+     * @return
+     */
+    @Override
+    public List<Event> intercept(List<Event> events) {
+        for (Event event : events) {
+            intercept(event);
+        }
+        return events;
+    }
+
+    private String keyOf(Map<String, String> eventHeaders) {
+        if (headers.length == 1) {
+            String value = eventHeaders.get(headers[0]);
+            return value != null ? value : "";
+        }
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < headers.length; i++) {
+            if (i > 0) {
+                key.append('\u0001');
+            }
+            String value = eventHeaders.get(headers[i]);
+            if (value != null) {
+                key.append(value);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the partition owning the first virtual node at or after the hash of the key,
+     * wrapping around the ring.
+     */
+    String partitionFor(String key) {
+        String partition = cache.get(key);
+        if (partition == null) {
+            int index = Arrays.binarySearch(ringHashes, hash(key));
+            if (index < 0) {
+                index = -index - 1;
+                if (index == ringHashes.length) {
+                    index = 0;
+                }
+            }
+            partition = ringPartitions[index];
+            if (cache.size() < MAX_CACHED_KEYS) {
+                cache.put(key, partition);
+            }
+        }
+        return partition;
+    }
+
+    private static int hash(String value) {
+        return HASH.hashString(value, Charsets.UTF_8).asInt();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Builder which builds new instance of the PartitionKeyInterceptor.
+     */
+    public static class Builder implements Interceptor.Builder {
+
+        private String[] headers;
+        private String[] partitions;
+        private int virtualNodes;
+        private String partitionHeader;
+
+        @Override
+        public void configure(Context context) {
+            headers = context.getString(HEADERS, HEADERS_DEFAULT).trim().split("\\s+");
+            String partitionNames = context.getString(PARTITIONS);
+            Preconditions.checkState(partitionNames != null && !partitionNames.trim().isEmpty(),
+                    "The parameter " + PARTITIONS + " must be specified");
+            partitions = partitionNames.trim().split("\\s+");
+            virtualNodes = context.getInteger(VIRTUAL_NODES, VIRTUAL_NODES_DEFAULT);
+            Preconditions.checkState(virtualNodes > 0, "The parameter " + VIRTUAL_NODES + " must be at least 1");
+            partitionHeader = context.getString(PARTITION_HEADER, PARTITION_HEADER_DEFAULT);
+        }
+
+        @Override
+        public Interceptor build() {
+            log.info(String.format(
+                    "Creating PartitionKeyInterceptor: headers=%s, partitions=%s, virtualNodes=%s, partitionHeader=%s",
+                    Arrays.toString(headers), Arrays.toString(partitions), virtualNodes, partitionHeader));
+            return new PartitionKeyInterceptor(headers, partitions, virtualNodes, partitionHeader);
+        }
+
+    }
+
+    public static class Constants {
+
+        public static final String HEADERS = "headers";
+        public static final String HEADERS_DEFAULT = "customer";
+
+        public static final String PARTITIONS = "partitions";
+
+        public static final String VIRTUAL_NODES = "virtualNodes";
+        public static final int VIRTUAL_NODES_DEFAULT = 100;
+
+        public static final String PARTITION_HEADER = "partitionHeader";
+        public static final String PARTITION_HEADER_DEFAULT = "partition";
+    }
+
+}
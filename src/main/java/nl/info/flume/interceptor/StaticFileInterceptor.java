@@ -10,13 +10,18 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import static nl.info.flume.interceptor.StaticFileInterceptor.Constants.*;
 
 /**
- * ...
+ * Adds the key-value pairs from a property file to the headers of each event.
+ * Values may contain placeholders, see {@link TemplateResolver}. The file is read and
+ * the placeholders are resolved at startup, and again whenever the file is modified
+ * (checked at most once every reloadInterval ms), so intercepting is just a header put.
  *
  * @author daan.debie
  */
@@ -25,21 +30,25 @@ public class StaticFileInterceptor implements Interceptor {
 
     private final boolean preserveExisting;
     private final String path;
+    private final long reloadInterval;
     private File staticFile;
-    private Map<String, String> statics;
+    private volatile Map<String, String> statics = Collections.emptyMap();
+    private volatile long lastModified;
+    private volatile long nextReloadCheck;
 
     /**
      * Only {@link StaticFileInterceptor.Builder} can build me
      */
-    private StaticFileInterceptor(boolean preserveExisting, String path) {
+    private StaticFileInterceptor(boolean preserveExisting, String path, long reloadInterval) {
         this.preserveExisting = preserveExisting;
         this.path = path;
-
+        this.reloadInterval = reloadInterval;
     }
 
     @Override
     public void initialize() {
-        // no-op
+        staticFile = new File(path);
+        reload();
     }
 
     /**
@@ -47,55 +56,21 @@ public class StaticFileInterceptor implements Interceptor {
      */
     @Override
     public Event intercept(Event event) {
-        Map<String, String> headers = event.getHeaders();
-        staticFile = new File(path);
-        FileReader fileReader;
-        String line;
-        int count = 0;
-
-        try {
-            fileReader = new FileReader(staticFile);
-        } catch (FileNotFoundException e) {
-            log.warn("Could not find file: {}", path);
-            return event;
-        }
-
-        BufferedReader bufferedReader = new BufferedReader(fileReader);
-        try {
-            String[] keyValues;
-            String key;
-            String value;
-            line = bufferedReader.readLine();
-            count++;
-            while(line != null) {
-                keyValues = line.split("=");
-                key = keyValues[0];
-                value = keyValues[1];
-                if (preserveExisting && headers.containsKey(key)) {
-                    continue;
-                }
-                headers.put(key, value);
-                line = bufferedReader.readLine();
-            }
-            bufferedReader.close();
-        } catch (IOException e) {
-            log.warn("File IO error in: {}", path);
-        } catch (IndexOutOfBoundsException e) {
-            log.warn("Static key-value pair not properly formatted on line {} of {}", count, path);
-        }
-
+        reloadIfModified();
+        addStatics(event);
         return event;
     }
 
     /**
-     * Delegates to {@link #intercept(Event)} in a loop.
+     * Checks for modifications once, and then adds the statics to every event.
      * @param events
      * @return
      */
     @Override
     public List<Event> intercept(List<Event> events) {
+        reloadIfModified();
         for (Event event : events) {
-            intercept(event);
+            addStatics(event);
         }
         return events;
     }
@@ -105,6 +80,77 @@ public class StaticFileInterceptor implements Interceptor {
         // no-op
     }
 
+    private void addStatics(Event event) {
+        Map<String, String> headers = event.getHeaders();
+        for (Map.Entry<String, String> entry : statics.entrySet()) {
+            if (preserveExisting && headers.containsKey(entry.getKey())) {
+                continue;
+            }
+            headers.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void reloadIfModified() {
+        long now = System.currentTimeMillis();
+        if (now < nextReloadCheck) {
+            return;
+        }
+        nextReloadCheck = now + reloadInterval;
+        if (staticFile.lastModified() != lastModified) {
+            reload();
+        }
+    }
+
+    private synchronized void reload() {
+        lastModified = staticFile.lastModified();
+        try {
+            statics = buildStaticsFromFile(staticFile);
+            log.info("Loaded {} static headers from: {}", statics.size(), path);
+        } catch (FileNotFoundException e) {
+            log.warn("Could not find file: {}", path);
+        } catch (IOException e) {
+            log.warn("File IO error in: {}", path);
+        }
+    }
+
+    /**
+     * Reads the key-value pairs from the file, with all placeholders in the values resolved.
+     * Empty lines and lines starting with '#' are skipped.
+     */
+    public static Map<String, String> buildStaticsFromFile(File file) throws FileNotFoundException, IOException {
+
+        Map<String, String> statics = new LinkedHashMap<String, String>();
+        String line;
+        int count = 0;
+
+        BufferedReader bufferedReader = new BufferedReader(new FileReader(file));
+        try {
+            line = bufferedReader.readLine();
+            while(line != null) {
+                count++;
+                if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                    int separator = line.indexOf('=');
+                    if (separator > 0) {
+                        String key = line.substring(0, separator).trim();
+                        String value = line.substring(separator + 1).trim();
+                        statics.put(HeaderInterner.intern(key), HeaderInterner.intern(TemplateResolver.resolve(value)));
+                    } else {
+                        log.warn("Static key-value pair not properly formatted on line {} of {}", count, file);
+                    }
+                }
+                line = bufferedReader.readLine();
+            }
+        } finally {
+            try {
+                bufferedReader.close();
+            } catch (IOException e) {
+                log.warn("Could not close file: {}", file);
+            }
+        }
+
+        return Collections.unmodifiableMap(statics);
+    }
+
     /**
      * Builder which builds new instance of the StaticInterceptor.
      */
@@ -112,19 +158,21 @@ public class StaticFileInterceptor implements Interceptor {
 
         private boolean preserveExisting;
         private String path;
+        private long reloadInterval;
 
         @Override
         public void configure(Context context) {
             preserveExisting = context.getBoolean(PRESERVE, PRESERVE_DEFAULT);
             path = context.getString(PATH, PATH_DEFAULT);
+            reloadInterval = context.getLong(RELOAD_INTERVAL, RELOAD_INTERVAL_DEFAULT);
         }
 
         @Override
         public Interceptor build() {
             log.info(String.format(
-                    "Creating StaticFileInterceptor: preserveExisting=%s,path=%s",
-                    preserveExisting, path));
-            return new StaticFileInterceptor(preserveExisting, path);
+                    "Creating StaticFileInterceptor: preserveExisting=%s,path=%s,reloadInterval=%s",
+                    preserveExisting, path, reloadInterval));
+            return new StaticFileInterceptor(preserveExisting, path, reloadInterval);
         }
 
 
@@ -137,6 +185,9 @@ public class StaticFileInterceptor implements Interceptor {
 
         public static final String PRESERVE = "preserveExisting";
         public static final boolean PRESERVE_DEFAULT = true;
+
+        public static final String RELOAD_INTERVAL = "reloadInterval";
+        public static final long RELOAD_INTERVAL_DEFAULT = 10000L;
     }
 
 }
@@ -0,0 +1,106 @@
+package nl.info.flume.interceptor;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Resolves placeholders in configured values, so one config file can be shared by many machines.
+ * Supported placeholders are:
+ * <ul>
+ *     <li><code>${hostname}</code>: the hostname of the machine running the agent</li>
+ *     <li><code>${env:VAR}</code>: the environment variable VAR</li>
+ *     <li><code>${sysprop:x}</code>: the Java system property x</li>
+ *     <li><code>${file:/etc/dc}</code>: the first line of the given file, trimmed</li>
+ * </ul>
+ * Placeholders that can't be resolved are left in the value as they are, so the
+ * misconfiguration shows up in the data instead of silently turning into an empty string.
+ * <br/>
+ * This is meant to be used at (re)load time only, never per event.
+ *
+ * @author daan.debie
+ */
+@Slf4j
+public final class TemplateResolver {
+
+    private static final String START = "${";
+    private static final String END = "}";
+
+    private static final String HOSTNAME = "hostname";
+    private static final String ENV_PREFIX = "env:";
+    private static final String SYSPROP_PREFIX = "sysprop:";
+    private static final String FILE_PREFIX = "file:";
+
+    private TemplateResolver() {
+    }
+
+    public static String resolve(String value) {
+        int start = value.indexOf(START);
+        if (start < 0) {
+            return value;
+        }
+
+        StringBuilder builder = new StringBuilder(value.length());
+        int seek = 0;
+        while (start > -1) {
+            int end = value.indexOf(END, start + START.length());
+            if (end < 0) {
+                break;
+            }
+            builder.append(value, seek, start);
+            String placeholder = value.substring(start + START.length(), end);
+            String resolved = lookup(placeholder);
+            if (resolved != null) {
+                builder.append(resolved);
+            } else {
+                log.warn("Could not resolve placeholder ${{}} in: {}", placeholder, value);
+                builder.append(value, start, end + END.length());
+            }
+            seek = end + END.length();
+            start = value.indexOf(START, seek);
+        }
+        builder.append(value, seek, value.length());
+        return builder.toString();
+    }
+
+    private static String lookup(String placeholder) {
+        if (HOSTNAME.equals(placeholder)) {
+            try {
+                return InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                return null;
+            }
+        } else if (placeholder.startsWith(ENV_PREFIX)) {
+            return System.getenv(placeholder.substring(ENV_PREFIX.length()));
+        } else if (placeholder.startsWith(SYSPROP_PREFIX)) {
+            return System.getProperty(placeholder.substring(SYSPROP_PREFIX.length()));
+        } else if (placeholder.startsWith(FILE_PREFIX)) {
+            return readFirstLine(new File(placeholder.substring(FILE_PREFIX.length())));
+        }
+        return null;
+    }
+
+    private static String readFirstLine(File file) {
+        BufferedReader bufferedReader = null;
+        try {
+            bufferedReader = new BufferedReader(new FileReader(file));
+            String line = bufferedReader.readLine();
+            return line != null ? line.trim() : null;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (bufferedReader != null) {
+                try {
+                    bufferedReader.close();
+                } catch (IOException e) {
+                    log.warn("Could not close file: {}", file);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package nl.info.flume.interceptor;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket, implemented as a generic cell rate algorithm: instead of a number of
+ * tokens, it keeps the time at which the bucket will be full again in a single {@link AtomicLong},
+ * so taking a token is one compare-and-set and no background refill is needed.
+ *
+ * @author daan.debie
+ */
+final class TokenBucket {
+
+    private final long interval;
+    private final long tolerance;
+    private final AtomicLong fullAt;
+
+    /**
+     * @param rate  the number of tokens added per second
+     * @param burst the maximum number of tokens in the bucket
+     */
+    TokenBucket(double rate, long burst) {
+        Preconditions.checkArgument(rate > 0, "The rate must be positive");
+        Preconditions.checkArgument(burst > 0, "The burst must be positive");
+        // bounded, so the time at which the bucket is full can't overflow for very low rates
+        this.interval = Math.min(Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / rate)), Long.MAX_VALUE / 4 / burst);
+        this.tolerance = interval * burst;
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Takes a token if one is available.
+     * @return whether a token was taken
+     */
+    boolean tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, now) + interval;
+            if (next - now > tolerance) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package nl.info.flume.serialization;
+
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.reflect.ReflectDatumWriter;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.conf.Configurable;
+import org.apache.flume.serialization.EventSerializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Does what Flume's {@link org.apache.flume.serialization.AbstractAvroEventSerializer} does, with
+ * the same configuration, but lets subclasses choose the {@link DatumWriter}. Flume's version
+ * always uses a {@link ReflectDatumWriter}, which looks up every field reflectively and boxes
+ * every number for every record; a writer that knows the record can call the encoder directly.
+ * <br/>
+ * With <code>compressionCodec=adaptive</code> the codec is chosen per file by the
+ * {@link CodecSelector}. The first records of the file are encoded into a sample and held until
+ * the sample is full or the sink flushes; then the file is created with the chosen codec and the
+ * sampled records are appended as they were encoded. Avro fixes the codec in the file header, so
+ * every new file samples again. When a target block size is set, the sync interval is sized so
+ * that compressed blocks come out at about that size.
+ * <br/>
+ * With <code>columnar=true</code> the records are written to a Trevni file (see {@link Columns})
+ * instead of an Avro data file, compressed per column with the configured codec. That takes
+ * records that are {@link GenericRecord}s, see {@link #convertsToGenericRecords()}.
+ *
+ * @author daan.debie
+ */
+@Slf4j
+public abstract class AbstractDatumEventSerializer<T> implements EventSerializer, Configurable {
+
+    private static final String SYNC_INTERVAL_BYTES = "syncIntervalBytes";
+    private static final int SYNC_INTERVAL_BYTES_DEFAULT = 2048000;
+    private static final String COMPRESSION_CODEC = "compressionCodec";
+    private static final String COMPRESSION_CODEC_DEFAULT = "null";
+    private static final String ADAPTIVE = "adaptive";
+    private static final String ADAPTIVE_CANDIDATES = "adaptive.candidates";
+    private static final String ADAPTIVE_CANDIDATES_DEFAULT = "null deflate-1 deflate-6 snappy";
+    private static final String ADAPTIVE_CPU_BUDGET = "adaptive.cpuBudget";
+    private static final String ADAPTIVE_CPU_BUDGET_DEFAULT = "50";
+    private static final String ADAPTIVE_SAMPLE_BYTES = "adaptive.sampleBytes";
+    private static final int ADAPTIVE_SAMPLE_BYTES_DEFAULT = 262144;
+    private static final String ADAPTIVE_TARGET_BLOCK_BYTES = "adaptive.targetBlockBytes";
+    private static final int ADAPTIVE_TARGET_BLOCK_BYTES_DEFAULT = 0;
+
+    private Projection projection;
+    private DatumWriter<T> datumWriter;
+    private DataFileWriter<T> dataFileWriter;
+
+    private CodecSelector codecSelector;
+    private int sampleBytes;
+    private int targetBlockBytes;
+    // the encoded records of the file while it isn't created yet, null otherwise
+    private List<ByteBuffer> sample;
+    private int sampled;
+    private ByteArrayOutputStream sampleBuffer;
+    private BinaryEncoder sampleEncoder;
+
+    private Columns.Writer columns;
+
+    protected abstract OutputStream getOutputStream();
+
+    /**
+     * Returns the full schema of the records, before projection.
+     */
+    protected abstract Schema getSchema();
+
+    protected abstract T convert(Event event);
+
+    /**
+     * Returns the projection of the records on the written schema. Keeps everything, unless
+     * overridden.
+     */
+    protected Projection createProjection(Context context) {
+        return Projection.all(getSchema());
+    }
+
+    protected Projection getProjection() {
+        return projection;
+    }
+
+    /**
+     * Returns the writer for the records returned by {@link #convert(Event)}, for the schema of
+     * the projection. Uses reflection, unless overridden.
+     */
+    protected DatumWriter<T> createDatumWriter(Schema schema) {
+        return new ReflectDatumWriter<T>(schema);
+    }
+
+    /**
+     * Returns whether {@link #convert(Event)} returns {@link GenericRecord}s of the schema of the
+     * projection, which the columnar layout needs. False, unless overridden.
+     */
+    protected boolean convertsToGenericRecords() {
+        return false;
+    }
+
+    @Override
+    public void configure(Context context) {
+        int syncIntervalBytes = context.getInteger(SYNC_INTERVAL_BYTES, SYNC_INTERVAL_BYTES_DEFAULT);
+        String compressionCodec = context.getString(COMPRESSION_CODEC, COMPRESSION_CODEC_DEFAULT);
+
+        projection = createProjection(context);
+        if (context.getBoolean(Columns.COLUMNAR, Columns.COLUMNAR_DEFAULT)) {
+            Preconditions.checkState(convertsToGenericRecords(),
+                    "The parameter " + Columns.COLUMNAR + " can only be used with typed records, like "
+                            + TypedSchemas.SCHEMA_VERSION + " 2");
+            Preconditions.checkState(!ADAPTIVE.equals(compressionCodec),
+                    "The parameter " + COMPRESSION_CODEC + " can't be " + ADAPTIVE + " when " + Columns.COLUMNAR + " is on");
+            Preconditions.checkState(context.getBoolean(Columns.BUFFER_UNTIL_CLOSE, Columns.BUFFER_UNTIL_CLOSE_DEFAULT),
+                    "The parameter " + Columns.BUFFER_UNTIL_CLOSE + " must be true when " + Columns.COLUMNAR
+                            + " is on, since flushes don't write anything until the file is closed");
+            columns = new Columns.Writer(projection.getSchema(), compressionCodec);
+            return;
+        }
+        datumWriter = createDatumWriter(projection.getSchema());
+        dataFileWriter = new DataFileWriter<T>(datumWriter);
+        dataFileWriter.setSyncInterval(syncIntervalBytes);
+        if (ADAPTIVE.equals(compressionCodec)) {
+            codecSelector = new CodecSelector(
+                    context.getString(ADAPTIVE_CANDIDATES, ADAPTIVE_CANDIDATES_DEFAULT).split("\\s+"),
+                    Double.parseDouble(context.getString(ADAPTIVE_CPU_BUDGET, ADAPTIVE_CPU_BUDGET_DEFAULT)));
+            sampleBytes = context.getInteger(ADAPTIVE_SAMPLE_BYTES, ADAPTIVE_SAMPLE_BYTES_DEFAULT);
+            targetBlockBytes = context.getInteger(ADAPTIVE_TARGET_BLOCK_BYTES, ADAPTIVE_TARGET_BLOCK_BYTES_DEFAULT);
+            return;
+        }
+        try {
+            dataFileWriter.setCodec(CodecFactory.fromString(compressionCodec));
+        } catch (AvroRuntimeException e) {
+            log.warn("Unable to instantiate avro codec with name (" + compressionCodec
+                    + "). Compression disabled. Exception follows.", e);
+        }
+    }
+
+    @Override
+    public void afterCreate() throws IOException {
+        if (columns != null) {
+            columns.create(getOutputStream());
+            return;
+        }
+        if (codecSelector != null) {
+            sample = new ArrayList<ByteBuffer>();
+            sampled = 0;
+            sampleBuffer = new ByteArrayOutputStream();
+            return;
+        }
+        dataFileWriter.create(projection.getSchema(), getOutputStream());
+    }
+
+    @Override
+    public void afterReopen() throws IOException {
+        throw new UnsupportedOperationException("Avro API doesn't support append");
+    }
+
+    @Override
+    public void write(Event event) throws IOException {
+        if (columns != null) {
+            columns.append((GenericRecord) convert(event));
+        } else if (sample != null) {
+            writeSample(convert(event));
+        } else {
+            dataFileWriter.append(convert(event));
+        }
+    }
+
+    private void writeSample(T datum) throws IOException {
+        sampleEncoder = EncoderFactory.get().binaryEncoder(sampleBuffer, sampleEncoder);
+        datumWriter.write(datum, sampleEncoder);
+        sampleEncoder.flush();
+        sample.add(ByteBuffer.wrap(sampleBuffer.toByteArray()));
+        sampled += sampleBuffer.size();
+        sampleBuffer.reset();
+        if (sampled >= sampleBytes) {
+            createFromSample();
+        }
+    }
+
+    private void createFromSample() throws IOException {
+        CodecSelector.Choice choice = codecSelector.select(projection.getSchema(), sample);
+        dataFileWriter.setCodec(CodecSelector.codec(choice.getCodec()));
+        if (targetBlockBytes > 0) {
+            dataFileWriter.setSyncInterval(choice.syncInterval(targetBlockBytes));
+        }
+        dataFileWriter.create(projection.getSchema(), getOutputStream());
+        for (ByteBuffer record : sample) {
+            dataFileWriter.appendEncoded(record);
+        }
+        sample = null;
+        sampleBuffer = null;
+        sampleEncoder = null;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (columns != null) {
+            // a Trevni file can only be written as a whole, when it's closed, which is why the
+            // columnar layout must be turned on with Columns.BUFFER_UNTIL_CLOSE
+            return;
+        }
+        if (sample != null) {
+            createFromSample();
+        }
+        dataFileWriter.flush();
+    }
+
+    @Override
+    public void beforeClose() throws IOException {
+        if (columns != null) {
+            columns.close();
+            return;
+        }
+        // a file without any flush must still get its header and records
+        if (sample != null) {
+            createFromSample();
+            dataFileWriter.flush();
+        }
+    }
+
+    @Override
+    public boolean supportsReopen() {
+        return false;
+    }
+}
@@ -5,16 +5,16 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.Encoder;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
-import org.apache.flume.serialization.AbstractAvroEventSerializer;
 import org.apache.flume.serialization.EventSerializer;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import nl.info.flume.serialization.ApacheLogAvroEventSerializer.ApacheEvent;
 
@@ -24,11 +24,7 @@ import nl.info.flume.serialization.ApacheLogAvroEventSerializer.ApacheEvent;
  * @author daan.debie
  */
 @Slf4j
-public class ApacheLogAvroEventSerializer extends AbstractAvroEventSerializer<ApacheEvent> {
-
-    private static final String REGEXP =
-            "^([\\d.]+) (\\S+) (\\S+) \\[([\\w:/]+\\s[+\\-]\\d{4})\\] \"([^ ]*) ([^ ]*) ([^ ]*)\" (\\d{3}) (\\d+|-) \"([^\"]+)\" \"([^\"]+)\" (\\S+)? \"(\\S+)\" (\\d+|-)? (\\d+|-)? ([+|\\-|X])? \"([^\"]+)\"? \"([^\"]+)\"? (\\d+|-)? (\\d+|-)?";
-
+public class ApacheLogAvroEventSerializer extends AbstractDatumEventSerializer<Object> {
 
     private static final Schema SCHEMA = new Schema.Parser().parse(
             "{ \"type\":\"record\", \"name\": \"ApacheEvent\", \"namespace\": \"nl.info.flume\", \"fields\": [" +
@@ -56,10 +52,29 @@ public class ApacheLogAvroEventSerializer extends AbstractAvroEventSerializer<Ap
                     " {\"name\": \"bytesOut\", \"type\": \"string\" }" +
                     "] }");
 
+    private static final Schema SPAN_SCHEMA = Spans.schema(SCHEMA);
+
     private final OutputStream out;
+    private final int schemaVersion;
+    private final boolean spans;
 
     public ApacheLogAvroEventSerializer(OutputStream out) throws IOException {
+        this(out, TypedSchemas.SCHEMA_VERSION_DEFAULT);
+    }
+
+    public ApacheLogAvroEventSerializer(OutputStream out, int schemaVersion) throws IOException {
+        this(out, schemaVersion, Spans.SPANS_DEFAULT);
+    }
+
+    /**
+     * @param schemaVersion 1 for the string based schema, 2 for {@link TypedSchemas#APACHE}
+     * @param spans whether to write the string fields as spans of the original, see {@link Spans}
+     */
+    public ApacheLogAvroEventSerializer(OutputStream out, int schemaVersion, boolean spans) throws IOException {
         this.out = out;
+        this.schemaVersion = schemaVersion;
+        this.spans = spans;
+        Spans.select(schemaVersion, spans, SCHEMA, TypedSchemas.APACHE, SPAN_SCHEMA);
     }
 
     @Override
@@ -69,47 +84,79 @@ public class ApacheLogAvroEventSerializer extends AbstractAvroEventSerializer<Ap
 
     @Override
     protected Schema getSchema() {
-        return SCHEMA;
+        return Spans.select(schemaVersion, spans, SCHEMA, TypedSchemas.APACHE, SPAN_SCHEMA);
+    }
+
+    @Override
+    protected boolean convertsToGenericRecords() {
+        return schemaVersion == 2;
+    }
+
+    @Override
+    protected Projection createProjection(Context context) {
+        if (spans) {
+            return Spans.projection(context, getSchema());
+        }
+        return Projection.fromContext(context, getSchema());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected DatumWriter<Object> createDatumWriter(Schema schema) {
+        if (spans) {
+            return (DatumWriter) new Spans.RecordDatumWriter(getSchema(), getProjection());
+        }
+        if (schemaVersion == 2) {
+            return new GenericDatumWriter<Object>(schema);
+        }
+        return (DatumWriter) new ApacheEventDatumWriter(getProjection());
     }
 
     @Override
-    protected ApacheEvent convert(Event event) {
+    protected Object convert(Event event) {
+        if (spans) {
+            return convertToSpans(event);
+        }
         ApacheEvent apacheEvent = new ApacheEvent();
 
         String logline = new String(event.getBody(), Charsets.UTF_8);
-        apacheEvent.setHeaders(event.getHeaders());
+        Map<String, String> headers = event.getHeaders();
         apacheEvent.setOriginal(logline);
 
-        Pattern pattern = Pattern.compile(REGEXP);
-        Matcher m = pattern.matcher(logline);
-        if (m.matches()){
-            apacheEvent.setIp(m.group(1));
-            apacheEvent.setIdentd(m.group(2));
-            apacheEvent.setUser(m.group(3));
-            apacheEvent.setTime(m.group(4));
-            apacheEvent.setMethod(m.group(5));
-            apacheEvent.setUri(m.group(6));
-            apacheEvent.setProtocol(m.group(7));
-            apacheEvent.setStatuscode(Integer.valueOf(m.group(8)));
-            apacheEvent.setBytesSend(m.group(9));
-            apacheEvent.setReferer(m.group(10));
-            apacheEvent.setUseragent(m.group(11));
-            apacheEvent.setServername(m.group(12));
-            apacheEvent.setExtraservername(m.group(13));
-            apacheEvent.setTimeSecond(m.group(14));
-            apacheEvent.setTimeMicro(m.group(15));
-            apacheEvent.setConnectionstatus(m.group(16));
-            apacheEvent.setConnectiontype(m.group(17));
-            apacheEvent.setSessioncookie(m.group(18));
-            apacheEvent.setBytesIn(m.group(19));
-            apacheEvent.setBytesOut(m.group(20));
+        boolean parsed = true;
+        if (ParsedHeaders.isParsed(headers, ParsedHeaders.APACHE)) {
+            // already parsed by the LogParsingInterceptor
+            apacheEvent.fromHeaders(headers);
+            apacheEvent.setHeaders(ParsedHeaders.strip(headers));
+            parsed = !ParsedHeaders.isFailed(headers);
         } else {
-            log.warn("The event doesn't match the Apache LogFormat! [{}]", logline);
+            apacheEvent.setHeaders(headers);
+            parsed = ApacheLogParser.parse(logline, apacheEvent);
+            if (!parsed) {
+                log.warn("The event doesn't match the Apache LogFormat! [{}]", logline);
+            }
+        }
+        if (!getProjection().keepsOriginal(parsed)) {
+            apacheEvent.setOriginal(null);
         }
 
         // log.debug("Serialized event as: {}", apacheEvent);
 
-        return apacheEvent;
+        return schemaVersion == 2 ? getProjection().project(TypedSchemas.apache(apacheEvent), parsed) : apacheEvent;
+    }
+
+    private Spans.Record convertToSpans(Event event) {
+        String logline = new String(event.getBody(), Charsets.UTF_8);
+        Map<String, String> headers = event.getHeaders();
+        if (ParsedHeaders.isParsed(headers, ParsedHeaders.APACHE)) {
+            // spans point into the original line, so it's parsed again
+            headers = ParsedHeaders.strip(headers);
+        }
+        Spans.Record record = new Spans.Record(SPAN_SCHEMA, headers, logline);
+        if (!ApacheLogParser.parse(logline, record)) {
+            log.warn("The event doesn't match the Apache LogFormat! [{}]", logline);
+        }
+        return record;
     }
 
     public static class Builder implements EventSerializer.Builder {
@@ -118,7 +165,9 @@ public class ApacheLogAvroEventSerializer extends AbstractAvroEventSerializer<Ap
         public EventSerializer build(Context context, OutputStream out) {
             ApacheLogAvroEventSerializer writer = null;
             try {
-                writer = new ApacheLogAvroEventSerializer(out);
+                writer = new ApacheLogAvroEventSerializer(out,
+                        context.getInteger(TypedSchemas.SCHEMA_VERSION, TypedSchemas.SCHEMA_VERSION_DEFAULT),
+                        context.getBoolean(Spans.SPANS, Spans.SPANS_DEFAULT));
                 writer.configure(context);
             } catch (IOException e) {
                 log.error("Unable to parse schema file. Exception follows.", e);
@@ -128,6 +177,104 @@ public class ApacheLogAvroEventSerializer extends AbstractAvroEventSerializer<Ap
 
     }
 
+    /**
+     * Writes an {@link ApacheEvent} field by field in the order of the v1 schema, without reflection.
+     * Fields left out by the projection are skipped.
+     */
+    static class ApacheEventDatumWriter implements DatumWriter<ApacheEvent> {
+
+        private final Projection projection;
+
+        ApacheEventDatumWriter() {
+            this(Projection.all(SCHEMA));
+        }
+
+        ApacheEventDatumWriter(Projection projection) {
+            this.projection = projection;
+        }
+
+        @Override
+        public void setSchema(Schema schema) {
+        }
+
+        @Override
+        public void write(ApacheEvent event, Encoder out) throws IOException {
+            for (int position : projection.getPositions()) {
+                switch (position) {
+                    case 0:
+                        projection.writeHeaders(event.getHeaders(), out);
+                        break;
+                    case 1:
+                        projection.writeOriginal(event.getOriginal(), out);
+                        break;
+                    case 2:
+                        Encoders.writeString(event.getIp(), out);
+                        break;
+                    case 3:
+                        Encoders.writeString(event.getIdentd(), out);
+                        break;
+                    case 4:
+                        Encoders.writeString(event.getUser(), out);
+                        break;
+                    case 5:
+                        Encoders.writeString(event.getTime(), out);
+                        break;
+                    case 6:
+                        Encoders.writeString(event.getMethod(), out);
+                        break;
+                    case 7:
+                        Encoders.writeString(event.getUri(), out);
+                        break;
+                    case 8:
+                        Encoders.writeString(event.getProtocol(), out);
+                        break;
+                    case 9:
+                        out.writeInt(event.getStatuscode());
+                        break;
+                    case 10:
+                        Encoders.writeString(event.getBytesSend(), out);
+                        break;
+                    case 11:
+                        Encoders.writeString(event.getReferer(), out);
+                        break;
+                    case 12:
+                        Encoders.writeString(event.getUseragent(), out);
+                        break;
+                    case 13:
+                        Encoders.writeString(event.getServername(), out);
+                        break;
+                    case 14:
+                        Encoders.writeString(event.getExtraservername(), out);
+                        break;
+                    case 15:
+                        Encoders.writeString(event.getTimeSecond(), out);
+                        break;
+                    case 16:
+                        Encoders.writeString(event.getTimeMicro(), out);
+                        break;
+                    case 17:
+                        Encoders.writeString(event.getConnectionstatus(), out);
+                        break;
+                    case 18:
+                        Encoders.writeString(event.getConnectiontype(), out);
+                        break;
+                    case 19:
+                        Encoders.writeString(event.getSessioncookie(), out);
+                        break;
+                    case 20:
+                        Encoders.writeString(event.getBytesIn(), out);
+                        break;
+                    case 21:
+                        Encoders.writeString(event.getBytesOut(), out);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown field " + position);
+                }
+            }
+            projection.writePromoted(event.getHeaders(), out);
+        }
+    }
+
     // This class would ideally be generated from the avro schema file,
     // but we are letting reflection do the work instead.
     // There's no great reason not to let Avro generate it.
@@ -157,6 +304,58 @@ public class ApacheLogAvroEventSerializer extends AbstractAvroEventSerializer<Ap
         private String bytesIn = "";
         private String bytesOut = "";
 
+        /**
+         * Puts the parsed fields in the headers, see {@link ParsedHeaders}.
+         */
+        public void toHeaders(Map<String, String> headers) {
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "ip", ip);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "identd", identd);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "user", user);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "time", time);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "method", method);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "uri", uri);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "protocol", protocol);
+            headers.put(ParsedHeaders.PREFIX + "statuscode", String.valueOf(statuscode));
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "bytesSend", bytesSend);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "referer", referer);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "useragent", useragent);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "servername", servername);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "extraservername", extraservername);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "timeSecond", timeSecond);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "timeMicro", timeMicro);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "connectionstatus", connectionstatus);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "connectiontype", connectiontype);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "sessioncookie", sessioncookie);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "bytesIn", bytesIn);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "bytesOut", bytesOut);
+        }
+
+        /**
+         * Reads the parsed fields from the headers, see {@link ParsedHeaders}.
+         */
+        public void fromHeaders(Map<String, String> headers) {
+            ip = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "ip", ip);
+            identd = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "identd", identd);
+            user = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "user", user);
+            time = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "time", time);
+            method = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "method", method);
+            uri = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "uri", uri);
+            protocol = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "protocol", protocol);
+            statuscode = (int) ParsedHeaders.getLong(headers, ParsedHeaders.PREFIX + "statuscode", statuscode);
+            bytesSend = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "bytesSend", bytesSend);
+            referer = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "referer", referer);
+            useragent = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "useragent", useragent);
+            servername = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "servername", servername);
+            extraservername = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "extraservername", extraservername);
+            timeSecond = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "timeSecond", timeSecond);
+            timeMicro = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "timeMicro", timeMicro);
+            connectionstatus = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "connectionstatus", connectionstatus);
+            connectiontype = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "connectiontype", connectiontype);
+            sessioncookie = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "sessioncookie", sessioncookie);
+            bytesIn = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "bytesIn", bytesIn);
+            bytesOut = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "bytesOut", bytesOut);
+        }
+
         @Override
         public String toString() {
             StringBuilder builder = new StringBuilder();
@@ -0,0 +1,268 @@
+package nl.info.flume.serialization;
+
+import nl.info.flume.interceptor.FieldPattern;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An Apache httpd <code>LogFormat</code>, compiled once into a {@link FieldPattern} that parses
+ * lines field by field without a regular expression, and an Avro schema with a field per directive.
+ * <br/>
+ * Directives get the field names the {@link ApacheLogAvroEventSerializer} uses where there is one
+ * (<code>%h</code> is <i>ip</i>, <code>%{Referer}i</code> is <i>referer</i>, <code>%r</code> is
+ * split into <i>method</i>, <i>uri</i> and <i>protocol</i>), other headers, cookies and variables
+ * are named after their camel cased name. The status code is an int, everything else a string.
+ * Directives in quotes may contain spaces, others may not. Modifiers and status code conditions
+ * (<code>%&gt;s</code>, <code>%!200{Referer}i</code>) are ignored.
+ *
+ * @author daan.debie
+ */
+public final class ApacheLogFormat {
+
+    private static final Map<Character, String> NAMES = new HashMap<Character, String>();
+    private static final Map<String, String> HEADER_NAMES = new HashMap<String, String>();
+
+    static {
+        NAMES.put('h', "ip");
+        NAMES.put('a', "remoteIp");
+        NAMES.put('A', "localIp");
+        NAMES.put('l', "identd");
+        NAMES.put('u', "user");
+        NAMES.put('t', "time");
+        NAMES.put('m', "method");
+        NAMES.put('U', "urlPath");
+        NAMES.put('q', "query");
+        NAMES.put('H', "protocol");
+        NAMES.put('s', "statuscode");
+        NAMES.put('b', "bytesSend");
+        NAMES.put('B', "bytesSend");
+        NAMES.put('D', "timeMicro");
+        NAMES.put('T', "timeSecond");
+        NAMES.put('v', "servername");
+        NAMES.put('V', "extraservername");
+        NAMES.put('X', "connectionstatus");
+        NAMES.put('I', "bytesIn");
+        NAMES.put('O', "bytesOut");
+        NAMES.put('S', "bytesTransferred");
+        NAMES.put('p', "port");
+        NAMES.put('P', "pid");
+        NAMES.put('k', "keepalives");
+        NAMES.put('L', "logId");
+        NAMES.put('f', "filename");
+        NAMES.put('R', "handler");
+
+        HEADER_NAMES.put("referer", "referer");
+        HEADER_NAMES.put("user-agent", "useragent");
+    }
+
+    private final String logFormat;
+    private final FieldPattern pattern;
+    private final Schema schema;
+    private final boolean[] intFields;
+
+    private ApacheLogFormat(String logFormat, FieldPattern pattern, Schema schema, boolean[] intFields) {
+        this.logFormat = logFormat;
+        this.pattern = pattern;
+        this.schema = schema;
+        this.intFields = intFields;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the LogFormat contains unsupported directives, or
+     * directives that can't be told apart
+     */
+    public static ApacheLogFormat compile(String logFormat) {
+        StringBuilder fieldPattern = new StringBuilder();
+        Set<String> names = new LinkedHashSet<String>();
+        List<Boolean> intFields = new ArrayList<Boolean>();
+
+        int seek = 0;
+        while (seek < logFormat.length()) {
+            char c = logFormat.charAt(seek++);
+            if (c != '%') {
+                fieldPattern.append(c);
+                continue;
+            }
+            if (seek < logFormat.length() && logFormat.charAt(seek) == '%') {
+                fieldPattern.append('%');
+                seek++;
+                continue;
+            }
+
+            // modifiers and status code conditions
+            while (seek < logFormat.length() && "<>!,0123456789".indexOf(logFormat.charAt(seek)) > -1) {
+                seek++;
+            }
+            String argument = null;
+            if (seek < logFormat.length() && logFormat.charAt(seek) == '{') {
+                int end = logFormat.indexOf('}', seek);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unterminated directive at position " + seek + " in: " + logFormat);
+                }
+                argument = logFormat.substring(seek + 1, end);
+                seek = end + 1;
+            }
+            if (seek >= logFormat.length()) {
+                throw new IllegalArgumentException("Incomplete directive at the end of: " + logFormat);
+            }
+            char directive = logFormat.charAt(seek++);
+            boolean quoted = seek < logFormat.length() && logFormat.charAt(seek) == '"';
+            String type = quoted ? "DATA" : "NOTSPACE";
+
+            if (directive == 'r') {
+                fieldPattern.append("%{NOTSPACE:").append(unique(names, "method")).append("} ");
+                fieldPattern.append("%{NOTSPACE:").append(unique(names, "uri")).append("} ");
+                fieldPattern.append("%{NOTSPACE:").append(unique(names, "protocol")).append('}');
+                intFields.add(false);
+                intFields.add(false);
+                intFields.add(false);
+            } else if (directive == 't' && argument == null) {
+                fieldPattern.append("[%{DATA:").append(unique(names, "time")).append("}]");
+                intFields.add(false);
+            } else if (directive == 's') {
+                fieldPattern.append("%{INT:").append(unique(names, "statuscode")).append('}');
+                intFields.add(true);
+            } else {
+                fieldPattern.append("%{").append(type).append(':').append(unique(names, nameOf(directive, argument))).append('}');
+                intFields.add(false);
+            }
+        }
+
+        FieldPattern compiled = FieldPattern.compile(fieldPattern.toString());
+        boolean[] ints = new boolean[intFields.size()];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = intFields.get(i);
+        }
+        return new ApacheLogFormat(logFormat, compiled, buildSchema(compiled.getFieldNames(), ints), ints);
+    }
+
+    private static String nameOf(char directive, String argument) {
+        if (argument == null) {
+            String name = NAMES.get(directive);
+            if (name == null) {
+                throw new IllegalArgumentException("Unsupported directive %" + directive);
+            }
+            return name;
+        }
+        switch (directive) {
+            case 'i':
+                String name = HEADER_NAMES.get(argument.toLowerCase());
+                return name != null ? name : camelCase(argument);
+            case 'C':
+                return camelCase(argument) + "Cookie";
+            case 'o':
+            case 'e':
+            case 'n':
+            case 'p':
+            case 'P':
+            case 't':
+            case 'T':
+                return camelCase(argument);
+            default:
+                throw new IllegalArgumentException("Unsupported directive %{" + argument + "}" + directive);
+        }
+    }
+
+    /**
+     * Turns names like <code>X-Forwarded-For</code> into valid Avro field names like <code>xForwardedFor</code>.
+     */
+    static String camelCase(String name) {
+        StringBuilder builder = new StringBuilder(name.length());
+        boolean upper = false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < 128 && Character.isLetterOrDigit(c)) {
+                builder.append(builder.length() == 0 ? Character.toLowerCase(c) : upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            } else {
+                upper = true;
+            }
+        }
+        if (builder.length() == 0 || Character.isDigit(builder.charAt(0))) {
+            builder.insert(0, '_');
+        }
+        return builder.toString();
+    }
+
+    private static String unique(Set<String> names, String name) {
+        String unique = name;
+        for (int i = 2; !names.add(unique); i++) {
+            unique = name + i;
+        }
+        return unique;
+    }
+
+    private static Schema buildSchema(String[] fieldNames, boolean[] intFields) {
+        StringBuilder json = new StringBuilder(
+                "{ \"type\":\"record\", \"name\": \"LogFormatEvent\", \"namespace\": \"nl.info.flume\", \"fields\": [" +
+                " {\"name\": \"headers\", \"type\": { \"type\": \"map\", \"values\": \"string\" } }, " +
+                " {\"name\": \"original\", \"type\": \"string\" }");
+        for (int i = 0; i < fieldNames.length; i++) {
+            json.append(", {\"name\": \"").append(fieldNames[i]).append("\", \"type\": \"")
+                    .append(intFields[i] ? "int" : "string").append("\" }");
+        }
+        json.append("] }");
+        return new Schema.Parser().parse(json.toString());
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    public String getLogFormat() {
+        return logFormat;
+    }
+
+    /**
+     * Returns a record with the original line, and all parsed fields set to empty values.
+     */
+    public GenericRecord newRecord(Map<String, String> headers, String original) {
+        GenericRecord record = new GenericData.Record(schema);
+        record.put(0, headers);
+        record.put(1, original);
+        for (int i = 0; i < intFields.length; i++) {
+            record.put(i + 2, intFields[i] ? (Object) 0 : "");
+        }
+        return record;
+    }
+
+    /**
+     * Sets the parsed fields on the given record.
+     * @return false if the line doesn't match the LogFormat, in which case no fields are set
+     */
+    public boolean parse(String logline, GenericRecord record) {
+        String[] values = pattern.match(logline);
+        if (values == null) {
+            return false;
+        }
+        Object[] fields = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (intFields[i]) {
+                try {
+                    fields[i] = Integer.valueOf(values[i]);
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            } else {
+                fields[i] = values[i];
+            }
+        }
+        for (int i = 0; i < fields.length; i++) {
+            record.put(i + 2, fields[i]);
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return logFormat;
+    }
+}
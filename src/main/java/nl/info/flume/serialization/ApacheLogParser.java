@@ -0,0 +1,339 @@
+package nl.info.flume.serialization;
+
+import nl.info.flume.serialization.ApacheLogAvroEventSerializer.ApacheEvent;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses Apache httpd log lines in our custom LogFormat into an {@link ApacheEvent}.
+ * Used by both the {@link ApacheLogAvroEventSerializer} and the
+ * {@link nl.info.flume.interceptor.LogParsingInterceptor}.
+ * <br/>
+ * Lines are parsed by a scanner that walks the line once and recognizes the fields by their
+ * delimiters, taking the same choices the regular expression would take first. Lines the scanner
+ * can't handle (malformed lines, or lines with optional fields missing) are left to the regular
+ * expression, so the result is always the same as matching the regular expression.
+ *
+ * @author daan.debie
+ */
+public final class ApacheLogParser {
+
+    private static final String REGEXP =
+            "^([\\d.]+) (\\S+) (\\S+) \\[([\\w:/]+\\s[+\\-]\\d{4})\\] \"([^ ]*) ([^ ]*) ([^ ]*)\" (\\d{3}) (\\d+|-) \"([^\"]+)\" \"([^\"]+)\" (\\S+)? \"(\\S+)\" (\\d+|-)? (\\d+|-)? ([+|\\-|X])? \"([^\"]+)\"? \"([^\"]+)\"? (\\d+|-)? (\\d+|-)?";
+
+    private static final Pattern PATTERN = Pattern.compile(REGEXP);
+
+    private static final int GROUPS = 20;
+    private static final int STATUSCODE = 7;
+
+    private ApacheLogParser() {
+    }
+
+    /**
+     * Sets the parsed fields on the given event.
+     * @return false if the line doesn't match the LogFormat, in which case no fields are set
+     */
+    public static boolean parse(String logline, ApacheEvent apacheEvent) {
+        return scan(logline, apacheEvent) || match(logline, apacheEvent);
+    }
+
+    /**
+     * Parses the line with the regular expression.
+     */
+    static boolean match(String logline, ApacheEvent apacheEvent) {
+        Matcher m = PATTERN.matcher(logline);
+        if (!m.matches()) {
+            return false;
+        }
+        String[] groups = new String[GROUPS];
+        for (int i = 0; i < GROUPS; i++) {
+            groups[i] = m.group(i + 1);
+        }
+        apply(groups, Integer.valueOf(groups[STATUSCODE]), apacheEvent);
+        return true;
+    }
+
+    /**
+     * Sets the bounds of the parsed fields on the given record of the span layout, without
+     * making substrings.
+     * @return false if the line doesn't match the LogFormat, in which case no fields are set
+     */
+    public static boolean parse(String logline, Spans.Record record) {
+        int[] bounds = new int[GROUPS * 2];
+        int statuscode = scan(logline, bounds);
+        if (statuscode < 0) {
+            Matcher m = PATTERN.matcher(logline);
+            if (!m.matches()) {
+                return false;
+            }
+            for (int i = 0; i < GROUPS; i++) {
+                // optional groups that didn't match are empty
+                bound(bounds, i, Math.max(m.start(i + 1), 0), Math.max(m.end(i + 1), 0));
+            }
+            statuscode = Integer.parseInt(m.group(STATUSCODE + 1));
+        }
+        for (int i = 0; i < GROUPS; i++) {
+            if (i == STATUSCODE) {
+                record.number(i + 2, statuscode);
+            } else {
+                record.span(i + 2, bounds[i * 2], bounds[i * 2 + 1]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the line in a single pass, see {@link #scan(String, int[])}.
+     * @return false if the line should be left to the regular expression, in which case no fields are set
+     */
+    static boolean scan(String line, ApacheEvent apacheEvent) {
+        int[] bounds = new int[GROUPS * 2];
+        int statuscode = scan(line, bounds);
+        if (statuscode < 0) {
+            return false;
+        }
+        String[] groups = new String[GROUPS];
+        for (int i = 0; i < GROUPS; i++) {
+            groups[i] = line.substring(bounds[i * 2], bounds[i * 2 + 1]);
+        }
+        apply(groups, statuscode, apacheEvent);
+        return true;
+    }
+
+    /**
+     * Parses the line in a single pass, putting the start and end of every group in the bounds.
+     * Every step takes the choice the regular expression would try first, and gives up as soon
+     * as that choice doesn't fit.
+     * @return the statuscode, or -1 if the line should be left to the regular expression
+     */
+    private static int scan(String line, int[] bounds) {
+        int n = line.length();
+        int p = 0;
+        int start;
+
+        // ip: [\d.]+
+        start = p;
+        while (p < n && (isDigit(line.charAt(p)) || line.charAt(p) == '.')) {
+            p++;
+        }
+        if (p == start || !at(line, p, ' ')) {
+            return -1;
+        }
+        bound(bounds, 0, start, p++);
+
+        // identd and user: \S+
+        for (int group = 1; group <= 2; group++) {
+            start = p;
+            p = skipNonWhitespace(line, p);
+            if (p == start || !at(line, p, ' ')) {
+                return -1;
+            }
+            bound(bounds, group, start, p++);
+        }
+
+        // time: \[[\w:/]+\s[+\-]\d{4}\]
+        if (!at(line, p++, '[')) {
+            return -1;
+        }
+        start = p;
+        while (p < n && isTimeChar(line.charAt(p))) {
+            p++;
+        }
+        if (p == start || p >= n || !isWhitespace(line.charAt(p++)) || !(at(line, p, '+') || at(line, p, '-'))) {
+            return -1;
+        }
+        p++;
+        for (int i = 0; i < 4; i++, p++) {
+            if (p >= n || !isDigit(line.charAt(p))) {
+                return -1;
+            }
+        }
+        if (!at(line, p, ']') || !at(line, p + 1, ' ') || !at(line, p + 2, '"')) {
+            return -1;
+        }
+        bound(bounds, 3, start, p);
+        p += 3;
+
+        // method and uri: [^ ]*
+        for (int group = 4; group <= 5; group++) {
+            int end = line.indexOf(' ', p);
+            if (end < 0) {
+                return -1;
+            }
+            bound(bounds, group, p, end);
+            p = end + 1;
+        }
+
+        // protocol: [^ ]*, up to the closing quote before the next space
+        int end = line.indexOf(' ', p);
+        if (end <= p || line.charAt(end - 1) != '"') {
+            return -1;
+        }
+        bound(bounds, 6, p, end - 1);
+        p = end + 1;
+
+        // statuscode: \d{3}
+        if (p + 3 >= n || !isDigit(line.charAt(p)) || !isDigit(line.charAt(p + 1)) || !isDigit(line.charAt(p + 2))
+                || line.charAt(p + 3) != ' ') {
+            return -1;
+        }
+        int statuscode = (line.charAt(p) - '0') * 100 + (line.charAt(p + 1) - '0') * 10 + (line.charAt(p + 2) - '0');
+        bound(bounds, 7, p, p + 3);
+        p += 4;
+
+        // bytesSend: \d+|-
+        end = skipNumberOrDash(line, p);
+        if (end == p || !at(line, end, ' ')) {
+            return -1;
+        }
+        bound(bounds, 8, p, end);
+        p = end + 1;
+
+        // referer and useragent: "[^"]+"
+        for (int group = 9; group <= 10; group++) {
+            end = quoted(line, p);
+            if (end < 0 || !at(line, end + 1, ' ')) {
+                return -1;
+            }
+            bound(bounds, group, p + 1, end);
+            p = end + 2;
+        }
+
+        // servername: \S+
+        start = p;
+        p = skipNonWhitespace(line, p);
+        if (p == start || !at(line, p, ' ') || !at(line, p + 1, '"')) {
+            return -1;
+        }
+        bound(bounds, 11, start, p);
+        p += 2;
+
+        // extraservername: \S+, up to the closing quote before the next space
+        end = skipNonWhitespace(line, p);
+        if (end - 1 <= p || line.charAt(end - 1) != '"' || !at(line, end, ' ')) {
+            return -1;
+        }
+        bound(bounds, 12, p, end - 1);
+        p = end + 1;
+
+        // timeSecond and timeMicro: \d+|-
+        for (int group = 13; group <= 14; group++) {
+            end = skipNumberOrDash(line, p);
+            if (end == p || !at(line, end, ' ')) {
+                return -1;
+            }
+            bound(bounds, group, p, end);
+            p = end + 1;
+        }
+
+        // connectionstatus: [+|\-|X]
+        if (p >= n || "+|-X".indexOf(line.charAt(p)) < 0 || !at(line, p + 1, ' ')) {
+            return -1;
+        }
+        bound(bounds, 15, p, p + 1);
+        p += 2;
+
+        // connectiontype and sessioncookie: "[^"]+"
+        for (int group = 16; group <= 17; group++) {
+            end = quoted(line, p);
+            if (end < 0 || !at(line, end + 1, ' ')) {
+                return -1;
+            }
+            bound(bounds, group, p + 1, end);
+            p = end + 2;
+        }
+
+        // bytesIn: \d+|-
+        end = skipNumberOrDash(line, p);
+        if (end == p || !at(line, end, ' ')) {
+            return -1;
+        }
+        bound(bounds, 18, p, end);
+        p = end + 1;
+
+        // bytesOut: \d+|-, up to the end of the line
+        end = skipNumberOrDash(line, p);
+        if (end == p || end != n) {
+            return -1;
+        }
+        bound(bounds, 19, p, end);
+
+        return statuscode;
+    }
+
+    private static void bound(int[] bounds, int group, int start, int end) {
+        bounds[group * 2] = start;
+        bounds[group * 2 + 1] = end;
+    }
+
+    private static void apply(String[] groups, int statuscode, ApacheEvent apacheEvent) {
+        apacheEvent.setIp(groups[0]);
+        apacheEvent.setIdentd(groups[1]);
+        apacheEvent.setUser(groups[2]);
+        apacheEvent.setTime(groups[3]);
+        apacheEvent.setMethod(groups[4]);
+        apacheEvent.setUri(groups[5]);
+        apacheEvent.setProtocol(groups[6]);
+        apacheEvent.setStatuscode(statuscode);
+        apacheEvent.setBytesSend(groups[8]);
+        apacheEvent.setReferer(groups[9]);
+        apacheEvent.setUseragent(groups[10]);
+        apacheEvent.setServername(groups[11]);
+        apacheEvent.setExtraservername(groups[12]);
+        apacheEvent.setTimeSecond(groups[13]);
+        apacheEvent.setTimeMicro(groups[14]);
+        apacheEvent.setConnectionstatus(groups[15]);
+        apacheEvent.setConnectiontype(groups[16]);
+        apacheEvent.setSessioncookie(groups[17]);
+        apacheEvent.setBytesIn(groups[18]);
+        apacheEvent.setBytesOut(groups[19]);
+    }
+
+    private static boolean at(String line, int index, char c) {
+        return index < line.length() && line.charAt(index) == c;
+    }
+
+    /**
+     * Returns the index of the closing quote of a non-empty quoted string starting at the given index, or -1.
+     */
+    private static int quoted(String line, int index) {
+        if (!at(line, index, '"')) {
+            return -1;
+        }
+        int end = line.indexOf('"', index + 1);
+        return end > index + 1 ? end : -1;
+    }
+
+    private static int skipNumberOrDash(String line, int index) {
+        int end = index;
+        while (end < line.length() && isDigit(line.charAt(end))) {
+            end++;
+        }
+        if (end == index && at(line, index, '-')) {
+            end++;
+        }
+        return end;
+    }
+
+    private static int skipNonWhitespace(String line, int index) {
+        while (index < line.length() && !isWhitespace(line.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    // the character classes of java.util.regex without UNICODE_CHARACTER_CLASS
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isTimeChar(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':' || c == '/';
+    }
+}
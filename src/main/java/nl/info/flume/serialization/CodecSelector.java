@@ -0,0 +1,185 @@
+package nl.info.flume.serialization;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.flume.CounterGroup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks the Avro codec for a file from a sample of its encoded records. Every candidate codec
+ * compresses the sample, and the one that saves the most bytes per millisecond of CPU wins,
+ * among the candidates that stay within the CPU budget (milliseconds per MB of records). When
+ * none of them saves anything within the budget, the file is written uncompressed.
+ * <br/>
+ * The counters keep, per codec, how many bytes were sampled, what they compressed to, how many
+ * nanoseconds that took and how often the codec was selected, over all files of this agent.
+ *
+ * @author daan.debie
+ */
+@Slf4j
+public final class CodecSelector {
+
+    static final String NULL_CODEC = "null";
+    private static final String DEFLATE_PREFIX = "deflate-";
+
+    private static final int MIN_SYNC_INTERVAL = 32;
+    private static final int MAX_SYNC_INTERVAL = 1 << 30;
+    private static final double BYTES_PER_MB = 1024 * 1024;
+    private static final double NANOS_PER_MILLI = 1000000;
+    // the first run of a codec includes loading and JIT, so the best of two runs is used
+    private static final int RUNS = 2;
+
+    private static final CounterGroup COUNTER_GROUP = new CounterGroup();
+
+    private final List<String> candidates;
+    private final double cpuBudget;
+
+    CodecSelector(String[] candidates, double cpuBudget) {
+        this.candidates = new ArrayList<String>(candidates.length);
+        for (String candidate : candidates) {
+            try {
+                codec(candidate);
+                this.candidates.add(candidate);
+            } catch (AvroRuntimeException e) {
+                log.warn("Ignoring unknown avro codec {}", candidate);
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring unknown avro codec {}", candidate);
+            }
+        }
+        this.cpuBudget = cpuBudget;
+    }
+
+    /**
+     * Like {@link CodecFactory#fromString(String)}, but also knows deflate with a level, as in
+     * <code>deflate-1</code>.
+     */
+    static CodecFactory codec(String name) {
+        if (name.startsWith(DEFLATE_PREFIX)) {
+            return CodecFactory.deflateCodec(Integer.parseInt(name.substring(DEFLATE_PREFIX.length())));
+        }
+        return CodecFactory.fromString(name);
+    }
+
+    /**
+     * The outcome of a selection.
+     */
+    static final class Choice {
+
+        private final String codec;
+        private final double ratio;
+
+        Choice(String codec, double ratio) {
+            this.codec = codec;
+            this.ratio = ratio;
+        }
+
+        String getCodec() {
+            return codec;
+        }
+
+        /**
+         * Compressed size divided by uncompressed size of the sample.
+         */
+        double getRatio() {
+            return ratio;
+        }
+
+        /**
+         * Avro starts a new block when the uncompressed records in it reach the sync interval,
+         * so for blocks of the target size on disk the interval is the target divided by the ratio.
+         */
+        int syncInterval(int targetBlockBytes) {
+            double interval = targetBlockBytes / ratio;
+            return (int) Math.max(MIN_SYNC_INTERVAL, Math.min(MAX_SYNC_INTERVAL, interval));
+        }
+    }
+
+    Choice select(Schema schema, List<ByteBuffer> records) {
+        long uncompressed = 0;
+        for (ByteBuffer record : records) {
+            uncompressed += record.remaining();
+        }
+        if (uncompressed == 0) {
+            return new Choice(NULL_CODEC, 1);
+        }
+
+        String best = NULL_CODEC;
+        double bestScore = 0;
+        long bestCompressed = uncompressed;
+        StringBuilder report = new StringBuilder();
+        for (String candidate : candidates) {
+            long[] trial;
+            try {
+                trial = trial(candidate, schema, records, uncompressed);
+            } catch (Throwable t) {
+                // snappy can fail on a platform without its native library
+                log.warn("Unable to sample avro codec " + candidate + ", skipping it", t);
+                continue;
+            }
+            long compressed = trial[0];
+            double millis = Math.max(trial[1], 1) / NANOS_PER_MILLI;
+            COUNTER_GROUP.addAndGet("codec." + candidate + ".sampledBytes", uncompressed);
+            COUNTER_GROUP.addAndGet("codec." + candidate + ".compressedBytes", compressed);
+            COUNTER_GROUP.addAndGet("codec." + candidate + ".nanos", trial[1]);
+            report.append(String.format(" %s: ratio %.3f, %.2f ms/MB;", candidate,
+                    (double) compressed / uncompressed, millis / (uncompressed / BYTES_PER_MB)));
+
+            long saved = uncompressed - compressed;
+            if (saved <= 0 || millis / (uncompressed / BYTES_PER_MB) > cpuBudget) {
+                continue;
+            }
+            double score = saved / millis;
+            if (score > bestScore) {
+                best = candidate;
+                bestScore = score;
+                bestCompressed = compressed;
+            }
+        }
+        COUNTER_GROUP.incrementAndGet("codec." + best + ".selected");
+        log.info("Selected avro codec {} from a sample of {} bytes.{}",
+                new Object[]{best, uncompressed, report});
+        return new Choice(best, (double) bestCompressed / uncompressed);
+    }
+
+    /**
+     * Writes the records in one block with the given codec, and returns the size of that block
+     * and the nanoseconds it took.
+     */
+    private static long[] trial(String name, Schema schema, List<ByteBuffer> records, long uncompressed)
+            throws IOException {
+        long compressed = 0;
+        long nanos = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) uncompressed + 1024);
+            DataFileWriter<Object> writer = new DataFileWriter<Object>(new GenericDatumWriter<Object>(schema));
+            writer.setCodec(codec(name));
+            writer.setSyncInterval((int) Math.min(MAX_SYNC_INTERVAL, uncompressed + 1));
+            writer.create(schema, out);
+            writer.flush();
+            int header = out.size();
+
+            long start = System.nanoTime();
+            for (ByteBuffer record : records) {
+                writer.appendEncoded(record.duplicate());
+            }
+            writer.flush();
+            nanos = Math.min(nanos, System.nanoTime() - start);
+            compressed = out.size() - header;
+            writer.close();
+        }
+        return new long[]{compressed, nanos};
+    }
+
+    public static CounterGroup getCounterGroup() {
+        return COUNTER_GROUP;
+    }
+}
@@ -0,0 +1,363 @@
+package nl.info.flume.serialization;
+
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.flume.CounterGroup;
+import org.apache.trevni.ColumnFileMetaData;
+import org.apache.trevni.ColumnFileReader;
+import org.apache.trevni.avro.AvroColumnReader;
+import org.apache.trevni.avro.AvroColumnWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The columnar layout of the serializers, which is a Trevni file: every field of the schema is
+ * a column of its own, stored in compressed blocks, so a reader that needs a few columns skips the
+ * bytes of all the others. Files can be read with {@link Reader}, the <code>AvroColumnReader</code>
+ * of trevni-avro, and anything else that reads Trevni.
+ * <br/>
+ * Maps of strings, like the headers, repeat the same few keys and values in every row, so they are
+ * written with a dictionary per file: every entry of the map is a record with the index of its key
+ * and of its value in the dictionary, which is stored in the metadata of the file, with the schema
+ * of the records. {@link Reader} turns the entries into maps again.
+ * <br/>
+ * A Trevni file starts with the offsets of all its columns, so the whole file is buffered in
+ * memory, already split into columns, and written when the file is closed. A flush can't write
+ * any of it, so the records that were flushed are lost if the agent dies before the close; the
+ * layout has to be turned on with {@link #BUFFER_UNTIL_CLOSE} as well, to accept that.
+ * <br/>
+ * Trevni 1.7.3 reads an enum that can be null back as the <code>Integer</code> index of its
+ * symbol, not as the symbol.
+ *
+ * @author daan.debie
+ */
+@Slf4j
+public final class Columns {
+
+    public static final String COLUMNAR = "columnar";
+    public static final boolean COLUMNAR_DEFAULT = false;
+    public static final String BUFFER_UNTIL_CLOSE = "columnar.bufferUntilClose";
+    public static final boolean BUFFER_UNTIL_CLOSE_DEFAULT = false;
+
+    private static final String DEFLATE = "deflate";
+    private static final String DEFLATE_PREFIX = "deflate-";
+    private static final String SNAPPY = "snappy";
+
+    static final String SCHEMA_KEY = "nl.info.flume.schema";
+    static final String DICTIONARY_KEY = "nl.info.flume.dictionary";
+    private static final String ENTRY_NAMESPACE = "nl.info.flume.columns";
+    private static final String KEY = "key";
+    private static final String VALUE = "value";
+
+    private static final CounterGroup COUNTER_GROUP = new CounterGroup();
+
+    private Columns() {
+    }
+
+    /**
+     * Returns the Trevni codec for a codec of the serializers. Trevni has no deflate levels, so
+     * <code>deflate-</code> and a level is just deflate.
+     */
+    static String codec(String compressionCodec) {
+        if (DEFLATE.equals(compressionCodec) || compressionCodec.startsWith(DEFLATE_PREFIX)) {
+            return DEFLATE;
+        }
+        if (SNAPPY.equals(compressionCodec)) {
+            return SNAPPY;
+        }
+        if (!CodecSelector.NULL_CODEC.equals(compressionCodec)) {
+            log.warn("Unknown codec {} for the columnar layout. Compression disabled.", compressionCodec);
+        }
+        return CodecSelector.NULL_CODEC;
+    }
+
+    private static boolean isDictionaryEncoded(Schema.Field field) {
+        return field.schema().getType() == Schema.Type.MAP
+                && field.schema().getValueType().getType() == Schema.Type.STRING;
+    }
+
+    /**
+     * Returns the schema of the file for records of the given schema, in which every map of strings
+     * is an array of entries with the indexes of their key and value in the dictionary.
+     */
+    static Schema fileSchema(Schema schema) {
+        List<Schema.Field> fields = new ArrayList<Schema.Field>();
+        for (Schema.Field field : schema.getFields()) {
+            if (isDictionaryEncoded(field)) {
+                Schema entry = Schema.createRecord(field.name() + "Entry", null, ENTRY_NAMESPACE, false);
+                entry.setFields(Arrays.asList(
+                        new Schema.Field(KEY, Schema.create(Schema.Type.INT), null, null),
+                        new Schema.Field(VALUE, Schema.create(Schema.Type.INT), null, null)));
+                fields.add(new Schema.Field(field.name(), Schema.createArray(entry), field.doc(), null));
+            } else {
+                fields.add(new Schema.Field(field.name(), field.schema(), field.doc(), field.defaultValue()));
+            }
+        }
+        Schema fileSchema = Schema.createRecord(schema.getName(), schema.getDoc(), schema.getNamespace(), false);
+        fileSchema.setFields(fields);
+        return fileSchema;
+    }
+
+    private static boolean hasDictionary(Schema schema) {
+        for (Schema.Field field : schema.getFields()) {
+            if (isDictionaryEncoded(field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The strings of the maps of one file, numbered in the order they were first seen.
+     */
+    static final class Dictionary {
+
+        private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+        private final List<String> strings = new ArrayList<String>();
+
+        int index(CharSequence string) {
+            String key = string.toString();
+            Integer index = indexes.get(key);
+            if (index == null) {
+                index = strings.size();
+                indexes.put(key, index);
+                strings.add(key);
+            }
+            return index;
+        }
+
+        int size() {
+            return strings.size();
+        }
+
+        List<GenericRecord> entries(Map<?, ?> map, Schema entrySchema) {
+            List<GenericRecord> entries = new ArrayList<GenericRecord>(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                GenericRecord record = new GenericData.Record(entrySchema);
+                record.put(0, index((CharSequence) entry.getKey()));
+                record.put(1, index((CharSequence) entry.getValue()));
+                entries.add(record);
+            }
+            return entries;
+        }
+
+        Map<String, String> map(Iterable<?> entries) {
+            Map<String, String> map = new LinkedHashMap<String, String>();
+            for (Object entry : entries) {
+                GenericRecord record = (GenericRecord) entry;
+                map.put(strings.get((Integer) record.get(0)), strings.get((Integer) record.get(1)));
+            }
+            return map;
+        }
+
+        /**
+         * Returns the strings as an Avro array of strings.
+         */
+        byte[] toBytes() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(bytes, null);
+            encoder.writeArrayStart();
+            encoder.setItemCount(strings.size());
+            for (String string : strings) {
+                encoder.startItem();
+                encoder.writeString(string);
+            }
+            encoder.writeArrayEnd();
+            encoder.flush();
+            return bytes.toByteArray();
+        }
+
+        static Dictionary fromBytes(byte[] bytes) throws IOException {
+            Dictionary dictionary = new Dictionary();
+            BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(bytes, null);
+            for (long count = decoder.readArrayStart(); count > 0; count = decoder.arrayNext()) {
+                for (long i = 0; i < count; i++) {
+                    dictionary.index(decoder.readString());
+                }
+            }
+            return dictionary;
+        }
+    }
+
+    /**
+     * Writes records of one schema to a Trevni file per output stream.
+     */
+    static final class Writer {
+
+        private final Schema schema;
+        private final Schema fileSchema;
+        private final String codec;
+        private OutputStream out;
+        private ColumnFileMetaData metaData;
+        private AvroColumnWriter<GenericRecord> writer;
+        // null when the schema has no maps of strings
+        private Dictionary dictionary;
+        private long rows;
+
+        /**
+         * @param compressionCodec <code>null</code>, <code>deflate</code>, <code>deflate-</code>
+         *                         and a level, or <code>snappy</code>
+         */
+        Writer(Schema schema, String compressionCodec) {
+            this.schema = schema;
+            this.fileSchema = fileSchema(schema);
+            this.codec = codec(compressionCodec);
+        }
+
+        void create(OutputStream out) throws IOException {
+            this.out = out;
+            // no checksums, the crc32 ones of Trevni 1.7.3 don't match when they're read back
+            metaData = new ColumnFileMetaData().setCodec(codec);
+            metaData.set(SCHEMA_KEY, schema.toString());
+            writer = new AvroColumnWriter<GenericRecord>(fileSchema, metaData);
+            dictionary = hasDictionary(schema) ? new Dictionary() : null;
+            rows = 0;
+        }
+
+        void append(GenericRecord record) throws IOException {
+            writer.write(dictionary == null ? record : encode(record));
+            rows++;
+        }
+
+        private GenericRecord encode(GenericRecord record) {
+            GenericRecord encoded = new GenericData.Record(fileSchema);
+            for (Schema.Field field : schema.getFields()) {
+                Object value = record.get(field.pos());
+                if (isDictionaryEncoded(field)) {
+                    Schema entrySchema = fileSchema.getFields().get(field.pos()).schema().getElementType();
+                    value = dictionary.entries((Map<?, ?>) value, entrySchema);
+                }
+                encoded.put(field.pos(), value);
+            }
+            return encoded;
+        }
+
+        /**
+         * Writes the file, with the dictionary in its metadata, and releases the buffered columns.
+         */
+        void close() throws IOException {
+            if (dictionary != null) {
+                // the metadata is only written by writeTo, so the dictionary can still be added
+                metaData.set(DICTIONARY_KEY, dictionary.toBytes());
+                COUNTER_GROUP.addAndGet("columns.dictionary", (long) dictionary.size());
+            }
+            long bytes = writer.sizeEstimate();
+            writer.writeTo(out);
+            out.flush();
+            writer = null;
+            dictionary = null;
+
+            COUNTER_GROUP.incrementAndGet("columns.files");
+            COUNTER_GROUP.addAndGet("columns.rows", rows);
+            COUNTER_GROUP.addAndGet("columns.bytes", bytes);
+        }
+    }
+
+    /**
+     * Reads the records of a Trevni file, with the maps that were written with a dictionary turned
+     * into maps again. Trevni files that weren't written by the serializers are read as they are.
+     * The file is read from disk, as the <code>InputBytes</code> of Trevni 1.7.3 reads past the end.
+     */
+    public static final class Reader implements Iterator<GenericRecord>, Iterable<GenericRecord>, Closeable {
+
+        private final Schema schema;
+        // null when the file has no maps that were written with a dictionary
+        private final Dictionary dictionary;
+        private final AvroColumnReader<GenericRecord> reader;
+
+        /**
+         * @param columns the columns to read, or none to read them all
+         */
+        public Reader(File file, String... columns) throws IOException {
+            ColumnFileReader fileReader = new ColumnFileReader(file);
+            ColumnFileMetaData metaData;
+            try {
+                metaData = fileReader.getMetaData();
+            } finally {
+                fileReader.close();
+            }
+            String schemaKey = metaData.getString(SCHEMA_KEY) != null ? SCHEMA_KEY : AvroColumnWriter.SCHEMA_KEY;
+            Schema fullSchema = new Schema.Parser().parse(metaData.getString(schemaKey));
+            schema = columns.length > 0 ? project(fullSchema, columns) : fullSchema;
+            byte[] strings = metaData.get(DICTIONARY_KEY);
+            dictionary = strings != null ? Dictionary.fromBytes(strings) : null;
+            reader = new AvroColumnReader<GenericRecord>(new AvroColumnReader.Params(file)
+                    .setSchema(dictionary != null ? fileSchema(schema) : schema));
+        }
+
+        private static Schema project(Schema schema, String... columns) {
+            List<Schema.Field> fields = new ArrayList<Schema.Field>();
+            for (String column : columns) {
+                Schema.Field field = schema.getField(column);
+                Preconditions.checkState(field != null, "The column " + column + " isn't in the file");
+                fields.add(new Schema.Field(field.name(), field.schema(), field.doc(), field.defaultValue()));
+            }
+            Schema projected = Schema.createRecord(schema.getName(), schema.getDoc(), schema.getNamespace(), false);
+            projected.setFields(fields);
+            return projected;
+        }
+
+        /**
+         * Returns the schema of the records, with only the columns that are read.
+         */
+        public Schema getSchema() {
+            return schema;
+        }
+
+        @Override
+        public Iterator<GenericRecord> iterator() {
+            return this;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return reader.hasNext();
+        }
+
+        @Override
+        public GenericRecord next() {
+            GenericRecord record = reader.next();
+            if (dictionary == null) {
+                return record;
+            }
+            GenericRecord decoded = new GenericData.Record(schema);
+            for (Schema.Field field : schema.getFields()) {
+                Object value = record.get(field.pos());
+                decoded.put(field.pos(), isDictionaryEncoded(field) ? dictionary.map((Iterable<?>) value) : value);
+            }
+            return decoded;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    public static CounterGroup getCounterGroup() {
+        return COUNTER_GROUP;
+    }
+}
@@ -0,0 +1,90 @@
+package nl.info.flume.serialization;
+
+/**
+ * Finds delimiters in byte arrays eight bytes at a time. Every word of eight bytes is XORed with
+ * the delimiter repeated eight times, which turns the matching bytes into zero bytes, and a
+ * single subtract-and-mask finds the first zero byte of the word. Only the bytes after the last
+ * full word are compared one by one. The bytes are never decoded, so this works on any text
+ * in an ASCII compatible encoding, like UTF-8, as long as the delimiter is ASCII.
+ * <br/>
+ * Used by the {@link JavaLogParser}, and by anything else that frames or splits bytes on a
+ * delimiter.
+ *
+ * @author daan.debie
+ */
+public final class Delimiters {
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private Delimiters() {
+    }
+
+    /**
+     * Returns the index of the first delimiter in the given range, or -1.
+     * @param from the first index to look at
+     * @param to the index after the last index to look at
+     */
+    public static int indexOf(byte[] bytes, byte delimiter, int from, int to) {
+        long pattern = (delimiter & 0xFFL) * ONES;
+        int i = from;
+        for (; i + 8 <= to; i += 8) {
+            long word = word(bytes, i) ^ pattern;
+            // the high bit of every zero byte, and maybe of bytes after it, but not before it
+            long zeros = (word - ONES) & ~word & HIGHS;
+            if (zeros != 0) {
+                return i + (Long.numberOfTrailingZeros(zeros) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (bytes[i] == delimiter) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the first delimiter from the given index to the end, or -1.
+     */
+    public static int indexOf(byte[] bytes, byte delimiter, int from) {
+        return indexOf(bytes, delimiter, from, bytes.length);
+    }
+
+    /**
+     * Splits the range into fields on the delimiter, putting the start and end of field
+     * <i>i</i> at <code>bounds[2i]</code> and <code>bounds[2i + 1]</code>. The last field that
+     * fits in the bounds runs to its delimiter, or to the end of the range if there is none.
+     * @return the number of fields found
+     */
+    public static int split(byte[] bytes, byte delimiter, int from, int to, int[] bounds) {
+        int fields = bounds.length / 2;
+        int count = 0;
+        int start = from;
+        while (count < fields) {
+            int end = indexOf(bytes, delimiter, start, to);
+            bounds[count * 2] = start;
+            bounds[count * 2 + 1] = end > -1 ? end : to;
+            count++;
+            if (end < 0) {
+                break;
+            }
+            start = end + 1;
+        }
+        return count;
+    }
+
+    /**
+     * Reads eight bytes as a little endian long, so the first byte is the lowest.
+     */
+    private static long word(byte[] bytes, int i) {
+        return (bytes[i] & 0xFFL)
+                | (bytes[i + 1] & 0xFFL) << 8
+                | (bytes[i + 2] & 0xFFL) << 16
+                | (bytes[i + 3] & 0xFFL) << 24
+                | (bytes[i + 4] & 0xFFL) << 32
+                | (bytes[i + 5] & 0xFFL) << 40
+                | (bytes[i + 6] & 0xFFL) << 48
+                | (bytes[i + 7] & 0xFFL) << 56;
+    }
+}
@@ -0,0 +1,100 @@
+package nl.info.flume.serialization;
+
+import org.apache.avro.io.Encoder;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Helpers for the hand-written datum writers of the serializers, which write the fields of
+ * their records straight to the {@link Encoder}, in schema order.
+ *
+ * @author daan.debie
+ */
+final class Encoders {
+
+    private Encoders() {
+    }
+
+    /**
+     * Writes a map of strings, or an empty map for null.
+     */
+    static void writeHeaders(Map<String, String> headers, Encoder out) throws IOException {
+        out.writeMapStart();
+        if (headers == null || headers.isEmpty()) {
+            out.setItemCount(0);
+        } else {
+            out.setItemCount(headers.size());
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                out.startItem();
+                out.writeString(header.getKey());
+                writeString(header.getValue(), out);
+            }
+        }
+        out.writeMapEnd();
+    }
+
+    /**
+     * Writes a string, or an empty string for null.
+     */
+    static void writeString(String value, Encoder out) throws IOException {
+        out.writeString(value != null ? value : "");
+    }
+
+    /**
+     * Whether the bytes are valid UTF-8, in the same way as Java's decoder sees it: no overlong
+     * forms, no surrogates and nothing above U+10FFFF. Valid bytes can be written as an Avro
+     * string as they are.
+     */
+    static boolean isUtf8(byte[] bytes) {
+        int n = bytes.length;
+        int i = 0;
+        // most bodies are ASCII
+        while (i < n && bytes[i] >= 0) {
+            i++;
+        }
+        while (i < n) {
+            int b = bytes[i++] & 0xFF;
+            if (b < 0x80) {
+                continue;
+            }
+            int continuations;
+            int min = 0x80;
+            int max = 0xBF;
+            if (b >= 0xC2 && b <= 0xDF) {
+                continuations = 1;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                continuations = 2;
+                if (b == 0xE0) {
+                    min = 0xA0;
+                } else if (b == 0xED) {
+                    max = 0x9F;
+                }
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                continuations = 3;
+                if (b == 0xF0) {
+                    min = 0x90;
+                } else if (b == 0xF4) {
+                    max = 0x8F;
+                }
+            } else {
+                return false;
+            }
+            if (i + continuations > n) {
+                return false;
+            }
+            // only the first continuation byte has a narrower range
+            int c = bytes[i++] & 0xFF;
+            if (c < min || c > max) {
+                return false;
+            }
+            for (int k = 1; k < continuations; k++) {
+                c = bytes[i++] & 0xFF;
+                if (c < 0x80 || c > 0xBF) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -1,36 +1,51 @@
 package nl.info.flume.serialization;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
 import org.apache.avro.Schema;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.Encoder;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
-import org.apache.flume.serialization.AbstractAvroEventSerializer;
 import org.apache.flume.serialization.EventSerializer;
 
+import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Map;
+
+import static nl.info.flume.serialization.FlumeEventStringAvroEventSerializer.Constants.*;
 
 /**
- * ...
+ * Writes Flume events with their body as an Avro string, or as Avro bytes with
+ * <code>body=bytes</code>. Both are encoded as the length followed by the bytes, so the body is
+ * written as it is, without decoding it into a String first. With the string body, a body that
+ * isn't valid UTF-8 is decoded and encoded again, which replaces the invalid bytes, so the
+ * strings in the file are always valid.
  *
  * @author daan.debie
  */
-public class FlumeEventStringAvroEventSerializer extends AbstractAvroEventSerializer<FlumeEventStringAvroEventSerializer.Container> {
+public class FlumeEventStringAvroEventSerializer extends AbstractDatumEventSerializer<Event> {
 
     private static final Schema SCHEMA = new Schema.Parser().parse(
             "{ \"type\":\"record\", \"name\": \"Event\", \"fields\": [" +
                     " {\"name\": \"headers\", \"type\": { \"type\": \"map\", \"values\": \"string\" } }, " +
                     " {\"name\": \"body\", \"type\": \"string\" } ] }");
 
+    private static final Schema BYTES_SCHEMA = new Schema.Parser().parse(
+            "{ \"type\":\"record\", \"name\": \"Event\", \"fields\": [" +
+                    " {\"name\": \"headers\", \"type\": { \"type\": \"map\", \"values\": \"string\" } }, " +
+                    " {\"name\": \"body\", \"type\": \"bytes\" } ] }");
+
     private final OutputStream out;
+    private final boolean bytes;
 
-    private FlumeEventStringAvroEventSerializer(OutputStream out) {
+    private FlumeEventStringAvroEventSerializer(OutputStream out, boolean bytes) {
         this.out = out;
+        this.bytes = bytes;
     }
 
     @Override
     protected Schema getSchema() {
-        return SCHEMA;
+        return bytes ? BYTES_SCHEMA : SCHEMA;
     }
 
     @Override
@@ -38,34 +53,72 @@ public class FlumeEventStringAvroEventSerializer extends AbstractAvroEventSerial
         return out;
     }
 
+    @Override
+    protected DatumWriter<Event> createDatumWriter(Schema schema) {
+        return new EventDatumWriter(!bytes);
+    }
+
     /**
      * A no-op for this simple, special-case implementation
      * @param event
      * @return
      */
     @Override
-    protected Container convert(Event event) {
-        return new Container(event.getHeaders(), new String(event.getBody(), Charsets.UTF_8));
+    protected Event convert(Event event) {
+        return event;
     }
 
     public static class Builder implements EventSerializer.Builder {
 
         @Override
         public EventSerializer build(Context context, OutputStream out) {
-            FlumeEventStringAvroEventSerializer writer = new FlumeEventStringAvroEventSerializer(out);
+            String body = context.getString(BODY, BODY_DEFAULT);
+            Preconditions.checkState(BODY_STRING.equals(body) || BODY_BYTES.equals(body),
+                    "The parameter " + BODY + " must be string or bytes");
+            FlumeEventStringAvroEventSerializer writer = new FlumeEventStringAvroEventSerializer(out, BODY_BYTES.equals(body));
             writer.configure(context);
             return writer;
         }
 
     }
 
-    public static class Container {
-        private final Map<String, String> headers;
-        private final String body;
-        public Container(Map<String, String> headers, String body) {
-            super();
-            this.headers = headers;
-            this.body = body;
+    /**
+     * Writes an {@link Event} field by field, with the body bytes as they are.
+     */
+    static class EventDatumWriter implements DatumWriter<Event> {
+
+        private final boolean validate;
+
+        /**
+         * @param validate whether the body must be valid UTF-8, as for a string body
+         */
+        EventDatumWriter(boolean validate) {
+            this.validate = validate;
+        }
+
+        @Override
+        public void setSchema(Schema schema) {
+        }
+
+        @Override
+        public void write(Event event, Encoder out) throws IOException {
+            Encoders.writeHeaders(event.getHeaders(), out);
+            byte[] body = event.getBody();
+            if (body == null) {
+                out.writeBytes(new byte[0]);
+            } else if (!validate || Encoders.isUtf8(body)) {
+                out.writeBytes(body);
+            } else {
+                out.writeString(new String(body, Charsets.UTF_8));
+            }
         }
     }
+
+    public static class Constants {
+
+        public static final String BODY = "body";
+        public static final String BODY_STRING = "string";
+        public static final String BODY_BYTES = "bytes";
+        public static final String BODY_DEFAULT = BODY_STRING;
+    }
 }
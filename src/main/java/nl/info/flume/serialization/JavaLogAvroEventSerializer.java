@@ -1,22 +1,24 @@
 package nl.info.flume.serialization;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.Encoder;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
-import org.apache.flume.serialization.AbstractAvroEventSerializer;
 import nl.info.flume.serialization.JavaLogAvroEventSerializer.JavaEvent;
 import org.apache.flume.serialization.EventSerializer;
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
-import org.joda.time.format.ISODateTimeFormat;
+
+import static nl.info.flume.serialization.JavaLogAvroEventSerializer.Constants.*;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -25,9 +27,7 @@ import java.util.Map;
  * @author daan.debie
  */
 @Slf4j
-public class JavaLogAvroEventSerializer extends AbstractAvroEventSerializer<JavaEvent> {
-
-    private static final DateTimeFormatter dateFmt = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+public class JavaLogAvroEventSerializer extends AbstractDatumEventSerializer<Object> {
 
     private static final Schema SCHEMA = new Schema.Parser().parse("" +
             "{ \"type\": \"record\", \"name\": \"JavaEvent\", \"namespace\": \"nl.info.flume\", \"fields\": [" +
@@ -42,10 +42,42 @@ public class JavaLogAvroEventSerializer extends AbstractAvroEventSerializer<Java
             " { \"name\": \"message\",   \"type\": \"string\" }" +
             " ] }");
 
+    private static final Schema SPAN_SCHEMA = Spans.schema(SCHEMA, "datetime");
+
     private final OutputStream out;
+    private final int schemaVersion;
+    private final boolean spans;
+    // the bounds of the fields of the line, reused for every event
+    private final int[] bounds = JavaLogParser.bounds();
+    // the fields the projection needs, see JavaLogParser#fields
+    private int fields = -1;
+    private StackTraces stackTraces = StackTraces.DEFAULT;
 
     public JavaLogAvroEventSerializer(OutputStream out) throws IOException {
+        this(out, TypedSchemas.SCHEMA_VERSION_DEFAULT);
+    }
+
+    public JavaLogAvroEventSerializer(OutputStream out, int schemaVersion) throws IOException {
+        this(out, schemaVersion, Spans.SPANS_DEFAULT);
+    }
+
+    /**
+     * @param schemaVersion 1 for the string based schema, 2 for {@link TypedSchemas#JAVA}
+     * @param spans whether to write the string fields as spans of the original, see {@link Spans}
+     */
+    public JavaLogAvroEventSerializer(OutputStream out, int schemaVersion, boolean spans) throws IOException {
         this.out = out;
+        this.schemaVersion = schemaVersion;
+        this.spans = spans;
+        Spans.select(schemaVersion, spans, SCHEMA, TypedSchemas.JAVA, SPAN_SCHEMA);
+    }
+
+    @Override
+    public void configure(Context context) {
+        super.configure(context);
+        int maxFrames = context.getInteger(MAX_FRAMES, MAX_FRAMES_DEFAULT);
+        Preconditions.checkState(maxFrames >= 0, "The parameter " + MAX_FRAMES + " must be 0 or more");
+        stackTraces = new StackTraces(context.getString(LINE_TERMINATOR, LINE_TERMINATOR_DEFAULT), maxFrames);
     }
 
     @Override
@@ -55,89 +87,78 @@ public class JavaLogAvroEventSerializer extends AbstractAvroEventSerializer<Java
 
     @Override
     protected Schema getSchema() {
-        return SCHEMA;
+        return Spans.select(schemaVersion, spans, SCHEMA, TypedSchemas.JAVA, SPAN_SCHEMA);
     }
 
-    // very simple rfc3164 parser
     @Override
-    protected JavaEvent convert(Event event) {
-        JavaEvent jve = new JavaEvent();
-
-        // Stringify body so it's easy to parse.
-        // This is a pretty inefficient way to do it.
-        String logline = new String(event.getBody(), Charsets.UTF_8);
-        jve.setHeaders(event.getHeaders());
-        jve.setOriginal(logline);
-
-        // parser read pointer
-        int seek = 0;
-
-        // Put seek on character beyond first pipe
-        int nextMarker = logline.indexOf('|', seek);
-        seek = nextMarker + 1;
-
-        // Look for datetime and parse it
-        nextMarker = logline.indexOf('|', seek);
-        if (nextMarker > -1) {
-            String dateTime = logline.substring(seek, nextMarker);
-            try {
-                DateTime dt = dateFmt.parseDateTime(dateTime);
-                jve.setDatetime(dt.toString("yyyy-MM-dd HH:mm:ss"));
-                jve.setTimestamp(dt.getMillis());
-            } catch (IllegalArgumentException e) {
-                // ignore the exception gracefully
-                log.warn("Date parse failed on ({}). Skipping...", dateTime);
-            }
+    protected boolean convertsToGenericRecords() {
+        return schemaVersion == 2;
+    }
 
-            seek = nextMarker + 1;
+    @Override
+    protected Projection createProjection(Context context) {
+        if (spans) {
+            return Spans.projection(context, getSchema());
         }
+        return Projection.fromContext(context, getSchema());
+    }
 
-        // look for loglevel
-        nextMarker = logline.indexOf('|', seek);
-        if (nextMarker > -1) {
-            String logLevel = logline.substring(seek, nextMarker);
-            jve.setLoglevel(logLevel);
-            seek = nextMarker + 1;
+    @Override
+    @SuppressWarnings("unchecked")
+    protected DatumWriter<Object> createDatumWriter(Schema schema) {
+        if (spans) {
+            return (DatumWriter) new Spans.RecordDatumWriter(getSchema(), getProjection());
         }
-
-        // look for appservername
-        nextMarker = logline.indexOf('|', seek);
-        if (nextMarker > -1) {
-            String appServerName = logline.substring(seek, nextMarker);
-            jve.setAppservername(appServerName);
-            seek = nextMarker + 1;
+        if (schemaVersion == 2) {
+            return new GenericDatumWriter<Object>(schema);
         }
+        return (DatumWriter) new JavaEventDatumWriter(getProjection());
+    }
 
-        // look for classname
-        nextMarker = logline.indexOf('|', seek);
-        if (nextMarker > -1) {
-            String classname = logline.substring(seek, nextMarker);
-            jve.setClassname(classname);
-            seek = nextMarker + 1;
+    @Override
+    protected Object convert(Event event) {
+        if (spans) {
+            return convertToSpans(event);
         }
+        JavaEvent jve = new JavaEvent();
+        byte[] body = event.getBody();
+        Map<String, String> headers = event.getHeaders();
 
-        // look for thread
-        nextMarker = logline.indexOf('|', seek);
-        if (nextMarker > -1) {
-            String thread = logline.substring(seek, nextMarker);
-            jve.setThread(thread);
-            seek = nextMarker + 1;
+        if (fields < 0) {
+            fields = JavaLogParser.fields(getProjection().getSchema());
         }
-
-        // everything else is the message, up to the last |#]
-        nextMarker = logline.indexOf('|', seek);
-        String actualMessage;
-        if(nextMarker > -1) {
-            actualMessage = logline.substring(seek, nextMarker);
+        boolean parsed = true;
+        if (ParsedHeaders.isParsed(headers, ParsedHeaders.JAVA)) {
+            // already parsed by the LogParsingInterceptor, which doesn't keep the frames
+            jve.fromHeaders(headers);
+            jve.setHeaders(ParsedHeaders.strip(headers));
+            parsed = !ParsedHeaders.isFailed(headers);
+            if (JavaLogParser.wantsStackTrace(fields)) {
+                stackTraces.extract(jve.getMessage(), jve);
+            }
         } else {
-            actualMessage = logline.substring(seek);
+            jve.setHeaders(headers);
+            parsed = JavaLogParser.parse(body, bounds, fields, stackTraces, jve);
         }
-
-        jve.setMessage(actualMessage);
+        // the line is only decoded as a whole when it's written
+        jve.setOriginal(getProjection().keepsOriginal(parsed) ? new String(body, Charsets.UTF_8) : null);
 
         // log.debug("Serialized event as: {}", jve);
 
-        return jve;
+        return schemaVersion == 2 ? getProjection().project(TypedSchemas.java(jve), parsed) : jve;
+    }
+
+    private Spans.Record convertToSpans(Event event) {
+        byte[] body = event.getBody();
+        String logline = new String(body, Charsets.UTF_8);
+        Map<String, String> headers = event.getHeaders();
+        if (ParsedHeaders.isParsed(headers, ParsedHeaders.JAVA)) {
+            // spans point into the original line, so it's parsed again
+            headers = ParsedHeaders.strip(headers);
+        }
+        Spans.Record record = new Spans.Record(SPAN_SCHEMA, headers, logline);
+        JavaLogParser.parse(body, logline, record);
+        return record;
     }
 
     public static class Builder implements EventSerializer.Builder {
@@ -146,7 +167,9 @@ public class JavaLogAvroEventSerializer extends AbstractAvroEventSerializer<Java
         public EventSerializer build(Context context, OutputStream out) {
             JavaLogAvroEventSerializer writer = null;
             try {
-                writer = new JavaLogAvroEventSerializer(out);
+                writer = new JavaLogAvroEventSerializer(out,
+                        context.getInteger(TypedSchemas.SCHEMA_VERSION, TypedSchemas.SCHEMA_VERSION_DEFAULT),
+                        context.getBoolean(Spans.SPANS, Spans.SPANS_DEFAULT));
                 writer.configure(context);
             } catch (IOException e) {
                 log.error("Unable to parse schema file. Exception follows.", e);
@@ -156,6 +179,65 @@ public class JavaLogAvroEventSerializer extends AbstractAvroEventSerializer<Java
 
     }
 
+    /**
+     * Writes a {@link JavaEvent} field by field in the order of the v1 schema, without reflection.
+     * Fields left out by the projection are skipped.
+     */
+    static class JavaEventDatumWriter implements DatumWriter<JavaEvent> {
+
+        private final Projection projection;
+
+        JavaEventDatumWriter() {
+            this(Projection.all(SCHEMA));
+        }
+
+        JavaEventDatumWriter(Projection projection) {
+            this.projection = projection;
+        }
+
+        @Override
+        public void setSchema(Schema schema) {
+        }
+
+        @Override
+        public void write(JavaEvent event, Encoder out) throws IOException {
+            for (int position : projection.getPositions()) {
+                switch (position) {
+                    case 0:
+                        projection.writeHeaders(event.getHeaders(), out);
+                        break;
+                    case 1:
+                        projection.writeOriginal(event.getOriginal(), out);
+                        break;
+                    case 2:
+                        out.writeLong(event.getTimestamp());
+                        break;
+                    case 3:
+                        Encoders.writeString(event.getDatetime(), out);
+                        break;
+                    case 4:
+                        Encoders.writeString(event.getLoglevel(), out);
+                        break;
+                    case 5:
+                        Encoders.writeString(event.getAppservername(), out);
+                        break;
+                    case 6:
+                        Encoders.writeString(event.getClassname(), out);
+                        break;
+                    case 7:
+                        Encoders.writeString(event.getThread(), out);
+                        break;
+                    case 8:
+                        Encoders.writeString(event.getMessage(), out);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown field " + position);
+                }
+            }
+            projection.writePromoted(event.getHeaders(), out);
+        }
+    }
+
     @Getter
     @Setter
     public static class JavaEvent {
@@ -168,6 +250,41 @@ public class JavaLogAvroEventSerializer extends AbstractAvroEventSerializer<Java
         private String classname = "";
         private String thread = "";
         private String message = "";
+        private String exceptionClass = "";
+        private String exceptionMessage = "";
+        private String rootCauseClass = "";
+        private List<String> frames;
+        private long frameHash;
+
+        /**
+         * Puts the parsed fields in the headers, see {@link ParsedHeaders}.
+         */
+        public void toHeaders(Map<String, String> headers) {
+            headers.put(ParsedHeaders.PREFIX + "timestamp", String.valueOf(timestamp));
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "datetime", datetime);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "loglevel", loglevel);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "appservername", appservername);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "classname", classname);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "thread", thread);
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "message", message);
+            ParsedHeaders.putIfNotEmpty(headers, ParsedHeaders.PREFIX + "exceptionClass", exceptionClass);
+            ParsedHeaders.putIfNotEmpty(headers, ParsedHeaders.PREFIX + "rootCauseClass", rootCauseClass);
+        }
+
+        /**
+         * Reads the parsed fields from the headers, see {@link ParsedHeaders}.
+         */
+        public void fromHeaders(Map<String, String> headers) {
+            timestamp = ParsedHeaders.getLong(headers, ParsedHeaders.PREFIX + "timestamp", timestamp);
+            datetime = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "datetime", datetime);
+            loglevel = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "loglevel", loglevel);
+            appservername = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "appservername", appservername);
+            classname = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "classname", classname);
+            thread = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "thread", thread);
+            message = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "message", message);
+            exceptionClass = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "exceptionClass", exceptionClass);
+            rootCauseClass = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "rootCauseClass", rootCauseClass);
+        }
 
         @Override
         public String toString() {
@@ -178,8 +295,22 @@ public class JavaLogAvroEventSerializer extends AbstractAvroEventSerializer<Java
             builder.append(" ApplicationServerName: ").append(appservername).append(", ");
             builder.append(" ClassName: ").append(classname).append(", ");
             builder.append(" Thread: ").append(thread).append(", ");
-            builder.append(" Message: \"").append(message).append("\" }");
+            builder.append(" Message: \"").append(message).append("\"");
+            if (!exceptionClass.isEmpty()) {
+                builder.append(", ExceptionClass: ").append(exceptionClass);
+                builder.append(", RootCauseClass: ").append(rootCauseClass);
+            }
+            builder.append(" }");
             return builder.toString();
         }
     }
+
+    public static class Constants {
+
+        public static final String LINE_TERMINATOR = "lineTerminator";
+        public static final String LINE_TERMINATOR_DEFAULT = " § ";
+
+        public static final String MAX_FRAMES = "maxFrames";
+        public static final int MAX_FRAMES_DEFAULT = 10;
+    }
 }
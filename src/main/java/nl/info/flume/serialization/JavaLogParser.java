@@ -0,0 +1,220 @@
+package nl.info.flume.serialization;
+
+import com.google.common.base.Charsets;
+import nl.info.flume.serialization.JavaLogAvroEventSerializer.JavaEvent;
+import org.apache.avro.Schema;
+
+/**
+ * Parses pipe delimited Java log records (<code>[#|date|level|server|class|thread|message|#]</code>)
+ * into a {@link JavaEvent}. Used by both the {@link JavaLogAvroEventSerializer} and the
+ * {@link nl.info.flume.interceptor.LogParsingInterceptor}.
+ * <br/>
+ * The UTF-8 bytes of the record are split on the pipes by {@link Delimiters}, into the bounds of
+ * the fields, and only the fields that are asked for are decoded into strings. When the stack
+ * trace fields are asked for, the message is handed to {@link StackTraces}, unless it has no tab
+ * in it and so no frames.
+ *
+ * @author daan.debie
+ */
+public final class JavaLogParser {
+
+    private static final byte PIPE = '|';
+    private static final byte TAB = '\t';
+
+    // the fields between the pipes, in the order of the line
+    private static final int DATETIME = 0;
+    private static final int LOGLEVEL = 1;
+    private static final int APPSERVERNAME = 2;
+    private static final int CLASSNAME = 3;
+    private static final int THREAD = 4;
+    private static final int MESSAGE = 5;
+    private static final int FIELDS = 6;
+    // not a field of the line, but the stack trace in the message
+    private static final int EXCEPTION = FIELDS;
+
+    /**
+     * Asks for all fields, see {@link #fields(Schema)}.
+     */
+    static final int ALL_FIELDS = (1 << (EXCEPTION + 1)) - 1;
+
+    // the position of the timestamp in the span layout
+    private static final int SPAN_TIMESTAMP = 2;
+
+    private JavaLogParser() {
+    }
+
+    /**
+     * Returns bounds to pass to {@link #parse(byte[], int[], int, JavaEvent)}, which can be
+     * reused for every line.
+     */
+    static int[] bounds() {
+        return new int[FIELDS * 2];
+    }
+
+    /**
+     * Returns the fields of the line that the given schema needs, as bits by their position in
+     * the line. The timestamp is always parsed, only the <code>datetime</code> string isn't.
+     * Any of the stack trace fields asks for the stack trace.
+     */
+    static int fields(Schema schema) {
+        int fields = 0;
+        for (Schema.Field field : schema.getFields()) {
+            String name = field.name();
+            if ("datetime".equals(name)) {
+                fields |= 1 << DATETIME;
+            } else if ("loglevel".equals(name)) {
+                fields |= 1 << LOGLEVEL;
+            } else if ("appservername".equals(name)) {
+                fields |= 1 << APPSERVERNAME;
+            } else if ("classname".equals(name)) {
+                fields |= 1 << CLASSNAME;
+            } else if ("thread".equals(name)) {
+                fields |= 1 << THREAD;
+            } else if ("message".equals(name)) {
+                fields |= 1 << MESSAGE;
+            } else if ("exceptionClass".equals(name) || "exceptionMessage".equals(name)
+                    || "rootCauseClass".equals(name) || "frames".equals(name) || "frameHash".equals(name)) {
+                fields |= 1 << EXCEPTION;
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Sets the parsed fields on the given event.
+     * @return false if the date didn't parse or any of the fields before the message is missing
+     */
+    public static boolean parse(String logline, JavaEvent jve) {
+        return parse(logline.getBytes(Charsets.UTF_8), jve);
+    }
+
+    /**
+     * Sets the parsed fields of the given UTF-8 line on the given event.
+     * @return false if the date didn't parse or any of the fields before the message is missing
+     */
+    public static boolean parse(byte[] line, JavaEvent jve) {
+        return parse(line, bounds(), ALL_FIELDS, jve);
+    }
+
+    /**
+     * Sets the given fields of the given UTF-8 line on the given event.
+     * @param bounds from {@link #bounds()}
+     * @param fields from {@link #fields(Schema)}, or {@link #ALL_FIELDS}
+     * @return false if the date didn't parse or any of the fields before the message is missing
+     */
+    static boolean parse(byte[] line, int[] bounds, int fields, JavaEvent jve) {
+        return parse(line, bounds, fields, StackTraces.DEFAULT, jve);
+    }
+
+    /**
+     * Sets the given fields of the given UTF-8 line on the given event, finding stack traces
+     * with the given {@link StackTraces}.
+     * @param bounds from {@link #bounds()}
+     * @param fields from {@link #fields(Schema)}, or {@link #ALL_FIELDS}
+     * @return false if the date didn't parse or any of the fields before the message is missing
+     */
+    static boolean parse(byte[] line, int[] bounds, int fields, StackTraces stackTraces, JavaEvent jve) {
+        boolean parsed = scan(line, bounds);
+
+        if (bounds[DATETIME * 2] > -1) {
+            long ts = Timestamps.parseJava(line, bounds[DATETIME * 2], bounds[DATETIME * 2 + 1]);
+            if (ts != Timestamps.INVALID) {
+                if (wanted(fields, DATETIME)) {
+                    jve.setDatetime(Timestamps.datetime(ts));
+                }
+                jve.setTimestamp(ts);
+            } else {
+                parsed = false;
+            }
+        }
+        if (wanted(fields, LOGLEVEL) && bounds[LOGLEVEL * 2] > -1) {
+            jve.setLoglevel(decode(line, bounds, LOGLEVEL));
+        }
+        if (wanted(fields, APPSERVERNAME) && bounds[APPSERVERNAME * 2] > -1) {
+            jve.setAppservername(decode(line, bounds, APPSERVERNAME));
+        }
+        if (wanted(fields, CLASSNAME) && bounds[CLASSNAME * 2] > -1) {
+            jve.setClassname(decode(line, bounds, CLASSNAME));
+        }
+        if (wanted(fields, THREAD) && bounds[THREAD * 2] > -1) {
+            jve.setThread(decode(line, bounds, THREAD));
+        }
+        boolean frames = wanted(fields, EXCEPTION)
+                && Delimiters.indexOf(line, TAB, bounds[MESSAGE * 2], bounds[MESSAGE * 2 + 1]) > -1;
+        if (wanted(fields, MESSAGE) || frames) {
+            String message = decode(line, bounds, MESSAGE);
+            jve.setMessage(message);
+            if (frames) {
+                stackTraces.extract(message, jve);
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Sets the timestamp and the bounds of the other parsed fields on the given record of the
+     * span layout, in which the fields follow the timestamp in the order of the line.
+     * @param line the UTF-8 bytes of the line
+     * @param logline the same line decoded, which the spans point into
+     * @return false if the date didn't parse or any of the fields before the message is missing
+     */
+    public static boolean parse(byte[] line, String logline, Spans.Record record) {
+        int[] bounds = bounds();
+        boolean parsed = scan(line, bounds);
+
+        if (bounds[DATETIME * 2] > -1) {
+            long ts = Timestamps.parseJava(line, bounds[DATETIME * 2], bounds[DATETIME * 2 + 1]);
+            if (ts != Timestamps.INVALID) {
+                record.number(SPAN_TIMESTAMP, ts);
+            } else {
+                parsed = false;
+            }
+        }
+        Spans.CharOffsets offsets = new Spans.CharOffsets(line, logline);
+        for (int field = LOGLEVEL; field < FIELDS; field++) {
+            if (bounds[field * 2] > -1) {
+                record.span(SPAN_TIMESTAMP + field,
+                        offsets.charOffset(bounds[field * 2]), offsets.charOffset(bounds[field * 2 + 1]));
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Puts the start and end of every field in the bounds, or -1 for fields that are missing.
+     * @return false if any of the fields before the message is missing
+     */
+    private static boolean scan(byte[] line, int[] bounds) {
+        // start beyond the first pipe
+        int seek = Delimiters.indexOf(line, PIPE, 0) + 1;
+
+        int count = Delimiters.split(line, PIPE, seek, line.length, bounds);
+        if (count == FIELDS) {
+            // the message runs up to the last |#]
+            return true;
+        }
+
+        // the last field found runs to the end of the line, so it's the message
+        bounds[MESSAGE * 2] = bounds[(count - 1) * 2];
+        bounds[MESSAGE * 2 + 1] = bounds[(count - 1) * 2 + 1];
+        for (int field = count - 1; field < MESSAGE; field++) {
+            bounds[field * 2] = -1;
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the given fields, from {@link #fields(Schema)}, ask for the stack trace.
+     */
+    static boolean wantsStackTrace(int fields) {
+        return wanted(fields, EXCEPTION);
+    }
+
+    private static boolean wanted(int fields, int field) {
+        return (fields & 1 << field) != 0;
+    }
+
+    private static String decode(byte[] line, int[] bounds, int field) {
+        return new String(line, bounds[field * 2], bounds[field * 2 + 1] - bounds[field * 2], Charsets.UTF_8);
+    }
+}
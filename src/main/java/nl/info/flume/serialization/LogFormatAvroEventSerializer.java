@@ -0,0 +1,96 @@
+package nl.info.flume.serialization;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.serialization.EventSerializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static nl.info.flume.serialization.LogFormatAvroEventSerializer.Constants.*;
+
+/**
+ * Serializes Apache httpd log lines in any configured <code>LogFormat</code>. The LogFormat is
+ * compiled once into an {@link ApacheLogFormat}, which parses the lines and derives the Avro schema,
+ * so every vhost format can be stored with its fields without writing a serializer for it.
+ * Lines that don't match the LogFormat are stored with only the original line.
+ *
+ * @author daan.debie
+ */
+@Slf4j
+public class LogFormatAvroEventSerializer extends AbstractDatumEventSerializer<GenericRecord> {
+
+    private final OutputStream out;
+    private final ApacheLogFormat logFormat;
+
+    public LogFormatAvroEventSerializer(OutputStream out, ApacheLogFormat logFormat) throws IOException {
+        this.out = out;
+        this.logFormat = logFormat;
+    }
+
+    @Override
+    protected OutputStream getOutputStream() {
+        return out;
+    }
+
+    @Override
+    protected Schema getSchema() {
+        return logFormat.getSchema();
+    }
+
+    @Override
+    protected Projection createProjection(Context context) {
+        return Projection.fromContext(context, getSchema());
+    }
+
+    @Override
+    protected DatumWriter<GenericRecord> createDatumWriter(Schema schema) {
+        return new GenericDatumWriter<GenericRecord>(schema);
+    }
+
+    @Override
+    protected boolean convertsToGenericRecords() {
+        return true;
+    }
+
+    @Override
+    protected GenericRecord convert(Event event) {
+        String logline = new String(event.getBody(), Charsets.UTF_8);
+        GenericRecord record = logFormat.newRecord(event.getHeaders(), logline);
+        boolean parsed = logFormat.parse(logline, record);
+        if (!parsed) {
+            log.warn("The event doesn't match the LogFormat {}! [{}]", logFormat, logline);
+        }
+        return getProjection().project(record, parsed);
+    }
+
+    public static class Builder implements EventSerializer.Builder {
+
+        @Override
+        public EventSerializer build(Context context, OutputStream out) {
+            String format = context.getString(LOG_FORMAT);
+            Preconditions.checkState(format != null, "The parameter " + LOG_FORMAT + " must be specified");
+            LogFormatAvroEventSerializer writer = null;
+            try {
+                writer = new LogFormatAvroEventSerializer(out, ApacheLogFormat.compile(format));
+                writer.configure(context);
+            } catch (IOException e) {
+                log.error("Unable to parse schema file. Exception follows.", e);
+            }
+            return writer;
+        }
+
+    }
+
+    public static class Constants {
+
+        public static final String LOG_FORMAT = "logFormat";
+    }
+}
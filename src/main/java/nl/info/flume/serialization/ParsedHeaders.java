@@ -0,0 +1,80 @@
+package nl.info.flume.serialization;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Header names and helpers for events that were already parsed at the source tier
+ * by the {@link nl.info.flume.interceptor.LogParsingInterceptor}. All parsed fields are
+ * put in headers starting with {@link #PREFIX}, and {@link #FORMAT} tells which format
+ * they were parsed as. Lines that didn't parse are marked with {@link #FAILED}.
+ * The serializers use these fields instead of parsing the body again.
+ *
+ * @author daan.debie
+ */
+public final class ParsedHeaders {
+
+    public static final String PREFIX = "log.";
+    public static final String FORMAT = PREFIX + "format";
+    public static final String FAILED = PREFIX + "failed";
+
+    public static final String APACHE = "apache";
+    public static final String SYSLOG = "syslog";
+    public static final String JAVA = "java";
+
+    private ParsedHeaders() {
+    }
+
+    public static boolean isParsed(Map<String, String> headers, String format) {
+        return format.equals(headers.get(FORMAT));
+    }
+
+    /**
+     * Returns whether the line didn't parse at the source tier.
+     */
+    public static boolean isFailed(Map<String, String> headers) {
+        return Boolean.parseBoolean(headers.get(FAILED));
+    }
+
+    /**
+     * Returns a copy of the headers without the parsed fields, so they aren't stored twice.
+     */
+    public static Map<String, String> strip(Map<String, String> headers) {
+        Map<String, String> stripped = new HashMap<String, String>();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (!header.getKey().startsWith(PREFIX)) {
+                stripped.put(header.getKey(), header.getValue());
+            }
+        }
+        return stripped;
+    }
+
+    static void putIfNotNull(Map<String, String> headers, String key, String value) {
+        if (value != null) {
+            headers.put(key, value);
+        }
+    }
+
+    static void putIfNotEmpty(Map<String, String> headers, String key, String value) {
+        if (value != null && !value.isEmpty()) {
+            headers.put(key, value);
+        }
+    }
+
+    static String get(Map<String, String> headers, String key, String defaultValue) {
+        String value = headers.get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    static long getLong(Map<String, String> headers, String key, long defaultValue) {
+        String value = headers.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package nl.info.flume.serialization;
+
+import com.google.common.base.Preconditions;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.Encoder;
+import org.apache.flume.Context;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Chooses which parts of a record a serializer writes: the <code>original</code> line (always,
+ * never, or only for lines that failed to parse), the <code>headers</code> (all, none, or only
+ * the given ones) and the parsed fields (all, none, or only the given ones). The schema of the
+ * output files is the schema of the serializer without the fields that are left out; with
+ * <code>onFailure</code> the original becomes nullable.
+ * <br/>
+ * Promoted headers are taken out of the <code>headers</code> map and written as nullable fields
+ * of their own after the kept fields, as strings, or as longs or ints when they are promoted as
+ * <code>name:long</code> or <code>name:int</code>. Characters that can't be in an Avro name
+ * become '_' in the name of the field, see {@link #fieldName(String)}. A header that's missing, or isn't a number when it
+ * should be, is null.
+ * <br/>
+ * The kept fields are in the order of the full schema, so a datum writer can write the fields
+ * at {@link #getPositions()} of a full record.
+ *
+ * @author daan.debie
+ */
+public final class Projection {
+
+    public static final String ORIGINAL = "projection.original";
+    public static final String ORIGINAL_DEFAULT = "always";
+    public static final String HEADERS = "projection.headers";
+    public static final String HEADERS_DEFAULT = "all";
+    public static final String FIELDS = "projection.fields";
+    public static final String FIELDS_DEFAULT = "all";
+    public static final String PROMOTED_HEADERS = "projection.promotedHeaders";
+    public static final String PROMOTED_HEADERS_DEFAULT = "";
+
+    public static final String ALWAYS = "always";
+    public static final String NEVER = "never";
+    public static final String ON_FAILURE = "onFailure";
+    public static final String ALL = "all";
+    public static final String NONE = "none";
+
+    private static final String HEADERS_FIELD = "headers";
+    private static final String ORIGINAL_FIELD = "original";
+
+    private final Schema fullSchema;
+    private final Schema schema;
+    private final boolean[] kept;
+    // positions in the full schema, in the order of the projected schema
+    private final int[] positions;
+    private final int headersPosition;
+    private final int originalPosition;
+    private final boolean originalOnFailure;
+    // null when all headers are kept
+    private final Set<String> headerWhitelist;
+    // the names of the promoted headers and the types of their fields
+    private final String[] promoted;
+    private final Schema.Type[] promotedTypes;
+    private final boolean all;
+
+    private Projection(Schema fullSchema, String original, String headers, String fields, String promotedHeaders) {
+        this.fullSchema = fullSchema;
+        Preconditions.checkState(ALWAYS.equals(original) || NEVER.equals(original) || ON_FAILURE.equals(original),
+                "The parameter " + ORIGINAL + " must be one of always, never or onFailure");
+        originalOnFailure = ON_FAILURE.equals(original);
+        headerWhitelist = ALL.equals(headers) || NONE.equals(headers) ? null : words(headers);
+        Set<String> fieldList = ALL.equals(fields) || NONE.equals(fields) ? null : words(fields);
+
+        List<Schema.Field> fullFields = fullSchema.getFields();
+        kept = new boolean[fullFields.size()];
+        int headersPos = -1;
+        int originalPos = -1;
+        for (Schema.Field field : fullFields) {
+            if (HEADERS_FIELD.equals(field.name())) {
+                headersPos = field.pos();
+                kept[field.pos()] = !NONE.equals(headers);
+            } else if (ORIGINAL_FIELD.equals(field.name())) {
+                originalPos = field.pos();
+                kept[field.pos()] = !NEVER.equals(original);
+            } else {
+                kept[field.pos()] = fieldList == null ? ALL.equals(fields) : fieldList.remove(field.name());
+            }
+        }
+        Preconditions.checkState(fieldList == null || fieldList.isEmpty(),
+                "The parameter " + FIELDS + " has unknown fields: " + fieldList);
+        headersPosition = headersPos;
+        originalPosition = originalPos;
+
+        List<Schema.Field> projected = new ArrayList<Schema.Field>();
+        int[] keptPositions = new int[fullFields.size()];
+        for (Schema.Field field : fullFields) {
+            if (!kept[field.pos()]) {
+                continue;
+            }
+            Schema fieldSchema = field.schema();
+            if (field.pos() == originalPosition && originalOnFailure) {
+                fieldSchema = Schema.createUnion(Arrays.asList(Schema.create(Schema.Type.NULL), fieldSchema));
+            }
+            keptPositions[projected.size()] = field.pos();
+            projected.add(new Schema.Field(field.name(), fieldSchema, field.doc(),
+                    fieldSchema == field.schema() ? field.defaultValue() : null));
+        }
+        positions = Arrays.copyOf(keptPositions, projected.size());
+
+        String[] promotedList = promotedHeaders.isEmpty() ? new String[0] : promotedHeaders.split("\\s+");
+        promoted = new String[promotedList.length];
+        promotedTypes = new Schema.Type[promotedList.length];
+        for (int i = 0; i < promotedList.length; i++) {
+            String[] nameAndType = promotedList[i].split(":", 2);
+            promoted[i] = nameAndType[0];
+            promotedTypes[i] = nameAndType.length == 1 ? Schema.Type.STRING : promotedType(nameAndType[1]);
+            Preconditions.checkState(promotedTypes[i] != null,
+                    "The parameter " + PROMOTED_HEADERS + " must have types string, long or int");
+            String name = fieldName(promoted[i]);
+            Preconditions.checkState(fullSchema.getField(name) == null && !contains(projected, name),
+                    "The parameter " + PROMOTED_HEADERS + " promotes " + promoted[i] + " to a field that already exists");
+            Schema fieldSchema = Schema.createUnion(Arrays.asList(
+                    Schema.create(Schema.Type.NULL), Schema.create(promotedTypes[i])));
+            projected.add(new Schema.Field(name, fieldSchema, "The header " + promoted[i], null));
+        }
+
+        all = positions.length == fullFields.size() && !originalOnFailure && headerWhitelist == null
+                && promoted.length == 0;
+        if (all) {
+            schema = fullSchema;
+        } else {
+            schema = Schema.createRecord(fullSchema.getName(), fullSchema.getDoc(), fullSchema.getNamespace(), false);
+            schema.setFields(projected);
+        }
+    }
+
+    /**
+     * The projection that keeps everything.
+     */
+    public static Projection all(Schema fullSchema) {
+        return new Projection(fullSchema, ALWAYS, ALL, ALL, PROMOTED_HEADERS_DEFAULT);
+    }
+
+    public static Projection fromContext(Context context, Schema fullSchema) {
+        return new Projection(fullSchema,
+                context.getString(ORIGINAL, ORIGINAL_DEFAULT),
+                context.getString(HEADERS, HEADERS_DEFAULT).trim(),
+                context.getString(FIELDS, FIELDS_DEFAULT).trim(),
+                context.getString(PROMOTED_HEADERS, PROMOTED_HEADERS_DEFAULT).trim());
+    }
+
+    private static Set<String> words(String value) {
+        return new HashSet<String>(Arrays.asList(value.trim().split("\\s+")));
+    }
+
+    /**
+     * Returns the name of the field of a promoted header, with anything that can't be in an Avro
+     * name replaced by '_', and a '_' in front of a leading digit.
+     */
+    static String fieldName(String header) {
+        StringBuilder name = new StringBuilder(header.length() + 1);
+        if (!header.isEmpty() && header.charAt(0) >= '0' && header.charAt(0) <= '9') {
+            name.append('_');
+        }
+        for (int i = 0; i < header.length(); i++) {
+            char c = header.charAt(i);
+            boolean valid = c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+            name.append(valid ? c : '_');
+        }
+        return name.toString();
+    }
+
+    private static Schema.Type promotedType(String name) {
+        for (Schema.Type type : new Schema.Type[]{Schema.Type.STRING, Schema.Type.LONG, Schema.Type.INT}) {
+            if (type.getName().equals(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    private static boolean contains(List<Schema.Field> fields, String name) {
+        for (Schema.Field field : fields) {
+            if (field.name().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The schema of the written records.
+     */
+    public Schema getSchema() {
+        return schema;
+    }
+
+    /**
+     * The positions in the full schema of the written fields, in order.
+     */
+    int[] getPositions() {
+        return positions;
+    }
+
+    /**
+     * Whether the original line of an event that was, or wasn't, parsed is written.
+     */
+    public boolean keepsOriginal(boolean parsed) {
+        return originalPosition > -1 && kept[originalPosition] && !(parsed && originalOnFailure);
+    }
+
+    /**
+     * Writes the kept headers as a map.
+     */
+    public void writeHeaders(Map<String, String> headers, Encoder out) throws IOException {
+        Encoders.writeHeaders(headers(headers), out);
+    }
+
+    /**
+     * Writes the promoted headers, which come after the fields at {@link #getPositions()}.
+     */
+    public void writePromoted(Map<String, String> headers, Encoder out) throws IOException {
+        for (int i = 0; i < promoted.length; i++) {
+            Object value = promoted(headers, i);
+            if (value == null) {
+                out.writeIndex(0);
+                out.writeNull();
+            } else {
+                out.writeIndex(1);
+                switch (promotedTypes[i]) {
+                    case LONG:
+                        out.writeLong((Long) value);
+                        break;
+                    case INT:
+                        out.writeInt((Integer) value);
+                        break;
+                    default:
+                        out.writeString((String) value);
+                }
+            }
+        }
+    }
+
+    private Object promoted(Map<String, String> headers, int i) {
+        String value = headers == null ? null : headers.get(promoted[i]);
+        if (value == null || promotedTypes[i] == Schema.Type.STRING) {
+            return value;
+        }
+        try {
+            return promotedTypes[i] == Schema.Type.LONG ? (Object) Long.valueOf(value.trim()) : Integer.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the original line, or null if it's left out of this record.
+     */
+    public void writeOriginal(String original, Encoder out) throws IOException {
+        if (!originalOnFailure) {
+            Encoders.writeString(original, out);
+        } else if (original == null) {
+            out.writeIndex(0);
+            out.writeNull();
+        } else {
+            out.writeIndex(1);
+            out.writeString(original);
+        }
+    }
+
+    /**
+     * Returns the record with only the kept fields, or the record itself if everything is kept.
+     */
+    public GenericRecord project(GenericRecord record, boolean parsed) {
+        if (all) {
+            return record;
+        }
+        GenericRecord projected = new GenericData.Record(schema);
+        for (int i = 0; i < positions.length; i++) {
+            int position = positions[i];
+            Object value = record.get(position);
+            if (position == headersPosition) {
+                @SuppressWarnings("unchecked")
+                Map<String, String> headers = (Map<String, String>) value;
+                value = headers(headers);
+            } else if (position == originalPosition && !keepsOriginal(parsed)) {
+                value = null;
+            }
+            projected.put(i, value);
+        }
+        if (promoted.length > 0) {
+            @SuppressWarnings("unchecked")
+            Map<String, String> headers = headersPosition > -1 ? (Map<String, String>) record.get(headersPosition) : null;
+            for (int i = 0; i < promoted.length; i++) {
+                projected.put(positions.length + i, promoted(headers, i));
+            }
+        }
+        return projected;
+    }
+
+    private Map<String, String> headers(Map<String, String> headers) {
+        if (headers == null) {
+            return null;
+        }
+        if (headerWhitelist == null) {
+            return promoted.length == 0 ? headers : withoutPromoted(headers);
+        }
+        Map<String, String> kept = new HashMap<String, String>();
+        for (String header : headerWhitelist) {
+            String value = headers.get(header);
+            if (value != null) {
+                kept.put(header, value);
+            }
+        }
+        for (String header : promoted) {
+            kept.remove(header);
+        }
+        return kept;
+    }
+
+    private Map<String, String> withoutPromoted(Map<String, String> headers) {
+        for (String header : promoted) {
+            if (headers.containsKey(header)) {
+                Map<String, String> kept = new HashMap<String, String>(headers);
+                for (String removed : promoted) {
+                    kept.remove(removed);
+                }
+                return kept;
+            }
+        }
+        return headers;
+    }
+
+    @Override
+    public String toString() {
+        return all ? "all of " + fullSchema.getFullName() : schema.toString();
+    }
+}
@@ -0,0 +1,257 @@
+package nl.info.flume.serialization;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.Encoder;
+import org.apache.flume.Context;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The span layout of the Syslog, Apache and Java serializers. Every parsed string field is
+ * stored as a {@link #SPAN}, the offset and length of the field in <code>original</code>,
+ * instead of as a copy of the text. The parsers fill a {@link Record} with the bounds of the
+ * fields, so no substrings are made for them. Offsets and lengths count Java chars (UTF-16 code
+ * units) of the original line, which are the characters of the line for anything but
+ * supplementary characters.
+ * <br/>
+ * {@link #get(GenericRecord, String)} and {@link #materialize(GenericRecord)} turn the spans
+ * of a record that was read back into strings again.
+ *
+ * @author daan.debie
+ */
+public final class Spans {
+
+    public static final String SPANS = "spans";
+    public static final boolean SPANS_DEFAULT = false;
+
+    public static final String NAMESPACE = "nl.info.flume.spans";
+
+    public static final Schema SPAN = new Schema.Parser().parse(
+            "{ \"type\": \"record\", \"name\": \"Span\", \"namespace\": \"" + NAMESPACE + "\", \"fields\": [" +
+                    " { \"name\": \"offset\", \"type\": \"int\" }," +
+                    " { \"name\": \"length\", \"type\": \"int\" }" +
+                    " ] }");
+
+    private static final String ORIGINAL = "original";
+
+    private Spans() {
+    }
+
+    /**
+     * Derives the span layout from a v1 schema: string fields after <code>original</code> become
+     * spans, other fields stay as they are, and the given fields, which aren't text from the
+     * original line, are left out.
+     */
+    static Schema schema(Schema v1, String... derived) {
+        List<String> leftOut = Arrays.asList(derived);
+        List<Schema.Field> fields = new ArrayList<Schema.Field>();
+        for (Schema.Field field : v1.getFields()) {
+            if (leftOut.contains(field.name())) {
+                continue;
+            }
+            Schema fieldSchema = field.schema();
+            if (field.pos() > v1.getField(ORIGINAL).pos() && fieldSchema.getType() == Schema.Type.STRING) {
+                fieldSchema = SPAN;
+            }
+            fields.add(new Schema.Field(field.name(), fieldSchema, field.doc(), null));
+        }
+        Schema schema = Schema.createRecord(v1.getName(), v1.getDoc(), NAMESPACE, false);
+        schema.setFields(fields);
+        return schema;
+    }
+
+    /**
+     * Returns the span schema if spans are on, and otherwise the schema of the given version.
+     */
+    static Schema select(int schemaVersion, boolean spans, Schema v1, Schema v2, Schema spanSchema) {
+        if (!spans) {
+            return TypedSchemas.select(schemaVersion, v1, v2);
+        }
+        Preconditions.checkState(schemaVersion == TypedSchemas.SCHEMA_VERSION_DEFAULT,
+                "The parameter " + SPANS + " can only be used with " + TypedSchemas.SCHEMA_VERSION + " 1");
+        return spanSchema;
+    }
+
+    /**
+     * Returns the projection of a span layout, which must always keep the original.
+     */
+    static Projection projection(Context context, Schema spanSchema) {
+        Projection projection = Projection.fromContext(context, spanSchema);
+        Preconditions.checkState(projection.keepsOriginal(true),
+                "The parameter " + Projection.ORIGINAL + " must be always when " + SPANS + " is on");
+        return projection;
+    }
+
+    /**
+     * Converts byte offsets in the UTF-8 bytes of a line to char offsets in the decoded line, for
+     * parsers that scan the bytes. The offsets must be asked for in increasing order, so the bytes
+     * are walked once, counting the chars of the bytes since the previous offset.
+     */
+    static final class CharOffsets {
+
+        private final byte[] line;
+        private final String logline;
+        private final boolean ascii;
+        private final boolean wellFormed;
+        private int byteOffset;
+        private int charOffset;
+
+        CharOffsets(byte[] line, String logline) {
+            this.line = line;
+            this.logline = logline;
+            this.ascii = line.length == logline.length();
+            // invalid bytes are decoded to replacement chars, which can't be counted this way
+            this.wellFormed = ascii || chars(line, 0, line.length) == logline.length();
+        }
+
+        /**
+         * @param offset a byte offset, not before the previous one
+         */
+        int charOffset(int offset) {
+            if (ascii) {
+                return offset;
+            }
+            if (!wellFormed) {
+                return new String(line, 0, offset, Charsets.UTF_8).length();
+            }
+            charOffset += chars(line, byteOffset, offset);
+            byteOffset = offset;
+            return charOffset;
+        }
+
+        /**
+         * Returns the number of chars the UTF-8 bytes decode to: one per lead byte, and two for the
+         * lead byte of a four byte sequence, which is a surrogate pair.
+         */
+        private static int chars(byte[] line, int start, int end) {
+            int chars = 0;
+            for (int i = start; i < end; i++) {
+                int b = line[i] & 0xff;
+                if ((b & 0xc0) != 0x80) {
+                    chars += b >= 0xf0 && b <= 0xf4 ? 2 : 1;
+                }
+            }
+            return chars;
+        }
+    }
+
+    /**
+     * An event in the span layout, with its fields by position in the span schema. Spans that
+     * aren't set are written as offset 0 and length 0.
+     */
+    public static final class Record {
+
+        private final Map<String, String> headers;
+        private final String original;
+        private final int[] starts;
+        private final int[] ends;
+        private final long[] numbers;
+
+        Record(Schema schema, Map<String, String> headers, String original) {
+            int size = schema.getFields().size();
+            this.headers = headers;
+            this.original = original;
+            this.starts = new int[size];
+            this.ends = new int[size];
+            this.numbers = new long[size];
+        }
+
+        void span(int position, int start, int end) {
+            starts[position] = start;
+            ends[position] = end;
+        }
+
+        void number(int position, long value) {
+            numbers[position] = value;
+        }
+
+        /**
+         * Returns the text of a span, for the few fields that are needed as strings anyway.
+         */
+        String text(int position) {
+            return original.substring(starts[position], ends[position]);
+        }
+    }
+
+    /**
+     * Writes a {@link Record} in the order of its span schema, skipping the fields left out by
+     * the projection.
+     */
+    static final class RecordDatumWriter implements DatumWriter<Record> {
+
+        private final Projection projection;
+        private final Schema.Type[] types;
+
+        RecordDatumWriter(Schema schema, Projection projection) {
+            this.projection = projection;
+            List<Schema.Field> fields = schema.getFields();
+            types = new Schema.Type[fields.size()];
+            for (Schema.Field field : fields) {
+                types[field.pos()] = field.schema().getType();
+            }
+        }
+
+        @Override
+        public void setSchema(Schema schema) {
+        }
+
+        @Override
+        public void write(Record record, Encoder out) throws IOException {
+            for (int position : projection.getPositions()) {
+                if (position == 0) {
+                    projection.writeHeaders(record.headers, out);
+                } else if (position == 1) {
+                    projection.writeOriginal(record.original, out);
+                } else if (types[position] == Schema.Type.RECORD) {
+                    out.writeInt(record.starts[position]);
+                    out.writeInt(record.ends[position] - record.starts[position]);
+                } else if (types[position] == Schema.Type.INT) {
+                    out.writeInt((int) record.numbers[position]);
+                } else {
+                    out.writeLong(record.numbers[position]);
+                }
+            }
+            projection.writePromoted(record.headers, out);
+        }
+    }
+
+    /**
+     * Returns the value of a field of a record read back from a span layout file, with a span
+     * turned into the text it points to.
+     */
+    public static Object get(GenericRecord record, String field) {
+        return text(record.get(field), record.get(ORIGINAL).toString());
+    }
+
+    /**
+     * Returns all fields of a record read back from a span layout file, by name and in schema
+     * order, with the spans turned into text.
+     */
+    public static Map<String, Object> materialize(GenericRecord record) {
+        String original = record.get(ORIGINAL).toString();
+        Map<String, Object> fields = new LinkedHashMap<String, Object>();
+        for (Schema.Field field : record.getSchema().getFields()) {
+            fields.put(field.name(), text(record.get(field.pos()), original));
+        }
+        return fields;
+    }
+
+    private static Object text(Object value, String original) {
+        if (value instanceof GenericRecord && SPAN.getFullName().equals(((GenericRecord) value).getSchema().getFullName())) {
+            GenericRecord span = (GenericRecord) value;
+            int offset = (Integer) span.get("offset");
+            int length = (Integer) span.get("length");
+            return original.substring(offset, offset + length);
+        }
+        return value;
+    }
+}
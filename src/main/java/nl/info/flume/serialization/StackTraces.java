@@ -0,0 +1,144 @@
+package nl.info.flume.serialization;
+
+import nl.info.flume.serialization.JavaLogAvroEventSerializer.JavaEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the stack trace in the message of a Java log record, and sets the exception class and
+ * message, the class of the root cause, the top frames and a hash of those frames on the
+ * {@link JavaEvent}. Multi-line records are joined by the {@link nl.info.flume.source.MultiLineExecSource}
+ * with a line terminator, so the lines of the message are split on that terminator and on
+ * newlines.
+ * <br/>
+ * The exception is the line right before the first frame (<code>\tat ...</code>), if it starts
+ * with a class name. The root cause is the last <code>Caused by:</code> line, or the exception
+ * itself. The frames are those of the exception, without the <code>at</code>, and the hash is a
+ * 64 bit FNV-1a hash of them, so traces that went through the same code have the same hash.
+ * Messages without a tab are skipped right away.
+ *
+ * @author daan.debie
+ */
+final class StackTraces {
+
+    static final StackTraces DEFAULT = new StackTraces(JavaLogAvroEventSerializer.Constants.LINE_TERMINATOR_DEFAULT,
+            JavaLogAvroEventSerializer.Constants.MAX_FRAMES_DEFAULT);
+
+    private static final String FRAME = "\tat ";
+    private static final String CAUSED_BY = "Caused by: ";
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final String lineTerminator;
+    private final int maxFrames;
+
+    StackTraces(String lineTerminator, int maxFrames) {
+        this.lineTerminator = lineTerminator;
+        this.maxFrames = maxFrames;
+    }
+
+    /**
+     * Sets the exception fields of the event if the message has a stack trace.
+     * @return whether a stack trace was found
+     */
+    boolean extract(String message, JavaEvent jve) {
+        int firstFrame = message.indexOf(FRAME);
+        if (firstFrame < 0) {
+            return false;
+        }
+        List<String> lines = lines(message);
+
+        int exception = -1;
+        String rootCause = null;
+        List<String> frames = new ArrayList<String>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.startsWith(FRAME)) {
+                if (exception < 0 && i > 0 && className(lines.get(i - 1)) != null) {
+                    exception = i - 1;
+                }
+                if (exception > -1 && rootCause == null && frames.size() < maxFrames) {
+                    frames.add(line.substring(FRAME.length()).trim());
+                }
+            } else if (exception > -1 && line.startsWith(CAUSED_BY)) {
+                String cause = className(line.substring(CAUSED_BY.length()));
+                if (cause != null) {
+                    rootCause = cause;
+                }
+            }
+        }
+        if (exception < 0) {
+            return false;
+        }
+
+        String header = lines.get(exception).trim();
+        String exceptionClass = className(header);
+        jve.setExceptionClass(exceptionClass);
+        jve.setExceptionMessage(header.length() > exceptionClass.length() + 1
+                ? header.substring(exceptionClass.length() + 1).trim() : "");
+        jve.setRootCauseClass(rootCause != null ? rootCause : exceptionClass);
+        jve.setFrames(frames);
+        jve.setFrameHash(hash(frames));
+        return true;
+    }
+
+    private List<String> lines(String message) {
+        List<String> lines = new ArrayList<String>();
+        int start = 0;
+        int n = message.length();
+        while (start <= n) {
+            int newline = message.indexOf('\n', start);
+            int terminator = lineTerminator.isEmpty() ? -1 : message.indexOf(lineTerminator, start);
+            int end;
+            int next;
+            if (terminator > -1 && (newline < 0 || terminator < newline)) {
+                end = terminator;
+                next = terminator + lineTerminator.length();
+            } else if (newline > -1) {
+                end = newline > start && message.charAt(newline - 1) == '\r' ? newline - 1 : newline;
+                next = newline + 1;
+            } else {
+                end = n;
+                next = n + 1;
+            }
+            lines.add(message.substring(start, end));
+            start = next;
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the class name the line starts with, if it's followed by ':' or nothing else, or null.
+     */
+    static String className(String line) {
+        String trimmed = line.trim();
+        int end = 0;
+        boolean qualified = false;
+        while (end < trimmed.length()) {
+            char c = trimmed.charAt(end);
+            if (c == '.') {
+                qualified = true;
+            } else if (!Character.isJavaIdentifierPart(c)) {
+                break;
+            }
+            end++;
+        }
+        if (end == 0 || !qualified || !Character.isJavaIdentifierStart(trimmed.charAt(0))
+                || trimmed.charAt(end - 1) == '.' || (end < trimmed.length() && trimmed.charAt(end) != ':')) {
+            return null;
+        }
+        return trimmed.substring(0, end);
+    }
+
+    static long hash(List<String> frames) {
+        long hash = FNV_OFFSET;
+        for (String frame : frames) {
+            for (int i = 0; i < frame.length(); i++) {
+                hash = (hash ^ frame.charAt(i)) * FNV_PRIME;
+            }
+            hash = (hash ^ '\n') * FNV_PRIME;
+        }
+        return hash;
+    }
+}
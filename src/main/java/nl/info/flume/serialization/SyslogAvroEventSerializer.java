@@ -21,16 +21,16 @@ import java.util.regex.Pattern;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import nl.info.flume.interceptor.HeaderInterner;
 import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.Encoder;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import nl.info.flume.serialization.SyslogAvroEventSerializer.SyslogEvent;
 import static nl.info.flume.serialization.SyslogAvroEventSerializer.Constants.*;
-import org.apache.flume.serialization.AbstractAvroEventSerializer;
 import org.apache.flume.serialization.EventSerializer;
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
 
 /**
  * This class exists to give an idea of how to use the AvroEventWriter
@@ -45,7 +45,7 @@ import org.joda.time.format.DateTimeFormatter;
  */
 @Slf4j
 public class SyslogAvroEventSerializer
-        extends AbstractAvroEventSerializer<SyslogEvent> {
+        extends AbstractDatumEventSerializer<Object> {
 
     private final String path;
     private final String customerHeader;
@@ -53,11 +53,6 @@ public class SyslogAvroEventSerializer
     private static final String UNKNOWN_CUSTOMER = "UNKNOWN";
     private Map<String, String> hostToCustomerMap;
 
-    private static final DateTimeFormatter dateFmt1 =
-            DateTimeFormat.forPattern("MMM dd HH:mm:ss").withZoneUTC();
-    private static final DateTimeFormatter dateFmt2 =
-            DateTimeFormat.forPattern("MMM  d HH:mm:ss").withZoneUTC();
-
     private static final Schema SCHEMA = new Schema.Parser().parse("" +
             "{ \"type\": \"record\", \"name\": \"SyslogEvent\", \"namespace\": \"nl.info.flume\", \"fields\": [" +
             " {\"name\": \"headers\", \"type\": { \"type\": \"map\", \"values\": \"string\" } }, " +
@@ -68,13 +63,34 @@ public class SyslogAvroEventSerializer
             " { \"name\": \"message\",   \"type\": \"string\" }" +
             " ] }");
 
+    private static final Schema SPAN_SCHEMA = Spans.schema(SCHEMA, "datetime");
+
     private final OutputStream out;
+    private final int schemaVersion;
+    private final boolean spans;
 
     public SyslogAvroEventSerializer(OutputStream out, String path, String customerHeader, String hostHeader) throws IOException {
+        this(out, path, customerHeader, hostHeader, TypedSchemas.SCHEMA_VERSION_DEFAULT);
+    }
+
+    public SyslogAvroEventSerializer(OutputStream out, String path, String customerHeader, String hostHeader,
+                                     int schemaVersion) throws IOException {
+        this(out, path, customerHeader, hostHeader, schemaVersion, Spans.SPANS_DEFAULT);
+    }
+
+    /**
+     * @param schemaVersion 1 for the string based schema, 2 for {@link TypedSchemas#SYSLOG}
+     * @param spans whether to write the string fields as spans of the original, see {@link Spans}
+     */
+    public SyslogAvroEventSerializer(OutputStream out, String path, String customerHeader, String hostHeader,
+                                     int schemaVersion, boolean spans) throws IOException {
         this.out = out;
         this.path = path;
         this.customerHeader = customerHeader;
         this.hostHeader = hostHeader;
+        this.schemaVersion = schemaVersion;
+        this.spans = spans;
+        Spans.select(schemaVersion, spans, SCHEMA, TypedSchemas.SYSLOG, SPAN_SCHEMA);
     }
 
     @Override
@@ -97,48 +113,95 @@ public class SyslogAvroEventSerializer
 
     @Override
     protected Schema getSchema() {
-        return SCHEMA;
+        return Spans.select(schemaVersion, spans, SCHEMA, TypedSchemas.SYSLOG, SPAN_SCHEMA);
     }
 
-    // very simple rfc3164 parser
     @Override
-    protected SyslogEvent convert(Event event) {
-        SyslogEvent sle = new SyslogEvent();
-        boolean expectedFormat = false;
+    protected boolean convertsToGenericRecords() {
+        return schemaVersion == 2;
+    }
 
-        // Stringify body so it's easy to parse.
-        // This is a pretty inefficient way to do it.
-        String logline = new String(event.getBody(), Charsets.UTF_8);
+    @Override
+    protected Projection createProjection(Context context) {
+        if (spans) {
+            return Spans.projection(context, getSchema());
+        }
+        return Projection.fromContext(context, getSchema());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected DatumWriter<Object> createDatumWriter(Schema schema) {
+        if (spans) {
+            return (DatumWriter) new Spans.RecordDatumWriter(getSchema(), getProjection());
+        }
+        if (schemaVersion == 2) {
+            return new GenericDatumWriter<Object>(schema);
+        }
+        return (DatumWriter) new SyslogEventDatumWriter(getProjection());
+    }
+
+    @Override
+    protected Object convert(Event event) {
+        if (spans) {
+            return convertToSpans(event);
+        }
+        SyslogEvent sle = new SyslogEvent();
+        byte[] body = event.getBody();
         Map<String, String> headers = event.getHeaders();
-        sle.setOriginal(logline);
 
         // This could be an unknown format
-        if(logline.length() < 15) {
+        if (body.length < SyslogParser.MIN_LENGTH) {
             sle.setHeaders(headers);
-            return sle;
+            return project(sle, body, false);
+        }
+
+        boolean hostnameFound;
+        if (ParsedHeaders.isParsed(headers, ParsedHeaders.SYSLOG)) {
+            // already parsed by the LogParsingInterceptor
+            sle.fromHeaders(headers);
+            hostnameFound = headers.containsKey(ParsedHeaders.PREFIX + "hostname");
+            headers = ParsedHeaders.strip(headers);
+        } else {
+            hostnameFound = SyslogParser.parse(body, sle);
+        }
+
+        putHostAndCustomer(headers, hostnameFound ? sle.getHostname() : null);
+
+        sle.setHeaders(headers);
+        // log.debug("Serialized event as: {}", sle);
+
+        return project(sle, body, hostnameFound);
+    }
+
+    private Spans.Record convertToSpans(Event event) {
+        byte[] body = event.getBody();
+        String logline = new String(body, Charsets.UTF_8);
+        Map<String, String> headers = event.getHeaders();
+        if (ParsedHeaders.isParsed(headers, ParsedHeaders.SYSLOG)) {
+            // spans point into the original line, so it's parsed again
+            headers = ParsedHeaders.strip(headers);
         }
+        Spans.Record record = new Spans.Record(SPAN_SCHEMA, headers, logline);
 
-        // parser read pointer
-        int seek = 0;
-
-        // parse the timestamp
-        String timestampStr = logline.substring(seek, seek + 15);
-        long ts = parseRfc3164Date(timestampStr);
-        if (ts != 0) {
-            sle.setTimestamp(ts);
-            sle.setDatetime(new DateTime(ts).toString("yyyy-MM-dd HH:mm:ss"));
-            seek += 15 + 1; // space after timestamp
-            expectedFormat = true;
+        // This could be an unknown format
+        if (body.length < SyslogParser.MIN_LENGTH) {
+            return record;
         }
+        boolean hostnameFound = SyslogParser.parse(body, logline, record);
+        putHostAndCustomer(headers,
+                hostnameFound ? HeaderInterner.intern(record.text(SyslogParser.SPAN_HOSTNAME)) : null);
+        return record;
+    }
 
-        // parse the hostname
-        int nextSpace = logline.indexOf(' ', seek);
+    /**
+     * Puts the hostname found in the line, if any, and the customer of the host in the headers.
+     */
+    private void putHostAndCustomer(Map<String, String> headers, String hostnameFound) {
         String hostname;
-        if (nextSpace > -1 && expectedFormat) {
-            hostname = logline.substring(seek, nextSpace);
-            sle.setHostname(hostname);
+        if (hostnameFound != null) {
+            hostname = hostnameFound;
             headers.put(hostHeader, hostname);
-            seek = nextSpace + 1;
         } else {
             hostname = headers.get(hostHeader);
         }
@@ -151,70 +214,12 @@ public class SyslogAvroEventSerializer
                 headers.put(customerHeader, customer);
             }
         }
-
-
-        // everything else is the message
-        String actualMessage = logline.substring(seek);
-        sle.setMessage(actualMessage);
-
-        sle.setHeaders(headers);
-        // log.debug("Serialized event as: {}", sle);
-
-        return sle;
     }
 
-    /**
-     * Returns epoch time in millis, or 0 if the string cannot be parsed.
-     * We use two date formats because the date spec in rfc3164 is kind of weird.
-     * <br/>
-     * <b>Warning:</b> logic is used here to determine the year even though it's
-     * not part of the timestamp format, and we assume that the machine running
-     * Flume has a clock that is at least close to the same day as the machine
-     * that generated the event. We also assume that the event was generated
-     * recently.
-     */
-    private static long parseRfc3164Date(String in) {
-        DateTime date = null;
-        try {
-            date = dateFmt1.parseDateTime(in);
-        } catch (IllegalArgumentException e) {
-            // ignore the exception, we act based on nullity of date object
-            // log.debug("Date parse failed on ({}), trying single-digit date", in);
-        }
-
-        if (date == null) {
-            try {
-                date = dateFmt2.parseDateTime(in);
-            } catch (IllegalArgumentException e) {
-                // ignore the exception, we act based on nullity of date object
-                log.debug("2nd date parse failed on ({}), unknown date format", in);
-            }
-        }
-
-        // hacky stuff to try and deal with boundary cases, i.e. new year's eve.
-        // rfc3164 dates are really dumb.
-        // NB: cannot handle replaying of old logs or going back to the future
-        if (date != null) {
-            DateTime now = new DateTime();
-            int year = now.getYear();
-            DateTime corrected = date.withYear(year);
-
-            // flume clock is ahead or there is some latency, and the year rolled
-            if (corrected.isAfter(now) && corrected.minusMonths(1).isAfter(now)) {
-                corrected = date.withYear(year - 1);
-                // flume clock is behind and the year rolled
-            } else if (corrected.isBefore(now) && corrected.plusMonths(1).isBefore(now)) {
-                corrected = date.withYear(year + 1);
-            }
-            date = corrected;
-        }
-
-        if (date == null) {
-            log.warn("Parsing error in date: {}", in);
-            return 0;
-        }
-
-        return date.getMillis();
+    private Object project(SyslogEvent sle, byte[] body, boolean parsed) {
+        // the line is only decoded as a whole when it's written
+        sle.setOriginal(getProjection().keepsOriginal(parsed) ? new String(body, Charsets.UTF_8) : null);
+        return schemaVersion == 2 ? getProjection().project(TypedSchemas.syslog(sle), parsed) : sle;
     }
 
     public static Map<String, String> buildCustomerToHostMapFromFile(File file) throws FileNotFoundException, IOException {
@@ -239,7 +244,7 @@ public class SyslogAvroEventSerializer
                     if(host.contains(".")) {
                         host = host.substring(0, host.indexOf("."));
                     }
-                    hostToCustomerMap.put(host, customer);
+                    hostToCustomerMap.put(host, HeaderInterner.intern(customer));
                 }
             }
             line = bufferedReader.readLine();
@@ -262,7 +267,9 @@ public class SyslogAvroEventSerializer
             hostHeader = context.getString(HOST_HEADER, HOST_HEADER_DEFAULT);
             SyslogAvroEventSerializer writer = null;
             try {
-                writer = new SyslogAvroEventSerializer(out, path, customerHeader, hostHeader);
+                writer = new SyslogAvroEventSerializer(out, path, customerHeader, hostHeader,
+                        context.getInteger(TypedSchemas.SCHEMA_VERSION, TypedSchemas.SCHEMA_VERSION_DEFAULT),
+                        context.getBoolean(Spans.SPANS, Spans.SPANS_DEFAULT));
                 writer.configure(context);
             } catch (IOException e) {
                 log.error("Unable to parse schema file. Exception follows.", e);
@@ -272,6 +279,56 @@ public class SyslogAvroEventSerializer
 
     }
 
+    /**
+     * Writes a {@link SyslogEvent} field by field in the order of the v1 schema, without reflection.
+     * Fields left out by the projection are skipped.
+     */
+    static class SyslogEventDatumWriter implements DatumWriter<SyslogEvent> {
+
+        private final Projection projection;
+
+        SyslogEventDatumWriter() {
+            this(Projection.all(SCHEMA));
+        }
+
+        SyslogEventDatumWriter(Projection projection) {
+            this.projection = projection;
+        }
+
+        @Override
+        public void setSchema(Schema schema) {
+        }
+
+        @Override
+        public void write(SyslogEvent event, Encoder out) throws IOException {
+            for (int position : projection.getPositions()) {
+                switch (position) {
+                    case 0:
+                        projection.writeHeaders(event.getHeaders(), out);
+                        break;
+                    case 1:
+                        projection.writeOriginal(event.getOriginal(), out);
+                        break;
+                    case 2:
+                        out.writeLong(event.getTimestamp());
+                        break;
+                    case 3:
+                        Encoders.writeString(event.getDatetime(), out);
+                        break;
+                    case 4:
+                        Encoders.writeString(event.getHostname(), out);
+                        break;
+                    case 5:
+                        Encoders.writeString(event.getMessage(), out);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown field " + position);
+                }
+            }
+            projection.writePromoted(event.getHeaders(), out);
+        }
+    }
+
     // This class would ideally be generated from the avro schema file,
     // but we are letting reflection do the work instead.
     // There's no great reason not to let Avro generate it.
@@ -284,6 +341,49 @@ public class SyslogAvroEventSerializer
         private String datetime = "";
         private String hostname = "";
         private String message = "";
+        // only in the v2 schema, -1 and "" when not in the line
+        private int facility = -1;
+        private int severity = -1;
+        private String appname = "";
+        private String procid = "";
+        private String msgid = "";
+        private String structuredData = "";
+
+        /**
+         * Puts the parsed fields in the headers, see {@link ParsedHeaders}.
+         */
+        public void toHeaders(Map<String, String> headers) {
+            headers.put(ParsedHeaders.PREFIX + "timestamp", String.valueOf(timestamp));
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "datetime", datetime);
+            if (hostname != null && !hostname.isEmpty()) {
+                headers.put(ParsedHeaders.PREFIX + "hostname", hostname);
+            }
+            ParsedHeaders.putIfNotNull(headers, ParsedHeaders.PREFIX + "message", message);
+            if (facility > -1) {
+                headers.put(ParsedHeaders.PREFIX + "facility", String.valueOf(facility));
+                headers.put(ParsedHeaders.PREFIX + "severity", String.valueOf(severity));
+            }
+            ParsedHeaders.putIfNotEmpty(headers, ParsedHeaders.PREFIX + "appname", appname);
+            ParsedHeaders.putIfNotEmpty(headers, ParsedHeaders.PREFIX + "procid", procid);
+            ParsedHeaders.putIfNotEmpty(headers, ParsedHeaders.PREFIX + "msgid", msgid);
+            ParsedHeaders.putIfNotEmpty(headers, ParsedHeaders.PREFIX + "structuredData", structuredData);
+        }
+
+        /**
+         * Reads the parsed fields from the headers, see {@link ParsedHeaders}.
+         */
+        public void fromHeaders(Map<String, String> headers) {
+            timestamp = ParsedHeaders.getLong(headers, ParsedHeaders.PREFIX + "timestamp", timestamp);
+            datetime = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "datetime", datetime);
+            hostname = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "hostname", hostname);
+            message = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "message", message);
+            facility = (int) ParsedHeaders.getLong(headers, ParsedHeaders.PREFIX + "facility", facility);
+            severity = (int) ParsedHeaders.getLong(headers, ParsedHeaders.PREFIX + "severity", severity);
+            appname = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "appname", appname);
+            procid = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "procid", procid);
+            msgid = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "msgid", msgid);
+            structuredData = ParsedHeaders.get(headers, ParsedHeaders.PREFIX + "structuredData", structuredData);
+        }
 
         @Override
         public String toString() {
@@ -0,0 +1,296 @@
+package nl.info.flume.serialization;
+
+import com.google.common.base.Charsets;
+import nl.info.flume.interceptor.HeaderInterner;
+import nl.info.flume.serialization.SyslogAvroEventSerializer.SyslogEvent;
+
+/**
+ * Syslog parser for rfc3164 and rfc5424 lines, filling a {@link SyslogEvent}. Used by both the
+ * {@link SyslogAvroEventSerializer} and the {@link nl.info.flume.interceptor.LogParsingInterceptor}.
+ * <br/>
+ * The line is scanned once, as bytes, recording the bounds of the fields; only the fields that
+ * are found are decoded into strings. An optional <code>&lt;PRI&gt;</code> gives the facility
+ * and severity, and a PRI followed by version <code>1</code> marks an rfc5424 line, with its
+ * app-name, procid, msgid and structured data. Of an rfc3164 line the tag
+ * (<code>app[pid]:</code>) gives the app-name and procid, and the message is everything after
+ * the hostname, as it always was. The timestamps are parsed by {@link Timestamps}.
+ *
+ * @author daan.debie
+ */
+public final class SyslogParser {
+
+    /**
+     * Lines shorter than this can't contain a timestamp and are of an unknown format.
+     */
+    public static final int MIN_LENGTH = 15;
+
+    // the positions of the fields in the span layout
+    static final int SPAN_TIMESTAMP = 2;
+    static final int SPAN_HOSTNAME = 3;
+    static final int SPAN_MESSAGE = 4;
+
+    private static final byte SPACE = ' ';
+    private static final int MAX_PRI = 191;
+    private static final int MAX_TAG = 48;
+
+    private SyslogParser() {
+    }
+
+    /**
+     * The bounds of the fields of a line, as byte offsets, with -1 for a field that wasn't found.
+     */
+    private static final class Line {
+        int pri = -1;
+        long timestamp;
+        int hostnameStart = -1;
+        int hostnameEnd;
+        int appnameStart = -1;
+        int appnameEnd;
+        int procidStart = -1;
+        int procidEnd;
+        int msgidStart = -1;
+        int msgidEnd;
+        int structuredDataStart = -1;
+        int structuredDataEnd;
+        int messageStart;
+        int messageEnd;
+    }
+
+    /**
+     * Sets the timestamp, hostname and message on the given event. The line must be at least
+     * {@link #MIN_LENGTH} long.
+     * @return whether a hostname was found, which for rfc3164 only happens if the timestamp
+     * could be parsed
+     */
+    public static boolean parse(String logline, SyslogEvent sle) {
+        return parse(logline.getBytes(Charsets.UTF_8), sle);
+    }
+
+    /**
+     * Sets the parsed fields of the given UTF-8 line on the given event, see
+     * {@link #parse(String, SyslogEvent)}.
+     */
+    public static boolean parse(byte[] line, SyslogEvent sle) {
+        Line bounds = new Line();
+        boolean hostnameFound = scan(line, bounds);
+
+        if (bounds.pri > -1) {
+            sle.setFacility(bounds.pri >> 3);
+            sle.setSeverity(bounds.pri & 7);
+        }
+        if (bounds.timestamp != 0) {
+            sle.setTimestamp(bounds.timestamp);
+            sle.setDatetime(Timestamps.datetime(bounds.timestamp));
+        }
+        if (hostnameFound) {
+            sle.setHostname(HeaderInterner.intern(decode(line, bounds.hostnameStart, bounds.hostnameEnd)));
+        }
+        if (bounds.appnameStart > -1) {
+            sle.setAppname(HeaderInterner.intern(decode(line, bounds.appnameStart, bounds.appnameEnd)));
+        }
+        if (bounds.procidStart > -1) {
+            sle.setProcid(decode(line, bounds.procidStart, bounds.procidEnd));
+        }
+        if (bounds.msgidStart > -1) {
+            sle.setMsgid(decode(line, bounds.msgidStart, bounds.msgidEnd));
+        }
+        if (bounds.structuredDataStart > -1) {
+            sle.setStructuredData(decode(line, bounds.structuredDataStart, bounds.structuredDataEnd));
+        }
+        sle.setMessage(decode(line, bounds.messageStart, bounds.messageEnd));
+        return hostnameFound;
+    }
+
+    /**
+     * Sets the timestamp and the bounds of the hostname and message on the given record of the
+     * span layout. The line must be at least {@link #MIN_LENGTH} long.
+     * @param line the UTF-8 bytes of the line
+     * @param logline the same line decoded, which the spans point into
+     * @return whether a hostname was found, see {@link #parse(String, SyslogEvent)}
+     */
+    public static boolean parse(byte[] line, String logline, Spans.Record record) {
+        Line bounds = new Line();
+        boolean hostnameFound = scan(line, bounds);
+
+        if (bounds.timestamp != 0) {
+            record.number(SPAN_TIMESTAMP, bounds.timestamp);
+        }
+        Spans.CharOffsets offsets = new Spans.CharOffsets(line, logline);
+        if (hostnameFound) {
+            record.span(SPAN_HOSTNAME, offsets.charOffset(bounds.hostnameStart), offsets.charOffset(bounds.hostnameEnd));
+        }
+        record.span(SPAN_MESSAGE, offsets.charOffset(bounds.messageStart), logline.length());
+        return hostnameFound;
+    }
+
+    private static String decode(byte[] line, int start, int end) {
+        return new String(line, start, end - start, Charsets.UTF_8);
+    }
+
+    private static boolean scan(byte[] line, Line bounds) {
+        int seek = 0;
+        if (line.length > 2 && line[0] == '<') {
+            int pri = 0;
+            int i = 1;
+            while (i < line.length && i < 5 && isDigit(line[i])) {
+                pri = pri * 10 + line[i] - '0';
+                i++;
+            }
+            if (i > 1 && i < line.length && line[i] == '>' && pri <= MAX_PRI) {
+                bounds.pri = pri;
+                seek = i + 1;
+            }
+        }
+        if (bounds.pri > -1 && seek + 1 < line.length && line[seek] == '1' && line[seek + 1] == ' ') {
+            return scanRfc5424(line, seek + 2, bounds);
+        }
+        return scanRfc3164(line, seek, bounds);
+    }
+
+    private static boolean scanRfc3164(byte[] line, int seek, Line bounds) {
+        boolean hostnameFound = false;
+        long ts = Timestamps.parseRfc3164(line, seek);
+        if (ts != Timestamps.INVALID) {
+            bounds.timestamp = ts;
+            seek = Math.min(seek + MIN_LENGTH + 1, line.length); // space after timestamp
+            int nextSpace = Delimiters.indexOf(line, SPACE, seek);
+            if (nextSpace > -1) {
+                bounds.hostnameStart = seek;
+                bounds.hostnameEnd = nextSpace;
+                seek = nextSpace + 1;
+                hostnameFound = true;
+                scanTag(line, seek, bounds);
+            }
+        }
+
+        // everything else is the message
+        bounds.messageStart = seek;
+        bounds.messageEnd = line.length;
+        return hostnameFound;
+    }
+
+    /**
+     * Finds the app-name and procid in a tag like <code>dhcpd:</code> or <code>sshd[1234]:</code>.
+     */
+    private static void scanTag(byte[] line, int start, Line bounds) {
+        int end = Math.min(line.length, start + MAX_TAG);
+        int i = start;
+        while (i < end && line[i] != ':' && line[i] != '[' && line[i] != ' ') {
+            i++;
+        }
+        if (i == start || i == end) {
+            return;
+        }
+        if (line[i] == ':') {
+            bounds.appnameStart = start;
+            bounds.appnameEnd = i;
+        } else if (line[i] == '[') {
+            int pid = i + 1;
+            int close = pid;
+            while (close < end && line[close] != ']' && line[close] != ' ') {
+                close++;
+            }
+            if (close + 1 < line.length && line[close] == ']' && line[close + 1] == ':') {
+                bounds.appnameStart = start;
+                bounds.appnameEnd = i;
+                bounds.procidStart = pid;
+                bounds.procidEnd = close;
+            }
+        }
+    }
+
+    /**
+     * Scans <code>TIMESTAMP HOSTNAME APP-NAME PROCID MSGID STRUCTURED-DATA [MSG]</code>, where
+     * any of the header fields can be the nil value '-'.
+     */
+    private static boolean scanRfc5424(byte[] line, int seek, Line bounds) {
+        bounds.messageEnd = line.length;
+        boolean hostnameFound = false;
+        for (int i = 0; i < 5; i++) {
+            int end = Delimiters.indexOf(line, SPACE, seek);
+            if (end < 0) {
+                // not a complete header, the rest is the message
+                bounds.messageStart = seek;
+                return hostnameFound;
+            }
+            int start = seek;
+            seek = end + 1;
+            if (end - start == 1 && line[start] == '-') {
+                continue;
+            }
+            switch (i) {
+                case 0:
+                    long ts = Timestamps.parseRfc3339(line, start, end);
+                    if (ts != Timestamps.INVALID) {
+                        bounds.timestamp = ts;
+                    }
+                    break;
+                case 1:
+                    bounds.hostnameStart = start;
+                    bounds.hostnameEnd = end;
+                    hostnameFound = true;
+                    break;
+                case 2:
+                    bounds.appnameStart = start;
+                    bounds.appnameEnd = end;
+                    break;
+                case 3:
+                    bounds.procidStart = start;
+                    bounds.procidEnd = end;
+                    break;
+                default:
+                    bounds.msgidStart = start;
+                    bounds.msgidEnd = end;
+                    break;
+            }
+        }
+
+        // structured data, '-' or one or more [id param="value"] elements
+        if (seek < line.length && line[seek] == '[') {
+            bounds.structuredDataStart = seek;
+            while (seek < line.length && line[seek] == '[') {
+                seek = skipElement(line, seek);
+            }
+            bounds.structuredDataEnd = seek;
+        } else if (seek < line.length && line[seek] == '-') {
+            seek++;
+        }
+        if (seek < line.length && line[seek] == ' ') {
+            seek++;
+        }
+
+        // the message, without the byte order mark that marks it as UTF-8
+        if (seek + 2 < line.length && line[seek] == (byte) 0xEF && line[seek + 1] == (byte) 0xBB && line[seek + 2] == (byte) 0xBF) {
+            seek += 3;
+        }
+        bounds.messageStart = Math.min(seek, line.length);
+        return hostnameFound;
+    }
+
+    /**
+     * Returns the offset after the structured data element starting at the given '['. Param
+     * values are quoted and can contain escaped '"', ']' and '\'.
+     */
+    private static int skipElement(byte[] line, int start) {
+        boolean quoted = false;
+        int i = start + 1;
+        while (i < line.length) {
+            byte b = line[i];
+            if (quoted && b == '\\') {
+                i += 2;
+                continue;
+            }
+            if (b == '"') {
+                quoted = !quoted;
+            } else if (b == ']' && !quoted) {
+                return i + 1;
+            }
+            i++;
+        }
+        return line.length;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
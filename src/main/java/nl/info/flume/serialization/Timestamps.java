@@ -0,0 +1,513 @@
+package nl.info.flume.serialization;
+
+import com.google.common.base.Charsets;
+import lombok.extern.slf4j.Slf4j;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.util.Locale;
+
+/**
+ * Parses the timestamps of the Syslog, Apache and Java log lines, and formats the human readable
+ * <code>datetime</code> of the v1 schemas. Used by the parsers of all bundled serializers.
+ * <br/>
+ * The timestamps have fixed layouts, so they are parsed digit by digit instead of through a
+ * formatter, and a line that doesn't parse costs no exception. Log lines come in roughly in
+ * order, so every layout remembers the epoch of the minute of the last timestamp: the next
+ * timestamp in the same minute only needs its seconds parsed. The formatted
+ * <code>datetime</code> is remembered per second in the same way. Timestamps that don't fit the
+ * layout, like an offset with a colon, are left to a Joda formatter.
+ * <br/>
+ * rfc3164 timestamps have no year, which is guessed from the clock. The guess is made once per
+ * minute of timestamps, when the minute is first seen, so the clock is only read then, and at most
+ * once per timestamp.
+ *
+ * @author daan.debie
+ */
+@Slf4j
+public final class Timestamps {
+
+    /**
+     * What the parse methods return for a timestamp that doesn't parse.
+     */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    private static final long MILLIS_PER_DAY = 86400000L;
+    private static final int[] DAYS_IN_MONTH = {31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    private static final DateTimeFormatter DATETIME = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter JAVA_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+    private static final DateTimeFormatter APACHE_FORMAT =
+            DateTimeFormat.forPattern("dd/MMM/yyyy:HH:mm:ss Z").withLocale(Locale.ENGLISH);
+
+    // the layouts, with the offsets of the parts that change within a minute
+    // 2013-03-01T11:25:00.017+0100
+    private static final Layout JAVA = new Layout(28, 17, 23);
+    // 01/Mar/2013:11:23:26 +0100
+    private static final Layout APACHE = new Layout(26, 18, 20);
+    // Mar  1 11:23:26
+    private static final Layout RFC3164 = new Layout(15, 13, 15);
+
+    private static volatile Second lastSecond = new Second(Long.MIN_VALUE, null);
+
+    private Timestamps() {
+    }
+
+    /**
+     * Formats epoch millis as "yyyy-MM-dd HH:mm:ss" in the default time zone.
+     */
+    public static String datetime(long millis) {
+        long second = floorDiv(millis, 1000);
+        Second last = lastSecond;
+        if (last.second != second) {
+            last = new Second(second, DATETIME.print(millis));
+            lastSecond = last;
+        }
+        return last.text;
+    }
+
+    /**
+     * Parses a Java log timestamp like "2013-03-01T11:25:00.017+0100".
+     * @return epoch millis, or {@link #INVALID}
+     */
+    public static long parseJava(String text, int start, int end) {
+        if (end - start == JAVA.length) {
+            long millis = parseJavaLayout(text, start);
+            if (millis != INVALID) {
+                return millis;
+            }
+        }
+        String timestamp = text.substring(start, end);
+        try {
+            return JAVA_FORMAT.parseMillis(timestamp);
+        } catch (IllegalArgumentException e) {
+            log.warn("Date parse failed on ({}). Skipping...", timestamp);
+            return INVALID;
+        }
+    }
+
+    /**
+     * Parses a Java log timestamp between the given offsets of a UTF-8 line. The line is only
+     * decoded for a timestamp in another minute than the last one.
+     * @return epoch millis, or {@link #INVALID}
+     */
+    public static long parseJava(byte[] line, int start, int end) {
+        if (end - start == JAVA.length) {
+            int second = digits(line, start + 17, 2);
+            int millis = digits(line, start + 20, 3);
+            Minute minute = JAVA.find(line, start);
+            if (minute != null && second >= 0 && second <= 59 && millis >= 0 && line[start + 19] == '.') {
+                return minute.epoch + second * 1000L + millis;
+            }
+        }
+        String decoded = new String(line, start, end - start, Charsets.UTF_8);
+        return parseJava(decoded, 0, decoded.length());
+    }
+
+    private static long parseJavaLayout(String text, int start) {
+        int second = digits(text, start + 17, 2);
+        int millis = digits(text, start + 20, 3);
+        if (second < 0 || second > 59 || millis < 0 || text.charAt(start + 19) != '.') {
+            return INVALID;
+        }
+        Minute minute = JAVA.find(text, start);
+        if (minute == null) {
+            if (text.charAt(start + 4) != '-' || text.charAt(start + 7) != '-' || text.charAt(start + 10) != 'T'
+                    || text.charAt(start + 13) != ':' || text.charAt(start + 16) != ':') {
+                return INVALID;
+            }
+            long epoch = minute(digits(text, start, 4), digits(text, start + 5, 2), digits(text, start + 8, 2),
+                    digits(text, start + 11, 2), digits(text, start + 14, 2), offset(text, start + 23));
+            if (epoch == INVALID) {
+                return INVALID;
+            }
+            minute = JAVA.remember(text.substring(start, start + JAVA.length), epoch);
+        }
+        return minute.epoch + second * 1000L + millis;
+    }
+
+    /**
+     * Parses an Apache log time like "01/Mar/2013:11:23:26 +0100".
+     * @return epoch millis, or {@link #INVALID}
+     */
+    public static long parseApache(String text) {
+        if (text.length() == APACHE.length) {
+            long millis = parseApacheLayout(text);
+            if (millis != INVALID) {
+                return millis;
+            }
+        }
+        try {
+            return APACHE_FORMAT.parseMillis(text);
+        } catch (IllegalArgumentException e) {
+            return INVALID;
+        }
+    }
+
+    private static long parseApacheLayout(String text) {
+        int second = digits(text, 18, 2);
+        if (second < 0 || second > 59) {
+            return INVALID;
+        }
+        Minute minute = APACHE.find(text, 0);
+        if (minute == null) {
+            if (text.charAt(2) != '/' || text.charAt(6) != '/' || text.charAt(11) != ':'
+                    || text.charAt(14) != ':' || text.charAt(17) != ':' || text.charAt(20) != ' ') {
+                return INVALID;
+            }
+            long epoch = minute(digits(text, 7, 4), month(text.charAt(3), text.charAt(4), text.charAt(5)),
+                    digits(text, 0, 2), digits(text, 12, 2), digits(text, 15, 2), offset(text, 21));
+            if (epoch == INVALID) {
+                return INVALID;
+            }
+            minute = APACHE.remember(text, epoch);
+        }
+        return minute.epoch + second * 1000L;
+    }
+
+    /**
+     * Parses an rfc3164 timestamp like "Mar  1 11:23:26" or "Mar 12 11:23:26" at the given offset
+     * of a line. The year isn't part of the timestamp and is guessed from the clock.
+     * @return epoch millis in UTC, or {@link #INVALID}
+     */
+    public static long parseRfc3164(byte[] line, int start) {
+        if (start + RFC3164.length > line.length) {
+            return INVALID;
+        }
+        int second = digits(line, start + 13, 2);
+        if (second < 0 || second > 59) {
+            return INVALID;
+        }
+        Minute minute = RFC3164.find(line, start);
+        if (minute == null) {
+            long epoch = parseRfc3164Minute(line, start);
+            if (epoch == INVALID) {
+                return INVALID;
+            }
+            minute = RFC3164.remember(new String(line, start, RFC3164.length, Charsets.ISO_8859_1), epoch);
+        }
+        return minute.epoch + second * 1000L;
+    }
+
+    /**
+     * <b>Warning:</b> logic is used here to determine the year even though it's
+     * not part of the timestamp format, and we assume that the machine running
+     * Flume has a clock that is at least close to the same day as the machine
+     * that generated the event. We also assume that the event was generated
+     * recently.
+     */
+    private static long parseRfc3164Minute(byte[] line, int start) {
+        int month = month((char) line[start], (char) line[start + 1], (char) line[start + 2]);
+        int day = line[start + 4] == ' ' ? digits(line, start + 5, 1) : digits(line, start + 4, 2);
+        int hour = digits(line, start + 7, 2);
+        int minute = digits(line, start + 10, 2);
+        if (month < 1 || line[start + 3] != ' ' || line[start + 6] != ' '
+                || line[start + 9] != ':' || line[start + 12] != ':'
+                || day < 1 || day > DAYS_IN_MONTH[month - 1] || hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+            return INVALID;
+        }
+        int secondOfDay = hour * 3600 + minute * 60;
+
+        // hacky stuff to try and deal with boundary cases, i.e. new year's eve.
+        // rfc3164 dates are really dumb.
+        // NB: cannot handle replaying of old logs or going back to the future
+        long now = System.currentTimeMillis();
+        int year = year(now);
+        long corrected = millis(year, month, day, secondOfDay);
+
+        // flume clock is ahead or there is some latency, and the year rolled
+        if (corrected > now && millis(year, month - 1, day, secondOfDay) > now) {
+            corrected = millis(year - 1, month, day, secondOfDay);
+            // flume clock is behind and the year rolled
+        } else if (corrected < now && millis(year, month + 1, day, secondOfDay) < now) {
+            corrected = millis(year + 1, month, day, secondOfDay);
+        }
+        return corrected;
+    }
+
+    /**
+     * Parses an rfc3339 timestamp like "2003-10-11T22:14:15.003Z" or
+     * "2003-08-24T05:14:15.000003-07:00" between the given offsets of a line.
+     * @return epoch millis, or {@link #INVALID}
+     */
+    public static long parseRfc3339(byte[] line, int start, int end) {
+        if (end - start < 20 || line[start + 4] != '-' || line[start + 7] != '-' || line[start + 10] != 'T'
+                || line[start + 13] != ':' || line[start + 16] != ':') {
+            return INVALID;
+        }
+        int second = digits(line, start + 17, 2);
+        if (second < 0 || second > 60) {
+            return INVALID;
+        }
+
+        int i = start + 19;
+        int millis = 0;
+        if (line[i] == '.') {
+            i++;
+            int fraction = i;
+            while (i < end && isDigit(line[i])) {
+                if (i - fraction < 3) {
+                    millis = millis * 10 + line[i] - '0';
+                }
+                i++;
+            }
+            if (i == fraction) {
+                return INVALID;
+            }
+            for (int scale = i - fraction; scale < 3; scale++) {
+                millis *= 10;
+            }
+        }
+
+        int offsetMinutes;
+        if (i + 1 == end && line[i] == 'Z') {
+            offsetMinutes = 0;
+        } else if (i + 6 == end && (line[i] == '+' || line[i] == '-') && line[i + 3] == ':') {
+            int offsetHours = digits(line, i + 1, 2);
+            int offsetMins = digits(line, i + 4, 2);
+            if (offsetHours < 0 || offsetMins < 0) {
+                return INVALID;
+            }
+            offsetMinutes = (offsetHours * 60 + offsetMins) * (line[i] == '-' ? -1 : 1);
+        } else {
+            return INVALID;
+        }
+        long epoch = minute(digits(line, start, 4), digits(line, start + 5, 2), digits(line, start + 8, 2),
+                digits(line, start + 11, 2), digits(line, start + 14, 2), offsetMinutes);
+        if (epoch == INVALID) {
+            return INVALID;
+        }
+        // a leap second is the last second of the minute
+        return epoch + Math.min(second, 59) * 1000L + millis;
+    }
+
+    /**
+     * Returns the epoch millis of the start of a minute with the given offset from UTC in
+     * minutes, or {@link #INVALID} if any of the fields is out of range.
+     */
+    private static long minute(int year, int month, int day, int hour, int minute, int offsetMinutes) {
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > DAYS_IN_MONTH[month - 1]
+                || (month == 2 && day == 29 && !isLeapYear(year))
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || offsetMinutes == Integer.MIN_VALUE) {
+            return INVALID;
+        }
+        return millis(year, month, day, hour * 3600 + minute * 60) - offsetMinutes * 60000L;
+    }
+
+    /**
+     * Parses an offset like "+0100" into minutes, or returns {@link Integer#MIN_VALUE}.
+     */
+    private static int offset(String text, int start) {
+        char sign = text.charAt(start);
+        int hours = digits(text, start + 1, 2);
+        int minutes = digits(text, start + 3, 2);
+        if ((sign != '+' && sign != '-') || hours < 0 || minutes < 0) {
+            return Integer.MIN_VALUE;
+        }
+        return (hours * 60 + minutes) * (sign == '-' ? -1 : 1);
+    }
+
+    /**
+     * Returns the month 1-12 of a three letter English month name, or -1.
+     */
+    private static int month(char c1, char c2, char c3) {
+        switch (c1) {
+            case 'J':
+                if (c2 == 'a' && c3 == 'n') {
+                    return 1;
+                }
+                if (c2 == 'u' && c3 == 'n') {
+                    return 6;
+                }
+                return c2 == 'u' && c3 == 'l' ? 7 : -1;
+            case 'F':
+                return c2 == 'e' && c3 == 'b' ? 2 : -1;
+            case 'M':
+                if (c2 == 'a' && c3 == 'r') {
+                    return 3;
+                }
+                return c2 == 'a' && c3 == 'y' ? 5 : -1;
+            case 'A':
+                if (c2 == 'p' && c3 == 'r') {
+                    return 4;
+                }
+                return c2 == 'u' && c3 == 'g' ? 8 : -1;
+            case 'S':
+                return c2 == 'e' && c3 == 'p' ? 9 : -1;
+            case 'O':
+                return c2 == 'c' && c3 == 't' ? 10 : -1;
+            case 'N':
+                return c2 == 'o' && c3 == 'v' ? 11 : -1;
+            case 'D':
+                return c2 == 'e' && c3 == 'c' ? 12 : -1;
+            default:
+                return -1;
+        }
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Returns the number of the given digits, or -1 if they aren't all digits.
+     */
+    private static int digits(String text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+
+    private static int digits(byte[] line, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            if (!isDigit(line[i])) {
+                return -1;
+            }
+            value = value * 10 + line[i] - '0';
+        }
+        return value;
+    }
+
+    /**
+     * Returns the epoch millis in UTC of the given date and second of the day. Months outside
+     * 1-12 roll into the previous or next year, and the day is capped at the end of the month.
+     */
+    private static long millis(int year, int month, int day, int secondOfDay) {
+        if (month < 1) {
+            year--;
+            month += 12;
+        } else if (month > 12) {
+            year++;
+            month -= 12;
+        }
+        int lastDay = DAYS_IN_MONTH[month - 1];
+        if (month == 2 && !isLeapYear(year)) {
+            lastDay = 28;
+        }
+        return epochDay(year, month, Math.min(day, lastDay)) * MILLIS_PER_DAY + secondOfDay * 1000L;
+    }
+
+    private static int year(long millis) {
+        long day = floorDiv(millis, MILLIS_PER_DAY);
+        int year = (int) (1970 + day / 365);
+        while (epochDay(year, 1, 1) > day) {
+            year--;
+        }
+        return year;
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    /**
+     * Days since 1970-01-01 of a date in the proleptic Gregorian calendar.
+     */
+    private static long epochDay(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+    }
+
+    /**
+     * A fixed timestamp layout, with the minute of the last timestamp parsed in it. Another
+     * timestamp is in the same minute if its text is the same, apart from the seconds and the
+     * fraction.
+     */
+    private static final class Layout {
+
+        private final int length;
+        private final int changingFrom;
+        private final int changingTo;
+        private volatile Minute last;
+
+        /**
+         * @param length the length of a timestamp
+         * @param changingFrom the start of the seconds and the fraction
+         * @param changingTo the end of the seconds and the fraction
+         */
+        Layout(int length, int changingFrom, int changingTo) {
+            this.length = length;
+            this.changingFrom = changingFrom;
+            this.changingTo = changingTo;
+        }
+
+        /**
+         * Returns the minute of the timestamp at the given offset if it's the last one, or null.
+         */
+        Minute find(String text, int start) {
+            Minute minute = last;
+            if (minute == null) {
+                return null;
+            }
+            for (int i = 0; i < length; i++) {
+                if ((i < changingFrom || i >= changingTo) && minute.key.charAt(i) != text.charAt(start + i)) {
+                    return null;
+                }
+            }
+            return minute;
+        }
+
+        Minute find(byte[] line, int start) {
+            Minute minute = last;
+            if (minute == null) {
+                return null;
+            }
+            for (int i = 0; i < length; i++) {
+                if ((i < changingFrom || i >= changingTo) && minute.key.charAt(i) != (line[start + i] & 0xff)) {
+                    return null;
+                }
+            }
+            return minute;
+        }
+
+        Minute remember(String key, long epoch) {
+            Minute minute = new Minute(key, epoch);
+            last = minute;
+            return minute;
+        }
+    }
+
+    /**
+     * The epoch millis of the start of a minute, and the text of a timestamp in it.
+     */
+    private static final class Minute {
+
+        private final String key;
+        private final long epoch;
+
+        Minute(String key, long epoch) {
+            this.key = key;
+            this.epoch = epoch;
+        }
+    }
+
+    /**
+     * A second and its formatted <code>datetime</code>.
+     */
+    private static final class Second {
+
+        private final long second;
+        private final String text;
+
+        Second(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package nl.info.flume.serialization;
+
+import nl.info.flume.serialization.ApacheLogAvroEventSerializer.ApacheEvent;
+import nl.info.flume.serialization.JavaLogAvroEventSerializer.JavaEvent;
+import nl.info.flume.serialization.SyslogAvroEventSerializer.SyslogEvent;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The typed (v2) schemas of the bundled serializers, and the mapping from the v1 events to them.
+ * Where v1 stores everything as strings, v2 uses longs and ints for numbers, epoch millis for
+ * times, enums for small sets of values, and null for absent values instead of empty strings.
+ * The serializers write v2 when configured with <code>schemaVersion = 2</code>.
+ * <br/>
+ * Mapping from v1:
+ * <ul>
+ *     <li>empty strings (fields that weren't parsed) become null</li>
+ *     <li>'-', Apache's placeholder for "no value", becomes null, except in byte counts where it means 0</li>
+ *     <li>numbers that don't parse become null</li>
+ *     <li>the Apache <i>time</i> becomes epoch millis, the <i>datetime</i> strings are left out since
+ *     they are the same as the <i>timestamp</i>, and a <i>timestamp</i> of 0 becomes null</li>
+ *     <li>values that aren't one of the enum symbols become OTHER</li>
+ *     <li>the stack trace fields of Java records without a stack trace are null</li>
+ * </ul>
+ *
+ * @author daan.debie
+ */
+public final class TypedSchemas {
+
+    public static final String SCHEMA_VERSION = "schemaVersion";
+    public static final int SCHEMA_VERSION_DEFAULT = 1;
+
+    public static final Schema APACHE = new Schema.Parser().parse(
+            "{ \"type\":\"record\", \"name\": \"ApacheEvent\", \"namespace\": \"nl.info.flume.v2\", \"fields\": [" +
+                    " {\"name\": \"headers\", \"type\": { \"type\": \"map\", \"values\": \"string\" } }, " +
+                    " {\"name\": \"original\", \"type\": \"string\" }," +
+                    " {\"name\": \"ip\", \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " {\"name\": \"identd\", \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " {\"name\": \"user\", \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " {\"name\": \"time\", \"type\": [\"null\", \"long\"], \"default\": null }," +
+                    " {\"name\": \"method\", \"type\": [\"null\", {\"type\": \"enum\", \"name\": \"HttpMethod\", \"symbols\": " +
+                    "[\"GET\", \"HEAD\", \"POST\", \"PUT\", \"DELETE\", \"CONNECT\", \"OPTIONS\", \"TRACE\", \"PATCH\", \"OTHER\"]}], \"default\": null }," +
+                    " {\"name\": \"uri\", \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " {\"name\": \"protocol\", \"type\": [\"null\", {\"type\": \"enum\", \"name\": \"HttpProtocol\", \"symbols\": " +
+                    "[\"HTTP_0_9\", \"HTTP_1_0\", \"HTTP_1_1\", \"HTTP_2\", \"OTHER\"]}], \"default\": null }," +
+                    " {\"name\": \"statuscode\", \"type\": [\"null\", \"int\"], \"default\": null }," +
+                    " {\"name\": \"bytesSend\", \"type\": [\"null\", \"long\"], \"default\": null }," +
+                    " {\"name\": \"referer\", \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " {\"name\": \"useragent\", \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " {\"name\": \"servername\", \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " {\"name\": \"extraservername\", \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " {\"name\": \"timeSecond\", \"type\": [\"null\", \"long\"], \"default\": null }," +
+                    " {\"name\": \"timeMicro\", \"type\": [\"null\", \"long\"], \"default\": null }," +
+                    " {\"name\": \"connectionstatus\", \"type\": [\"null\", {\"type\": \"enum\", \"name\": \"ConnectionStatus\", \"symbols\": " +
+                    "[\"ABORTED\", \"KEEP_ALIVE\", \"CLOSED\"]}], \"default\": null }," +
+                    " {\"name\": \"connectiontype\", \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " {\"name\": \"sessioncookie\", \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " {\"name\": \"bytesIn\", \"type\": [\"null\", \"long\"], \"default\": null }," +
+                    " {\"name\": \"bytesOut\", \"type\": [\"null\", \"long\"], \"default\": null }" +
+                    "] }");
+
+    public static final Schema SYSLOG = new Schema.Parser().parse(
+            "{ \"type\": \"record\", \"name\": \"SyslogEvent\", \"namespace\": \"nl.info.flume.v2\", \"fields\": [" +
+                    " {\"name\": \"headers\", \"type\": { \"type\": \"map\", \"values\": \"string\" } }, " +
+                    " { \"name\": \"original\",  \"type\": \"string\" }," +
+                    " { \"name\": \"timestamp\", \"type\": [\"null\", \"long\"], \"default\": null }," +
+                    " { \"name\": \"hostname\",  \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " { \"name\": \"message\",   \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " { \"name\": \"facility\",  \"type\": [\"null\", \"int\"], \"default\": null }," +
+                    " { \"name\": \"severity\",  \"type\": [\"null\", \"int\"], \"default\": null }," +
+                    " { \"name\": \"appname\",   \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " { \"name\": \"procid\",    \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " { \"name\": \"msgid\",     \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " { \"name\": \"structuredData\", \"type\": [\"null\", \"string\"], \"default\": null }" +
+                    " ] }");
+
+    public static final Schema JAVA = new Schema.Parser().parse(
+            "{ \"type\": \"record\", \"name\": \"JavaEvent\", \"namespace\": \"nl.info.flume.v2\", \"fields\": [" +
+                    " {\"name\": \"headers\", \"type\": { \"type\": \"map\", \"values\": \"string\" } }, " +
+                    " { \"name\": \"original\",  \"type\": \"string\" }," +
+                    " { \"name\": \"timestamp\", \"type\": [\"null\", \"long\"], \"default\": null }," +
+                    " { \"name\": \"loglevel\",  \"type\": [\"null\", {\"type\": \"enum\", \"name\": \"LogLevel\", \"symbols\": " +
+                    "[\"FINEST\", \"FINER\", \"FINE\", \"CONFIG\", \"INFO\", \"WARNING\", \"SEVERE\", \"TRACE\", \"DEBUG\", \"WARN\", \"ERROR\", \"FATAL\", \"OTHER\"]}], \"default\": null }," +
+                    " { \"name\": \"appservername\",  \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " { \"name\": \"classname\",  \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " { \"name\": \"thread\",  \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " { \"name\": \"message\",   \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " { \"name\": \"exceptionClass\", \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " { \"name\": \"exceptionMessage\", \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " { \"name\": \"rootCauseClass\", \"type\": [\"null\", \"string\"], \"default\": null }," +
+                    " { \"name\": \"frames\", \"type\": [\"null\", {\"type\": \"array\", \"items\": \"string\"}], \"default\": null }," +
+                    " { \"name\": \"frameHash\", \"type\": [\"null\", \"long\"], \"default\": null }" +
+                    " ] }");
+
+    private static final String OTHER = "OTHER";
+
+    private static final Map<String, GenericData.EnumSymbol> METHODS = symbols(APACHE, "method");
+    private static final Map<String, GenericData.EnumSymbol> PROTOCOLS = symbols(APACHE, "protocol");
+    private static final Map<String, GenericData.EnumSymbol> CONNECTION_STATUSES = symbols(APACHE, "connectionstatus");
+    private static final Map<String, GenericData.EnumSymbol> LOG_LEVELS = symbols(JAVA, "loglevel");
+
+    static {
+        PROTOCOLS.put("HTTP/0.9", PROTOCOLS.get("HTTP_0_9"));
+        PROTOCOLS.put("HTTP/1.0", PROTOCOLS.get("HTTP_1_0"));
+        PROTOCOLS.put("HTTP/1.1", PROTOCOLS.get("HTTP_1_1"));
+        PROTOCOLS.put("HTTP/2", PROTOCOLS.get("HTTP_2"));
+        PROTOCOLS.put("HTTP/2.0", PROTOCOLS.get("HTTP_2"));
+        CONNECTION_STATUSES.put("X", CONNECTION_STATUSES.get("ABORTED"));
+        CONNECTION_STATUSES.put("+", CONNECTION_STATUSES.get("KEEP_ALIVE"));
+        CONNECTION_STATUSES.put("-", CONNECTION_STATUSES.get("CLOSED"));
+    }
+
+    private TypedSchemas() {
+    }
+
+    /**
+     * Returns the schema to use for the given version, which must be 1 or 2.
+     */
+    static Schema select(int schemaVersion, Schema v1, Schema v2) {
+        switch (schemaVersion) {
+            case 1:
+                return v1;
+            case 2:
+                return v2;
+            default:
+                throw new IllegalArgumentException("Unsupported " + SCHEMA_VERSION + ": " + schemaVersion);
+        }
+    }
+
+    public static GenericRecord apache(ApacheEvent event) {
+        GenericRecord record = new GenericData.Record(APACHE);
+        record.put(0, event.getHeaders());
+        record.put(1, event.getOriginal());
+        record.put(2, string(event.getIp()));
+        record.put(3, optional(event.getIdentd()));
+        record.put(4, optional(event.getUser()));
+        record.put(5, apacheTime(event.getTime()));
+        record.put(6, symbol(METHODS, event.getMethod()));
+        record.put(7, string(event.getUri()));
+        record.put(8, symbol(PROTOCOLS, event.getProtocol()));
+        record.put(9, event.getStatuscode() != 0 ? event.getStatuscode() : null);
+        record.put(10, bytes(event.getBytesSend()));
+        record.put(11, optional(event.getReferer()));
+        record.put(12, optional(event.getUseragent()));
+        record.put(13, string(event.getServername()));
+        record.put(14, string(event.getExtraservername()));
+        record.put(15, number(event.getTimeSecond()));
+        record.put(16, number(event.getTimeMicro()));
+        record.put(17, isEmpty(event.getConnectionstatus()) ? null : CONNECTION_STATUSES.get(event.getConnectionstatus()));
+        record.put(18, optional(event.getConnectiontype()));
+        record.put(19, optional(event.getSessioncookie()));
+        record.put(20, bytes(event.getBytesIn()));
+        record.put(21, bytes(event.getBytesOut()));
+        return record;
+    }
+
+    public static GenericRecord syslog(SyslogEvent event) {
+        GenericRecord record = new GenericData.Record(SYSLOG);
+        record.put(0, event.getHeaders());
+        record.put(1, event.getOriginal());
+        record.put(2, timestamp(event.getTimestamp()));
+        record.put(3, string(event.getHostname()));
+        record.put(4, string(event.getMessage()));
+        record.put(5, event.getFacility() < 0 ? null : event.getFacility());
+        record.put(6, event.getSeverity() < 0 ? null : event.getSeverity());
+        record.put(7, string(event.getAppname()));
+        record.put(8, string(event.getProcid()));
+        record.put(9, string(event.getMsgid()));
+        record.put(10, string(event.getStructuredData()));
+        return record;
+    }
+
+    public static GenericRecord java(JavaEvent event) {
+        GenericRecord record = new GenericData.Record(JAVA);
+        record.put(0, event.getHeaders());
+        record.put(1, event.getOriginal());
+        record.put(2, timestamp(event.getTimestamp()));
+        String loglevel = event.getLoglevel();
+        record.put(3, isEmpty(loglevel) ? null : symbol(LOG_LEVELS, loglevel.trim().toUpperCase(Locale.ENGLISH)));
+        record.put(4, string(event.getAppservername()));
+        record.put(5, string(event.getClassname()));
+        record.put(6, string(event.getThread()));
+        record.put(7, string(event.getMessage()));
+        if (!isEmpty(event.getExceptionClass())) {
+            record.put(8, event.getExceptionClass());
+            record.put(9, string(event.getExceptionMessage()));
+            record.put(10, string(event.getRootCauseClass()));
+            record.put(11, event.getFrames());
+            record.put(12, event.getFrameHash());
+        }
+        return record;
+    }
+
+    private static Map<String, GenericData.EnumSymbol> symbols(Schema schema, String field) {
+        Schema enumSchema = schema.getField(field).schema().getTypes().get(1);
+        Map<String, GenericData.EnumSymbol> symbols = new HashMap<String, GenericData.EnumSymbol>();
+        for (String symbol : enumSchema.getEnumSymbols()) {
+            symbols.put(symbol, new GenericData.EnumSymbol(enumSchema, symbol));
+        }
+        return symbols;
+    }
+
+    private static GenericData.EnumSymbol symbol(Map<String, GenericData.EnumSymbol> symbols, String value) {
+        if (isEmpty(value)) {
+            return null;
+        }
+        GenericData.EnumSymbol symbol = symbols.get(value);
+        return symbol != null ? symbol : symbols.get(OTHER);
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    private static String string(String value) {
+        return isEmpty(value) ? null : value;
+    }
+
+    private static String optional(String value) {
+        return isEmpty(value) || "-".equals(value) ? null : value;
+    }
+
+    private static Long number(String value) {
+        if (isEmpty(value) || "-".equals(value)) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Long bytes(String value) {
+        return "-".equals(value) ? Long.valueOf(0L) : number(value);
+    }
+
+    private static Long timestamp(long timestamp) {
+        return timestamp != 0 ? timestamp : null;
+    }
+
+    private static Long apacheTime(String time) {
+        if (isEmpty(time)) {
+            return null;
+        }
+        long millis = Timestamps.parseApache(time);
+        return millis != Timestamps.INVALID ? Long.valueOf(millis) : null;
+    }
+}
@@ -0,0 +1,146 @@
+package nl.info.flume.source;
+
+import com.google.common.base.Charsets;
+import lombok.extern.slf4j.Slf4j;
+import nl.info.flume.interceptor.LogLevels;
+import org.apache.flume.Event;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sheds low priority events when the channel can't keep up, so the events we need most during an
+ * incident (warnings and errors) still get through instead of whole batches being lost.
+ * <br/>
+ * Pressure is derived from how long committing a batch to the channel takes (smoothed over
+ * batches), and from the channel being full. Every configured latency threshold that is crossed
+ * raises the shedding level by one. At level <i>n</i>, only one in <code>sampleRates[n - 1]</code>
+ * events below the keep level is passed on, and gets the sample rate in a header so downstream
+ * counts can be corrected. The level of an event is read from a delimited field of the body, the
+ * way the {@link nl.info.flume.serialization.JavaLogParser} does; events without a known level are
+ * treated as low priority.
+ * <br/>
+ * Not thread-safe; meant to be used by the single thread that feeds the channel.
+ *
+ * @author daan.debie
+ */
+@Slf4j
+public class LoadShedder {
+
+    private static final double SMOOTHING = 0.3;
+
+    private final long[] latencyThresholds;
+    private final int[] sampleRates;
+    private final int keepRank;
+    private final byte delimiter;
+    private final int levelField;
+    private final String sampleRateHeader;
+
+    private final long[] sampled;
+    private double latency;
+    private int level;
+
+    /**
+     * @param latencyThresholds commit latencies in milliseconds, in increasing order, one per shedding level
+     * @param sampleRates       one in how many low priority events to keep, one per shedding level
+     * @param keepLevel         events at or above this level are never shed
+     * @param delimiter         the field delimiter in event bodies
+     * @param levelField        the index of the field holding the log level
+     * @param sampleRateHeader  the header in which the sample rate of kept low priority events is put
+     */
+    public LoadShedder(long[] latencyThresholds, int[] sampleRates, String keepLevel, char delimiter, int levelField,
+                       String sampleRateHeader) {
+        if (latencyThresholds.length != sampleRates.length) {
+            throw new IllegalArgumentException("Need as many sample rates as latency thresholds");
+        }
+        this.latencyThresholds = latencyThresholds;
+        this.sampleRates = sampleRates;
+        this.keepRank = LogLevels.rankOf(keepLevel);
+        if (keepRank == LogLevels.UNKNOWN) {
+            throw new IllegalArgumentException("Unknown log level: " + keepLevel);
+        }
+        this.delimiter = (byte) delimiter;
+        this.levelField = levelField;
+        this.sampleRateHeader = sampleRateHeader;
+        this.sampled = new long[sampleRates.length];
+    }
+
+    /**
+     * Records how long committing a batch to the channel took.
+     */
+    public void recordCommit(long millis) {
+        latency = latency + SMOOTHING * (millis - latency);
+        updateLevel();
+    }
+
+    /**
+     * Records that the channel was full, which raises the pressure to the highest level.
+     */
+    public void recordChannelFull() {
+        long highest = latencyThresholds.length > 0 ? latencyThresholds[latencyThresholds.length - 1] : 0;
+        latency = Math.max(latency, 2 * highest);
+        updateLevel();
+    }
+
+    private void updateLevel() {
+        int newLevel = 0;
+        while (newLevel < latencyThresholds.length && latency >= latencyThresholds[newLevel]) {
+            newLevel++;
+        }
+        if (newLevel != level) {
+            log.info("Shedding level changed from {} to {}, smoothed commit latency is {}ms",
+                    new Object[]{level, newLevel, (long) latency});
+            level = newLevel;
+        }
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns the events to pass on at the current shedding level. Returns the given list itself
+     * when nothing needs to be shed.
+     */
+    public List<Event> shed(List<Event> events) {
+        if (level == 0) {
+            return events;
+        }
+        int rate = sampleRates[level - 1];
+        String rateValue = String.valueOf(rate);
+        List<Event> kept = new ArrayList<Event>(events.size());
+        for (Event event : events) {
+            if (rankOf(event.getBody()) >= keepRank) {
+                kept.add(event);
+            } else if (sampled[level - 1]++ % rate == 0) {
+                event.getHeaders().put(sampleRateHeader, rateValue);
+                kept.add(event);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Returns the rank of the log level in the level field of the body, without decoding the whole body.
+     */
+    int rankOf(byte[] body) {
+        int start = 0;
+        for (int field = 0; field < levelField; field++) {
+            while (start < body.length && body[start] != delimiter) {
+                start++;
+            }
+            if (start == body.length) {
+                return LogLevels.UNKNOWN;
+            }
+            start++;
+        }
+        int end = start;
+        while (end < body.length && body[end] != delimiter) {
+            end++;
+        }
+        if (end - start > 16) {
+            return LogLevels.UNKNOWN;
+        }
+        return LogLevels.rankOf(new String(body, start, end - start, Charsets.US_ASCII));
+    }
+}
@@ -20,14 +20,15 @@
 package nl.info.flume.source;
 
 import com.google.common.base.Preconditions;
+import nl.info.flume.event.CompactEvent;
 import org.apache.commons.lang.StringUtils;
+import org.apache.flume.ChannelException;
 import org.apache.flume.Context;
 import org.apache.flume.CounterGroup;
 import org.apache.flume.Event;
 import org.apache.flume.EventDrivenSource;
 import org.apache.flume.channel.ChannelProcessor;
 import org.apache.flume.conf.Configurable;
-import org.apache.flume.event.EventBuilder;
 import org.apache.flume.source.AbstractSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -56,6 +57,20 @@ import static nl.info.flume.source.MultiLineExecSourceConfigurationConstants.DEF
 import static nl.info.flume.source.MultiLineExecSourceConfigurationConstants.DEFAULT_RESTART;
 import static nl.info.flume.source.MultiLineExecSourceConfigurationConstants.DEFAULT_RESTART_THROTTLE;
 import static nl.info.flume.source.MultiLineExecSourceConfigurationConstants.DEFAULT_LINE_TERMINATOR;
+import static nl.info.flume.source.MultiLineExecSourceConfigurationConstants.CONFIG_SHEDDING;
+import static nl.info.flume.source.MultiLineExecSourceConfigurationConstants.CONFIG_SHEDDING_DELIMITER;
+import static nl.info.flume.source.MultiLineExecSourceConfigurationConstants.CONFIG_SHEDDING_HEADER;
+import static nl.info.flume.source.MultiLineExecSourceConfigurationConstants.CONFIG_SHEDDING_KEEP_LEVEL;
+import static nl.info.flume.source.MultiLineExecSourceConfigurationConstants.CONFIG_SHEDDING_LEVEL_FIELD;
+import static nl.info.flume.source.MultiLineExecSourceConfigurationConstants.CONFIG_SHEDDING_SAMPLE_RATES;
+import static nl.info.flume.source.MultiLineExecSourceConfigurationConstants.CONFIG_SHEDDING_THRESHOLDS;
+import static nl.info.flume.source.MultiLineExecSourceConfigurationConstants.DEFAULT_SHEDDING;
+import static nl.info.flume.source.MultiLineExecSourceConfigurationConstants.DEFAULT_SHEDDING_DELIMITER;
+import static nl.info.flume.source.MultiLineExecSourceConfigurationConstants.DEFAULT_SHEDDING_HEADER;
+import static nl.info.flume.source.MultiLineExecSourceConfigurationConstants.DEFAULT_SHEDDING_KEEP_LEVEL;
+import static nl.info.flume.source.MultiLineExecSourceConfigurationConstants.DEFAULT_SHEDDING_LEVEL_FIELD;
+import static nl.info.flume.source.MultiLineExecSourceConfigurationConstants.DEFAULT_SHEDDING_SAMPLE_RATES;
+import static nl.info.flume.source.MultiLineExecSourceConfigurationConstants.DEFAULT_SHEDDING_THRESHOLDS;
 
 /**
  * <p>
@@ -79,6 +94,7 @@ public class MultiLineExecSource extends AbstractSource implements EventDrivenSo
 	private Integer bufferCount;
 	private ExecRunnable runner;
 	private Charset charset;
+	private LoadShedder loadShedder;
 
 	@Override
 	public void start() {
@@ -89,6 +105,7 @@ public class MultiLineExecSource extends AbstractSource implements EventDrivenSo
 
 		runner = new ExecRunnable(command, eventTerminator, lineTerminator, getChannelProcessor(), counterGroup,
 				  restart, restartThrottle, logStderr, bufferCount, charset);
+		runner.setLoadShedder(loadShedder);
 
 		// FIXME: Use a callback-like executor / future to signal us upon failure.
 		runnerFuture = executor.submit(runner);
@@ -148,10 +165,33 @@ public class MultiLineExecSource extends AbstractSource implements EventDrivenSo
 		logStderr = context.getBoolean(CONFIG_LOG_STDERR, DEFAULT_LOG_STDERR);
 		bufferCount = context.getInteger(CONFIG_BATCH_SIZE, DEFAULT_BATCH_SIZE);
 		charset = Charset.forName(context.getString(CHARSET, DEFAULT_CHARSET));
+
+		if (context.getBoolean(CONFIG_SHEDDING, DEFAULT_SHEDDING)) {
+			String[] thresholds = context.getString(CONFIG_SHEDDING_THRESHOLDS, DEFAULT_SHEDDING_THRESHOLDS).trim().split("\\s+");
+			String[] rates = context.getString(CONFIG_SHEDDING_SAMPLE_RATES, DEFAULT_SHEDDING_SAMPLE_RATES).trim().split("\\s+");
+			Preconditions.checkState(thresholds.length == rates.length,
+					"The parameters " + CONFIG_SHEDDING_THRESHOLDS + " and " + CONFIG_SHEDDING_SAMPLE_RATES + " must have the same number of values");
+			long[] latencyThresholds = new long[thresholds.length];
+			int[] sampleRates = new int[rates.length];
+			for (int i = 0; i < thresholds.length; i++) {
+				latencyThresholds[i] = Long.parseLong(thresholds[i]);
+				sampleRates[i] = Integer.parseInt(rates[i]);
+			}
+			String delimiter = context.getString(CONFIG_SHEDDING_DELIMITER, DEFAULT_SHEDDING_DELIMITER);
+			Preconditions.checkState(delimiter.length() == 1, "The parameter " + CONFIG_SHEDDING_DELIMITER + " must be a single character");
+			loadShedder = new LoadShedder(latencyThresholds, sampleRates,
+					context.getString(CONFIG_SHEDDING_KEEP_LEVEL, DEFAULT_SHEDDING_KEEP_LEVEL), delimiter.charAt(0),
+					context.getInteger(CONFIG_SHEDDING_LEVEL_FIELD, DEFAULT_SHEDDING_LEVEL_FIELD),
+					context.getString(CONFIG_SHEDDING_HEADER, DEFAULT_SHEDDING_HEADER));
+		} else {
+			loadShedder = null;
+		}
 	}
 
 	protected static class ExecRunnable implements Runnable {
 
+		private static final long MAX_BACKOFF = 5000L;
+
 		public ExecRunnable(String command, String eventTerminator, String lineTerminator, ChannelProcessor channelProcessor, CounterGroup counterGroup, boolean restart, long restartThrottle, boolean logStderr, int bufferCount, Charset charset) {
 			this.command = command;
             this.eventTerminator = eventTerminator;
@@ -176,6 +216,7 @@ public class MultiLineExecSource extends AbstractSource implements EventDrivenSo
 		private boolean logStderr;
 		private Charset charset;
 		private Process process = null;
+		private LoadShedder loadShedder;
 
 		@Override
 		public void run() {
@@ -208,23 +249,23 @@ public class MultiLineExecSource extends AbstractSource implements EventDrivenSo
 							counterGroup.incrementAndGet("multi.line.exec.events.read");
 							String eventBody = StringUtils.join(buffer.toArray(), lineTerminator);
 							buffer.clear();
-							eventList.add(EventBuilder.withBody(eventBody.getBytes(charset)));
+							eventList.add(CompactEvent.withBody(eventBody.getBytes(charset)));
 							skipNextEmptyLine = true;
 						}
 
 						if (eventList.size() >= bufferCount) {
-							channelProcessor.processEventBatch(eventList);
+							processEventBatch(eventList);
 							eventList.clear();
 						}
 					}
 					if (!eventList.isEmpty()) {
-						channelProcessor.processEventBatch(eventList);
+						processEventBatch(eventList);
 					}
+				} catch (InterruptedException e) {
+					logger.info("Interrupted while running command: {}", command);
+					Thread.currentThread().interrupt();
 				} catch (Exception e) {
 					logger.error("Failed while running command: " + command, e);
-					if (e instanceof InterruptedException) {
-						Thread.currentThread().interrupt();
-					}
 				} finally {
 					if (reader != null) {
 						try {
@@ -245,7 +286,48 @@ public class MultiLineExecSource extends AbstractSource implements EventDrivenSo
 				} else {
 					logger.info("Command [" + command + "] exited with " + exitCode);
 				}
-			} while (restart);
+			} while (restart && !Thread.currentThread().isInterrupted());
+		}
+
+		/**
+		 * Passes the batch to the channel processor. With a load shedder, low priority events are shed
+		 * first, the commit latency is recorded, and a full channel raises the shedding level and
+		 * retries with a backoff instead of failing the command. The retried batch is shed again from
+		 * the whole batch at the raised level.
+		 */
+		private void processEventBatch(List<Event> eventList) throws InterruptedException {
+			if (loadShedder == null) {
+				channelProcessor.processEventBatch(eventList);
+				return;
+			}
+
+			int level = loadShedder.getLevel();
+			List<Event> batch = loadShedder.shed(eventList);
+			long backoff = 100L;
+			while (true) {
+				long start = System.nanoTime();
+				try {
+					channelProcessor.processEventBatch(batch);
+					loadShedder.recordCommit(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+					break;
+				} catch (ChannelException e) {
+					loadShedder.recordChannelFull();
+					logger.warn("Channel full, retrying batch in {}ms: {}", backoff, e.getMessage());
+					Thread.sleep(backoff);
+					backoff = Math.min(backoff * 2, MAX_BACKOFF);
+					if (loadShedder.getLevel() != level) {
+						level = loadShedder.getLevel();
+						batch = loadShedder.shed(eventList);
+					}
+				}
+			}
+			if (batch.size() < eventList.size()) {
+				counterGroup.addAndGet("multi.line.exec.events.shed", (long) (eventList.size() - batch.size()));
+			}
+		}
+
+		public void setLoadShedder(LoadShedder loadShedder) {
+			this.loadShedder = loadShedder;
 		}
 
 		protected StderrReader getStderrReader() {
@@ -51,4 +51,42 @@ public class MultiLineExecSourceConfigurationConstants {
     public static final String DEFAULT_CHARSET = "UTF-8";
 
     public static final String DEFAULT_LINE_TERMINATOR = " § ";
+
+    /**
+     * Should low priority events be shed when committing to the channel gets slow: default false
+     */
+    public static final String CONFIG_SHEDDING = "shedding";
+    public static final boolean DEFAULT_SHEDDING = false;
+
+    /**
+     * Smoothed commit latencies in ms at which the shedding level goes up: default 250 1000 4000
+     */
+    public static final String CONFIG_SHEDDING_THRESHOLDS = "shedding.latencyThresholds";
+    public static final String DEFAULT_SHEDDING_THRESHOLDS = "250 1000 4000";
+
+    /**
+     * One in how many low priority events is kept at each shedding level: default 2 10 100
+     */
+    public static final String CONFIG_SHEDDING_SAMPLE_RATES = "shedding.sampleRates";
+    public static final String DEFAULT_SHEDDING_SAMPLE_RATES = "2 10 100";
+
+    /**
+     * Events at or above this log level are never shed: default WARNING
+     */
+    public static final String CONFIG_SHEDDING_KEEP_LEVEL = "shedding.keepLevel";
+    public static final String DEFAULT_SHEDDING_KEEP_LEVEL = "WARNING";
+
+    /**
+     * Field delimiter and index of the log level field in event bodies: default | and 2
+     */
+    public static final String CONFIG_SHEDDING_DELIMITER = "shedding.delimiter";
+    public static final String DEFAULT_SHEDDING_DELIMITER = "|";
+    public static final String CONFIG_SHEDDING_LEVEL_FIELD = "shedding.levelField";
+    public static final int DEFAULT_SHEDDING_LEVEL_FIELD = 2;
+
+    /**
+     * Header holding the sample rate of kept low priority events: default sampleRate
+     */
+    public static final String CONFIG_SHEDDING_HEADER = "shedding.header";
+    public static final String DEFAULT_SHEDDING_HEADER = "sampleRate";
 }
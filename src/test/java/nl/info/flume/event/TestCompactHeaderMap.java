@@ -0,0 +1,65 @@
+package nl.info.flume.event;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * ...
+ *
+ * @author daan.debie
+ */
+public class TestCompactHeaderMap {
+
+    @Test
+    public void testBehavesLikeHashMap() {
+        Random random = new Random(42);
+        Map<String, String> expected = new HashMap<String, String>();
+        Map<String, String> actual = new CompactHeaderMap();
+
+        for (int i = 0; i < 10000; i++) {
+            // keep the number of keys around the hash threshold, so both representations are used
+            String key = "key" + random.nextInt(CompactHeaderMap.HASH_THRESHOLD + 4);
+            int operation = random.nextInt(10);
+            if (operation < 6) {
+                Assert.assertEquals(expected.put(key, "value" + i), actual.put(key, "value" + i));
+            } else if (operation < 9) {
+                Assert.assertEquals(expected.remove(key), actual.remove(key));
+            } else {
+                expected.clear();
+                actual.clear();
+            }
+            Assert.assertEquals(expected.get(key), actual.get(key));
+            Assert.assertEquals(expected.containsKey(key), actual.containsKey(key));
+            Assert.assertEquals(expected, actual);
+            Assert.assertEquals(expected.hashCode(), actual.hashCode());
+        }
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        Map<String, String> headers = new CompactHeaderMap();
+        headers.put("host", "localhost");
+        headers.put("customer", "info");
+        headers.put("timestamp", "1");
+
+        Iterator<Map.Entry<String, String>> iterator = headers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> entry = iterator.next();
+            if (entry.getKey().equals("customer")) {
+                iterator.remove();
+            } else {
+                entry.setValue(entry.getValue() + "!");
+            }
+        }
+
+        Assert.assertEquals(2, headers.size());
+        Assert.assertEquals("localhost!", headers.get("host"));
+        Assert.assertEquals("1!", headers.get("timestamp"));
+        Assert.assertFalse(headers.containsKey("customer"));
+    }
+}
@@ -0,0 +1,100 @@
+package nl.info.flume.interceptor;
+
+import com.google.common.base.Charsets;
+import junit.framework.Assert;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.interceptor.Interceptor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ...
+ *
+ * @author daan.debie
+ */
+public class TestEnrichmentInterceptor {
+
+    private static Interceptor build(Context context) {
+        Interceptor.Builder builder = new EnrichmentInterceptor.Builder();
+        builder.configure(context);
+        Interceptor interceptor = builder.build();
+        interceptor.initialize();
+        return interceptor;
+    }
+
+    private static Event event(String host) {
+        Event event = EventBuilder.withBody("test", Charsets.UTF_8);
+        if (host != null) {
+            event.getHeaders().put("host", host);
+        }
+        return event;
+    }
+
+    @Test
+    public void testBatchIsEnrichedInOnePass() {
+        Context context = new Context();
+        context.put(EnrichmentInterceptor.Constants.STATICS_PATH, "src/test/resources/staticsFile.txt");
+        context.put(EnrichmentInterceptor.Constants.CUSTOMER_PATH, "src/test/resources/customerToHostsFile.txt");
+        context.put(EnrichmentInterceptor.Constants.SHORTEN_HOST, "true");
+        Interceptor interceptor = build(context);
+
+        List<Event> events = new ArrayList<Event>();
+        events.add(event("blah.test.nl"));
+        events.add(event(new String("blah.test.nl")));
+        events.add(event("TEST1.example.com"));
+        events.add(event("unknown.example.com"));
+        events.add(event(null));
+        events.get(0).getHeaders().put("environment", "test");
+        interceptor.intercept(events);
+
+        Map<String, String> first = events.get(0).getHeaders();
+        Assert.assertEquals("Existing static header should be preserved", "test", first.get("environment"));
+        Assert.assertEquals("Static header should be added", "dc-ams-1", first.get("datacenter"));
+        Assert.assertEquals("nietinfo", first.get("customer"));
+        Assert.assertEquals("Host should be shortened", "blah", first.get("host"));
+        Assert.assertNotNull("Timestamp should be added", first.get("timestamp"));
+
+        Map<String, String> second = events.get(1).getHeaders();
+        Assert.assertEquals("production", second.get("environment"));
+        Assert.assertSame("Lookup should be reused", first.get("customer"), second.get("customer"));
+        Assert.assertSame("Lookup should be reused", first.get("host"), second.get("host"));
+        Assert.assertSame("Timestamp is taken once per batch", first.get("timestamp"), second.get("timestamp"));
+
+        Assert.assertEquals("info", events.get(2).getHeaders().get("customer"));
+        Assert.assertEquals("TEST1", events.get(2).getHeaders().get("host"));
+        Assert.assertEquals("UNKNOWN", events.get(3).getHeaders().get("customer"));
+        Assert.assertEquals("UNKNOWN", events.get(4).getHeaders().get("customer"));
+        Assert.assertFalse(events.get(4).getHeaders().containsKey("host"));
+
+        Assert.assertEquals(5L, ((EnrichmentInterceptor) interceptor).getCounterGroup().get("enrichment.events").longValue());
+        interceptor.close();
+    }
+
+    @Test
+    public void testOnlyConfiguredStepsAreApplied() {
+        Context context = new Context();
+        context.put(EnrichmentInterceptor.Constants.TIMESTAMP, "false");
+        Interceptor interceptor = build(context);
+
+        Event event = interceptor.intercept(event("blah.test.nl"));
+        Assert.assertEquals("Host should be kept", "blah.test.nl", event.getHeaders().get("host"));
+        Assert.assertEquals("No headers should be added", 1, event.getHeaders().size());
+    }
+
+    @Test
+    public void testPreserveExistingTimestamp() {
+        Context context = new Context();
+        context.put(EnrichmentInterceptor.Constants.PRESERVE_TIMESTAMP, "true");
+        Interceptor interceptor = build(context);
+
+        Event event = event("blah.test.nl");
+        event.getHeaders().put("timestamp", "1");
+        interceptor.intercept(event);
+        Assert.assertEquals("1", event.getHeaders().get("timestamp"));
+    }
+}
@@ -0,0 +1,106 @@
+package nl.info.flume.interceptor;
+
+import com.google.common.base.Charsets;
+import junit.framework.Assert;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.interceptor.Interceptor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ...
+ *
+ * @author daan.debie
+ */
+public class TestFairShareInterceptor {
+
+    private static FairShareInterceptor build(String action) {
+        return build(action, new Context());
+    }
+
+    private static FairShareInterceptor build(String action, Context context) {
+        context.put(FairShareInterceptor.Constants.RATE, "1");
+        context.put(FairShareInterceptor.Constants.BURST, "5");
+        context.put(FairShareInterceptor.Constants.WEIGHTS + ".heavy", "2");
+        context.put(FairShareInterceptor.Constants.ACTION, action);
+        context.put(FairShareInterceptor.Constants.SAMPLE_RATE, "5");
+        Interceptor.Builder builder = new FairShareInterceptor.Builder();
+        builder.configure(context);
+        FairShareInterceptor interceptor = (FairShareInterceptor) builder.build();
+        interceptor.initialize();
+        return interceptor;
+    }
+
+    private static List<Event> events(String customer, int count) {
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < count; i++) {
+            Event event = EventBuilder.withBody("event " + i, Charsets.UTF_8);
+            event.getHeaders().put("customer", customer);
+            events.add(event);
+        }
+        return events;
+    }
+
+    @Test
+    public void testOverQuotaEventsAreDroppedPerCustomer() {
+        FairShareInterceptor interceptor = build("drop");
+        Assert.assertEquals(5, interceptor.intercept(events("noisy", 20)).size());
+        Assert.assertEquals("Other customers should not be affected", 5, interceptor.intercept(events("quiet", 5)).size());
+        Assert.assertEquals("Weight should scale the burst", 10, interceptor.intercept(events("heavy", 20)).size());
+
+        Assert.assertEquals(5L, interceptor.getCounterGroup().get("admission.noisy.admitted").longValue());
+        Assert.assertEquals(15L, interceptor.getCounterGroup().get("admission.noisy.shed").longValue());
+        Assert.assertEquals(0L, interceptor.getCounterGroup().get("admission.quiet.shed").longValue());
+    }
+
+    @Test
+    public void testOverQuotaEventsAreTagged() {
+        FairShareInterceptor interceptor = build("tag");
+        List<Event> admitted = interceptor.intercept(events("noisy", 20));
+        Assert.assertEquals(20, admitted.size());
+        Assert.assertNull(admitted.get(4).getHeaders().get("overQuota"));
+        Assert.assertEquals("true", admitted.get(5).getHeaders().get("overQuota"));
+        Assert.assertEquals(15L, interceptor.getCounterGroup().get("admission.noisy.overQuota").longValue());
+    }
+
+    @Test
+    public void testOverQuotaEventsAreSampled() {
+        FairShareInterceptor interceptor = build("sample");
+        List<Event> admitted = interceptor.intercept(events("noisy", 20));
+        Assert.assertEquals("Burst plus one in five of the rest", 8, admitted.size());
+        Assert.assertEquals("5", admitted.get(7).getHeaders().get("overQuota"));
+        Assert.assertEquals(12L, interceptor.getCounterGroup().get("admission.noisy.shed").longValue());
+    }
+
+    @Test
+    public void testEventsWithoutCustomerShareABucket() {
+        FairShareInterceptor interceptor = build("drop");
+        Assert.assertEquals(5, interceptor.intercept(events(null, 10)).size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testZeroWeightIsRejected() {
+        Context context = new Context();
+        context.put(FairShareInterceptor.Constants.WEIGHTS + ".muted", "0");
+        build("drop", context);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNegativeDefaultWeightIsRejected() {
+        Context context = new Context();
+        context.put(FairShareInterceptor.Constants.DEFAULT_WEIGHT, "-1");
+        build("drop", context);
+    }
+
+    @Test
+    public void testTinyWeightStaysWithinBurst() {
+        Context context = new Context();
+        context.put(FairShareInterceptor.Constants.WEIGHTS + ".tiny", "1e-15");
+        FairShareInterceptor interceptor = build("drop", context);
+        Assert.assertEquals(1, interceptor.intercept(events("tiny", 10)).size());
+    }
+}
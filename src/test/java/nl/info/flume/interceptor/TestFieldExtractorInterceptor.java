@@ -0,0 +1,70 @@
+package nl.info.flume.interceptor;
+
+import com.google.common.base.Charsets;
+import junit.framework.Assert;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.interceptor.Interceptor;
+import org.junit.Test;
+
+/**
+ * ...
+ *
+ * @author daan.debie
+ */
+public class TestFieldExtractorInterceptor {
+
+    @Test
+    public void testPatternMatches() {
+        FieldPattern pattern = FieldPattern.compile("%{IP:ip} %{NOTSPACE} [%{DATA:time}] \"%{WORD:method} %{NOTSPACE:uri}\" %{INT:status} %{NUMBER:duration}%{GREEDYDATA}");
+        String[] values = pattern.match("10.0.0.1 - [01/Mar/2013:11:23:26 +0100] \"GET /index.html\" 200 0.25 and more");
+        Assert.assertNotNull("Line should match", values);
+        Assert.assertEquals("10.0.0.1", values[0]);
+        Assert.assertEquals("01/Mar/2013:11:23:26 +0100", values[1]);
+        Assert.assertEquals("GET", values[2]);
+        Assert.assertEquals("/index.html", values[3]);
+        Assert.assertEquals("200", values[4]);
+        Assert.assertEquals("0.25", values[5]);
+    }
+
+    @Test
+    public void testPatternMisses() {
+        FieldPattern pattern = FieldPattern.compile("%{WORD:level}: %{INT:code}");
+        Assert.assertNull("Type should be checked", pattern.match("ERROR: abc"));
+        Assert.assertNull("Literal should be checked", pattern.match("ERROR - 12"));
+        Assert.assertNull("Whole line should match", pattern.match("ERROR: 12 trailing"));
+        Assert.assertNotNull("Line should match", pattern.match("ERROR: -12"));
+    }
+
+    @Test
+    public void testGreedyDataUpToLastLiteral() {
+        FieldPattern pattern = FieldPattern.compile("%{GREEDYDATA:path}/%{NOTSPACE:file}");
+        String[] values = pattern.match("/var/log/messages");
+        Assert.assertEquals("/var/log", values[0]);
+        Assert.assertEquals("messages", values[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDataMustBeFollowedByLiteral() {
+        FieldPattern.compile("%{DATA:a}%{INT:b}");
+    }
+
+    @Test
+    public void testInterceptPutsFieldsInHeaders() {
+        Context context = new Context();
+        context.put("pattern", "%{WORD:level} %{GREEDYDATA:message}");
+        context.put("headerPrefix", "app.");
+        FieldExtractorInterceptor.Builder builder = new FieldExtractorInterceptor.Builder();
+        builder.configure(context);
+        FieldExtractorInterceptor interceptor = (FieldExtractorInterceptor) builder.build();
+
+        Event event = interceptor.intercept(EventBuilder.withBody("WARN disk almost full", Charsets.UTF_8));
+        interceptor.intercept(EventBuilder.withBody("", Charsets.UTF_8));
+
+        Assert.assertEquals("WARN", event.getHeaders().get("app.level"));
+        Assert.assertEquals("disk almost full", event.getHeaders().get("app.message"));
+        Assert.assertEquals(1L, (long) interceptor.getCounterGroup().get("field.extractor.matched"));
+        Assert.assertEquals(1L, (long) interceptor.getCounterGroup().get("field.extractor.missed"));
+    }
+}
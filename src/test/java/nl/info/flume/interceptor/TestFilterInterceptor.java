@@ -0,0 +1,73 @@
+package nl.info.flume.interceptor;
+
+import com.google.common.base.Charsets;
+import junit.framework.Assert;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ...
+ *
+ * @author daan.debie
+ */
+public class TestFilterInterceptor {
+
+    private static Event event(String body, String... headers) {
+        Event event = EventBuilder.withBody(body, Charsets.UTF_8);
+        for (int i = 0; i + 1 < headers.length; i += 2) {
+            event.getHeaders().put(headers[i], headers[i + 1]);
+        }
+        return event;
+    }
+
+    @Test
+    public void testBytePatternMatcher() {
+        BytePatternMatcher matcher = new BytePatternMatcher(Arrays.asList("he", "she", "hers", "§ at"));
+        Assert.assertEquals(1, matcher.find("ushers".getBytes(Charsets.UTF_8)));
+        Assert.assertEquals(3, matcher.find("Exception § at Foo".getBytes(Charsets.UTF_8)));
+        Assert.assertEquals(-1, matcher.find("nothing to see".getBytes(Charsets.UTF_8)));
+        Assert.assertEquals(0, matcher.findPrefix("hello".getBytes(Charsets.UTF_8)));
+        Assert.assertEquals(-1, matcher.findPrefix("ushers".getBytes(Charsets.UTF_8)));
+    }
+
+    @Test
+    public void testRulesDropEvents() {
+        Context context = new Context();
+        context.put("rules", "debug noisy health");
+        context.put("rules.debug.type", "level");
+        context.put("rules.debug.header", "log.loglevel");
+        context.put("rules.debug.below", "INFO");
+        context.put("rules.noisy.type", "headerIn");
+        context.put("rules.noisy.header", "customer");
+        context.put("rules.noisy.values", "nietinfo syslogthingy");
+        context.put("rules.health.type", "bodyContains");
+        context.put("rules.health.values", "GET /health|GET /ping");
+        context.put("rules.health.separator", "|");
+        FilterInterceptor.Builder builder = new FilterInterceptor.Builder();
+        builder.configure(context);
+        FilterInterceptor interceptor = (FilterInterceptor) builder.build();
+
+        List<Event> events = new ArrayList<Event>();
+        events.add(event("kept", "log.loglevel", "WARNING", "customer", "info"));
+        events.add(event("debug", "log.loglevel", "FINE", "customer", "info"));
+        events.add(event("noisy", "customer", "nietinfo"));
+        events.add(event("1.2.3.4 - - \"GET /health HTTP/1.1\" 200"));
+        events.add(event("unknown level is kept", "log.loglevel", "LOUD"));
+
+        List<Event> kept = interceptor.intercept(events);
+        Assert.assertEquals(2, kept.size());
+        Assert.assertEquals("kept", new String(kept.get(0).getBody(), Charsets.UTF_8));
+
+        Assert.assertEquals(1L, (long) interceptor.getCounterGroup().get("filter.debug.dropped"));
+        Assert.assertEquals(1L, (long) interceptor.getCounterGroup().get("filter.noisy.dropped"));
+        Assert.assertEquals(1L, (long) interceptor.getCounterGroup().get("filter.health.dropped"));
+        Assert.assertEquals(2L, (long) interceptor.getCounterGroup().get("filter.kept"));
+        Assert.assertEquals("noisy is checked first, so 4 events pass it", 4L, (long) interceptor.getCounterGroup().get("filter.noisy.kept"));
+    }
+}
@@ -1,6 +1,10 @@
 package nl.info.flume.interceptor;
 
+import com.google.common.base.Charsets;
 import junit.framework.Assert;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
 import org.apache.flume.interceptor.Interceptor;
 import org.junit.Test;
 
@@ -23,4 +27,25 @@ public class TestHostToCustomerInterceptor {
         Assert.assertEquals("'localhost' should belong to customer 'info'", "info", testMap.get("localhost"));
         Assert.assertEquals("'blah' should belong to customer 'nietinfo'", "nietinfo", testMap.get("blah"));
     }
+
+    @Test
+    public void testHeadersAreInterned() {
+        Context context = new Context();
+        context.put(HostToCustomerInterceptor.Constants.PATH, "src/test/resources/customerToHostsFile.txt");
+        Interceptor.Builder builder = new HostToCustomerInterceptor.Builder();
+        builder.configure(context);
+        Interceptor interceptor = builder.build();
+        interceptor.initialize();
+
+        Event first = EventBuilder.withBody("first", Charsets.UTF_8);
+        first.getHeaders().put("host", new String("blah.test.nl"));
+        Event second = EventBuilder.withBody("second", Charsets.UTF_8);
+        second.getHeaders().put("host", new String("blah.test.nl"));
+        interceptor.intercept(first);
+        interceptor.intercept(second);
+
+        Assert.assertEquals("nietinfo", second.getHeaders().get("customer"));
+        Assert.assertSame("Hosts should be the same instance", first.getHeaders().get("host"), second.getHeaders().get("host"));
+        Assert.assertSame("Customers should be the same instance", first.getHeaders().get("customer"), second.getHeaders().get("customer"));
+    }
 }
@@ -0,0 +1,112 @@
+package nl.info.flume.interceptor;
+
+import com.google.common.base.Charsets;
+import junit.framework.Assert;
+import nl.info.flume.serialization.ApacheLogAvroEventSerializer;
+import nl.info.flume.serialization.JavaLogAvroEventSerializer;
+import nl.info.flume.serialization.Projection;
+import nl.info.flume.serialization.SerializerFixture;
+import nl.info.flume.serialization.SyslogAvroEventSerializer;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.Schema;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.interceptor.Interceptor;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static nl.info.flume.serialization.SerializerFixture.APACHE_LINE;
+import static nl.info.flume.serialization.SerializerFixture.JAVA_LINE;
+import static nl.info.flume.serialization.SerializerFixture.SYSLOG_LINE;
+
+/**
+ * ...
+ *
+ * @author daan.debie
+ */
+public class TestLogParsingInterceptor {
+
+    private static Interceptor buildInterceptor(String format) {
+        Context context = new Context();
+        context.put("format", format);
+        Interceptor.Builder builder = new LogParsingInterceptor.Builder();
+        builder.configure(context);
+        Interceptor interceptor = builder.build();
+        interceptor.initialize();
+        return interceptor;
+    }
+
+    private static GenericRecord serialize(String builderName, Event event) throws IOException {
+        return serialize(builderName, new Context(), event);
+    }
+
+    private static GenericRecord serialize(String builderName, Context ctx, Event event) throws IOException {
+        return SerializerFixture.read(SerializerFixture.serialize(builderName, ctx, event)).get(0);
+    }
+
+    private static void assertSameRecord(GenericRecord expected, GenericRecord actual) {
+        for (Schema.Field field : expected.getSchema().getFields()) {
+            Assert.assertEquals("Field " + field.name() + " should be the same",
+                    String.valueOf(expected.get(field.name())), String.valueOf(actual.get(field.name())));
+        }
+    }
+
+    private static void assertParseOnceGivesSameRecord(String format, String builderName, String line) throws IOException {
+        Event parsed = EventBuilder.withBody(line, Charsets.UTF_8);
+        buildInterceptor(format).intercept(parsed);
+        Assert.assertEquals("Event should be marked as parsed", format, parsed.getHeaders().get("log.format"));
+
+        Event raw = EventBuilder.withBody(line, Charsets.UTF_8);
+
+        assertSameRecord(serialize(builderName, raw), serialize(builderName, parsed));
+    }
+
+    @Test
+    public void testApacheFieldsInHeaders() {
+        Event event = EventBuilder.withBody(APACHE_LINE, Charsets.UTF_8);
+        buildInterceptor("apache").intercept(event);
+        Map<String, String> headers = event.getHeaders();
+        Assert.assertEquals("80.79.194.3", headers.get("log.ip"));
+        Assert.assertEquals("200", headers.get("log.statuscode"));
+        Assert.assertEquals("/graphs/tabledata.pl", headers.get("log.uri"));
+    }
+
+    @Test
+    public void testSyslogHostInHeaders() {
+        Event event = EventBuilder.withBody(SYSLOG_LINE, Charsets.UTF_8);
+        buildInterceptor("syslog").intercept(event);
+        Assert.assertEquals("fac01", event.getHeaders().get("host"));
+        Assert.assertEquals("fac01", event.getHeaders().get("log.hostname"));
+    }
+
+    @Test
+    public void testSerializersUsePreParsedFields() throws IOException {
+        assertParseOnceGivesSameRecord("apache", ApacheLogAvroEventSerializer.Builder.class.getName(), APACHE_LINE);
+        assertParseOnceGivesSameRecord("syslog", SyslogAvroEventSerializer.Builder.class.getName(), SYSLOG_LINE);
+        assertParseOnceGivesSameRecord("java", JavaLogAvroEventSerializer.Builder.class.getName(), JAVA_LINE);
+    }
+
+    @Test
+    public void testOriginalKeptWhenParsingFailedUpstream() throws IOException {
+        Context ctx = new Context();
+        ctx.put(Projection.ORIGINAL, "onFailure");
+        String[][] formats = {
+                {"apache", ApacheLogAvroEventSerializer.Builder.class.getName(), APACHE_LINE},
+                {"java", JavaLogAvroEventSerializer.Builder.class.getName(), JAVA_LINE}};
+        for (String[] format : formats) {
+            Event failed = EventBuilder.withBody("not a log line at all", Charsets.UTF_8);
+            buildInterceptor(format[0]).intercept(failed);
+            Assert.assertEquals("true", failed.getHeaders().get("log.failed"));
+            Assert.assertEquals("not a log line at all",
+                    String.valueOf(serialize(format[1], new Context(ctx.getParameters()), failed).get("original")));
+
+            Event parsed = EventBuilder.withBody(format[2], Charsets.UTF_8);
+            buildInterceptor(format[0]).intercept(parsed);
+            Assert.assertNull(parsed.getHeaders().get("log.failed"));
+            Assert.assertNull(serialize(format[1], new Context(ctx.getParameters()), parsed).get("original"));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package nl.info.flume.interceptor;
+
+import com.google.common.base.Charsets;
+import junit.framework.Assert;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.interceptor.Interceptor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * ...
+ *
+ * @author daan.debie
+ */
+public class TestParallelInterceptor {
+
+    private static final String[] HOSTS = {"logmft02p", "localhost", "fac01", "nohost"};
+    private static final String[] CUSTOMERS = {"nietinfo", "info", "syslogthingy", "UNKNOWN"};
+
+    /**
+     * Passes events on unchanged, and records the threads it was called on.
+     */
+    public static class ThreadRecordingInterceptor implements Interceptor {
+
+        private static final Set<Thread> THREADS = Collections.synchronizedSet(new HashSet<Thread>());
+
+        @Override
+        public void initialize() {
+        }
+
+        @Override
+        public Event intercept(Event event) {
+            THREADS.add(Thread.currentThread());
+            return event;
+        }
+
+        @Override
+        public List<Event> intercept(List<Event> events) {
+            THREADS.add(Thread.currentThread());
+            return events;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        public static class Builder implements Interceptor.Builder {
+
+            @Override
+            public void configure(Context context) {
+            }
+
+            @Override
+            public Interceptor build() {
+                return new ThreadRecordingInterceptor();
+            }
+        }
+    }
+
+    private Interceptor buildInterceptor() {
+        return buildInterceptor(HostToCustomerInterceptor.Builder.class);
+    }
+
+    private Interceptor buildInterceptor(Class<? extends Interceptor.Builder> delegate) {
+        Context context = new Context();
+        context.put("delegate.type", delegate.getName());
+        context.put("delegate.path", "src/test/resources/customerToHostsFile.txt");
+        context.put("threshold", "100");
+        context.put("chunkSize", "30");
+        context.put("threads", "3");
+        Interceptor.Builder builder = new ParallelInterceptor.Builder();
+        builder.configure(context);
+        Interceptor interceptor = builder.build();
+        interceptor.initialize();
+        return interceptor;
+    }
+
+    private static List<Event> generateEvents(int count) {
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < count; i++) {
+            Event event = EventBuilder.withBody(String.valueOf(i), Charsets.UTF_8);
+            event.getHeaders().put("host", HOSTS[i % HOSTS.length]);
+            events.add(event);
+        }
+        return events;
+    }
+
+    private static void assertInterceptedInOrder(List<Event> events, int count) {
+        Assert.assertEquals("No events should be lost", count, events.size());
+        for (int i = 0; i < count; i++) {
+            Event event = events.get(i);
+            Assert.assertEquals("Events should be in original order", String.valueOf(i), new String(event.getBody(), Charsets.UTF_8));
+            Assert.assertEquals("Customer should be resolved", CUSTOMERS[i % CUSTOMERS.length], event.getHeaders().get("customer"));
+        }
+    }
+
+    @Test
+    public void testLargeBatchIsInterceptedInOrder() {
+        Interceptor interceptor = buildInterceptor();
+        assertInterceptedInOrder(interceptor.intercept(generateEvents(1001)), 1001);
+        interceptor.close();
+    }
+
+    @Test
+    public void testSmallBatchIsInterceptedOnCallingThread() {
+        Interceptor interceptor = buildInterceptor();
+        assertInterceptedInOrder(interceptor.intercept(generateEvents(99)), 99);
+        interceptor.close();
+
+        ThreadRecordingInterceptor.THREADS.clear();
+        interceptor = buildInterceptor(ThreadRecordingInterceptor.Builder.class);
+        interceptor.intercept(generateEvents(99));
+        Assert.assertEquals(Collections.singleton(Thread.currentThread()), ThreadRecordingInterceptor.THREADS);
+
+        // a batch over the threshold is spread over the workers as well
+        interceptor.intercept(generateEvents(100));
+        Assert.assertTrue(ThreadRecordingInterceptor.THREADS.size() > 1);
+        interceptor.close();
+    }
+}
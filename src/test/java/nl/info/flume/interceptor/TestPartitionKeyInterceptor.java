@@ -0,0 +1,75 @@
+package nl.info.flume.interceptor;
+
+import com.google.common.base.Charsets;
+import junit.framework.Assert;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.interceptor.Interceptor;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ...
+ *
+ * @author daan.debie
+ */
+public class TestPartitionKeyInterceptor {
+
+    private static PartitionKeyInterceptor build(String partitions) {
+        Context context = new Context();
+        context.put(PartitionKeyInterceptor.Constants.PARTITIONS, partitions);
+        Interceptor.Builder builder = new PartitionKeyInterceptor.Builder();
+        builder.configure(context);
+        PartitionKeyInterceptor interceptor = (PartitionKeyInterceptor) builder.build();
+        interceptor.initialize();
+        return interceptor;
+    }
+
+    @Test
+    public void testSameCustomerGetsSamePartition() {
+        PartitionKeyInterceptor interceptor = build("c1 c2 c3");
+        Event first = EventBuilder.withBody("first", Charsets.UTF_8);
+        first.getHeaders().put("customer", "nietinfo");
+        Event second = EventBuilder.withBody("second", Charsets.UTF_8);
+        second.getHeaders().put("customer", "nietinfo");
+        interceptor.intercept(first);
+        interceptor.intercept(second);
+
+        Assert.assertNotNull(first.getHeaders().get("partition"));
+        Assert.assertEquals(first.getHeaders().get("partition"), second.getHeaders().get("partition"));
+        Assert.assertEquals("A fresh interceptor should agree", first.getHeaders().get("partition"),
+                build("c1 c2 c3").partitionFor("nietinfo"));
+    }
+
+    @Test
+    public void testAddingPartitionOnlyMovesKeysToIt() {
+        PartitionKeyInterceptor before = build("c1 c2 c3");
+        PartitionKeyInterceptor after = build("c1 c2 c3 c4");
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        int moved = 0;
+        int keys = 10000;
+        for (int i = 0; i < keys; i++) {
+            String key = "customer" + i;
+            String oldPartition = before.partitionFor(key);
+            String newPartition = after.partitionFor(key);
+            if (!oldPartition.equals(newPartition)) {
+                Assert.assertEquals("Keys may only move to the new partition", "c4", newPartition);
+                moved++;
+            }
+            Integer count = counts.get(oldPartition);
+            counts.put(oldPartition, count == null ? 1 : count + 1);
+        }
+        Assert.assertTrue("About a quarter of the keys should move, but " + moved + " did", moved > keys / 8 && moved < keys / 2);
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            Assert.assertTrue("Partitions should be roughly balanced: " + counts, count.getValue() > keys / 6);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPartitionsAreRequired() {
+        new PartitionKeyInterceptor.Builder().configure(new Context());
+    }
+}
@@ -0,0 +1,50 @@
+package nl.info.flume.interceptor;
+
+import com.google.common.base.Charsets;
+import junit.framework.Assert;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.interceptor.Interceptor;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * ...
+ *
+ * @author daan.debie
+ */
+public class TestStaticFileInterceptor {
+
+    @Test
+    public void testStaticsFromFileAreResolved() throws IOException {
+        File file = new File("src/test/resources/staticsFile.txt");
+        Map<String, String> statics = StaticFileInterceptor.buildStaticsFromFile(file);
+        Assert.assertEquals("Plain values should be kept", "production", statics.get("environment"));
+        Assert.assertEquals("File placeholder should resolve to first line", "dc-ams-1", statics.get("datacenter"));
+        Assert.assertEquals("Sysprop placeholder should resolve", System.getProperty("java.version"), statics.get("javaVersion"));
+        Assert.assertEquals("Only the first '=' separates key and value", "http://example.com/?a=b", statics.get("url"));
+        Assert.assertEquals("Unresolvable placeholders should be kept", "${nonsense}-${env:FLUME_PLUGINS_SURELY_UNSET}", statics.get("unresolved"));
+        Assert.assertEquals("Comments, empty and malformed lines should be skipped", 5, statics.size());
+    }
+
+    @Test
+    public void testInterceptPreservesExisting() {
+        Context context = new Context();
+        context.put(StaticFileInterceptor.Constants.PATH, "src/test/resources/staticsFile.txt");
+        Interceptor.Builder builder = new StaticFileInterceptor.Builder();
+        builder.configure(context);
+        Interceptor interceptor = builder.build();
+        interceptor.initialize();
+
+        Event event = EventBuilder.withBody("test", Charsets.UTF_8);
+        event.getHeaders().put("environment", "test");
+        interceptor.intercept(event);
+
+        Assert.assertEquals("Existing header should be preserved", "test", event.getHeaders().get("environment"));
+        Assert.assertEquals("Static header should be added", "dc-ams-1", event.getHeaders().get("datacenter"));
+    }
+}
@@ -0,0 +1,94 @@
+package nl.info.flume.serialization;
+
+import com.google.common.base.Charsets;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.serialization.EventSerializer;
+import org.apache.flume.serialization.EventSerializerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The sample lines of the serializer tests, and the round trip they all make: build a serializer,
+ * write events to it, flush and close it, and read the records back from the Avro data file. It's
+ * public for the tests of the interceptors that feed these serializers.
+ *
+ * @author daan.debie
+ */
+public final class SerializerFixture {
+
+    public static final String APACHE_LINE = "80.79.194.3 - - [01/Mar/2013:11:23:26 +0100] \"GET /graphs/tabledata.pl HTTP/1.1\" 200 3132 \"https://noc.info.nl/graphs/alert.pl\" \"Mozilla/5.0 (Macintosh; U; Intel Mac OS X 10_6_3; en-us) AppleWebKit/533.16 (KHTML, like Gecko) Version/5.0 Safari/533.16\" noc.info.nl \"noc.info.nl\" 1 1135203 + \"text/html\" \"-\" 754 3785";
+    public static final String SYSLOG_LINE = "Mar  1 11:23:26 fac01 dhcpd: DHCPREQUEST for 10.10.222.195 from 00:1c:c4:59:d7:06 via eth1";
+    public static final String JAVA_LINE = "[#|2013-03-01T11:25:00.017+0100|INFO|sun-appserver2.1|nl.info.bva.model.service.impl.schedule.AbstractContextAwareQuartzJobBean|_ThreadID=23;_ThreadName=taskExecutor-5;|Job 'SendLotOpeningAndClosingNotificationsJob' started|#]";
+    public static final String GARBAGE = "this is not a log line at all";
+
+    // the customers of the hosts, which the SyslogAvroEventSerializer needs
+    private static final String CUSTOMER_TO_HOSTS_FILE = "src/test/resources/customerToHostsFile.txt";
+
+    private SerializerFixture() {
+    }
+
+    /**
+     * Returns an event with the line as its body, and the headers, given as names and values.
+     */
+    public static Event event(String line, String... headers) {
+        Event event = EventBuilder.withBody(line, Charsets.UTF_8);
+        for (int i = 0; i < headers.length; i += 2) {
+            event.getHeaders().put(headers[i], headers[i + 1]);
+        }
+        return event;
+    }
+
+    /**
+     * Returns an event for every line, with the same headers.
+     */
+    public static Event[] events(String[] lines, String... headers) {
+        Event[] events = new Event[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            events[i] = event(lines[i], headers);
+        }
+        return events;
+    }
+
+    /**
+     * Writes the events with the serializer of the builder, and returns the bytes of the file.
+     */
+    public static byte[] serialize(String builderName, Context ctx, Event... events) throws IOException {
+        ctx.put(SyslogAvroEventSerializer.Constants.PATH, CUSTOMER_TO_HOSTS_FILE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventSerializer serializer = EventSerializerFactory.getInstance(builderName, ctx, out);
+        serializer.afterCreate();
+        for (Event event : events) {
+            serializer.write(event);
+        }
+        serializer.flush();
+        serializer.beforeClose();
+        return out.toByteArray();
+    }
+
+    public static byte[] serialize(Class<?> builder, Context ctx, Event... events) throws IOException {
+        return serialize(builder.getName(), ctx, events);
+    }
+
+    /**
+     * Reads all records of an Avro data file.
+     */
+    public static List<GenericRecord> read(byte[] avro) throws IOException {
+        DataFileStream<GenericRecord> reader = new DataFileStream<GenericRecord>(
+                new ByteArrayInputStream(avro), new GenericDatumReader<GenericRecord>());
+        List<GenericRecord> records = new ArrayList<GenericRecord>();
+        while (reader.hasNext()) {
+            records.add(reader.next());
+        }
+        reader.close();
+        return records;
+    }
+}
@@ -0,0 +1,107 @@
+package nl.info.flume.serialization;
+
+import nl.info.flume.serialization.ApacheLogAvroEventSerializer.ApacheEvent;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that the single pass scanner gives exactly the same results as the regular expression.
+ *
+ * @author daan.debie
+ */
+public class TestApacheLogParser {
+
+    private static final String LINE = "80.79.194.3 - - [01/Mar/2013:11:23:26 +0100] \"GET /graphs/tabledata.pl HTTP/1.1\" 200 3132 \"https://noc.info.nl/graphs/alert.pl\" \"Mozilla/5.0 (Macintosh; U; Intel Mac OS X 10_6_3; en-us) AppleWebKit/533.16 (KHTML, like Gecko) Version/5.0 Safari/533.16\" noc.info.nl \"noc.info.nl\" 1 1135203 + \"text/html\" \"-\" 754 3785";
+
+    private static final List<String> LINES = Arrays.asList(
+            LINE,
+            "80.79.194.3 - - [01/Mar/2013:11:23:56 +0100] \"GET /graphs/rotator.pl HTTP/1.1\" 200 - \"https://noc.info.nl/graphs/alert.pl\" \"Mozilla/5.0\" noc.info.nl \"noc.info.nl\" 0 55535 + \"text/html\" \"-\" 754 390",
+            "10.0.0.1 ident daan [01/Mar/2013:11:23:56\t-0100] \"POST /a\"b HTTP/1\"0\" 404 - \"-\" \"curl\" x \"\"y\"\" - - X \"a b\" \"c d\" - -",
+            "10.0.0.1 - - [01/Mar/2013:11:23:56 +0100] \"  \" 200 1 \"r\" \"u\" s \"e\" 1 1 | \"t\" \"c\" 1 1",
+            "10.0.0.1 - - [01/Mar/2013:11:23:56 +0100] \"GET / HTTP/1.1\" 200 1 \"r\" \"u\"  \"e\" 1 1 + \"t\" \"c\" 1 1",
+            "10.0.0.1 - - [01/Mar/2013:11:23:56 +0100] \"GET / HTTP/1.1\" 200 1 \"r\" \"u\" s \"e\"  1 + \"t\" \"c\" 1 1",
+            "10.0.0.1 - - [01/Mar/2013:11:23:56 +0100] \"GET / HTTP/1.1\" 200 1 \"r\" \"u\" s \"e\" 1 1 + \"t\" \"c\" 1 ",
+            "10.0.0.1 - - [01/Mar/2013:11:23:56 +0100] \"GET / HTTP/1.1\" 200 1 \"r\" \"u\" s \"e\" 1 1 + \"t \"c\" 1 1",
+            "10.0.0.1 - - [01/Mar/2013:11:23:56 +0100] \"GET / HTTP/1.1\" 2000 1 \"r\" \"u\" s \"e\" 1 1 + \"t\" \"c\" 1 1",
+            "not an apache log line",
+            "");
+
+    private static boolean assertSameResult(String line) {
+        ApacheEvent scanned = new ApacheEvent();
+        ApacheEvent matched = new ApacheEvent();
+        boolean scanResult = ApacheLogParser.scan(line, scanned);
+        boolean matchResult = ApacheLogParser.match(line, matched);
+        if (scanResult) {
+            Assert.assertTrue("The regex should match what the scanner accepts: " + line, matchResult);
+        }
+
+        ApacheEvent parsed = new ApacheEvent();
+        Assert.assertEquals(line, matchResult, ApacheLogParser.parse(line, parsed));
+        Assert.assertEquals(line, fields(matched), fields(parsed));
+        if (scanResult) {
+            Assert.assertEquals(line, fields(matched), fields(scanned));
+        }
+        return scanResult;
+    }
+
+    private static List<Object> fields(ApacheEvent event) {
+        return Arrays.<Object>asList(event.getIp(), event.getIdentd(), event.getUser(), event.getTime(),
+                event.getMethod(), event.getUri(), event.getProtocol(), event.getStatuscode(), event.getBytesSend(),
+                event.getReferer(), event.getUseragent(), event.getServername(), event.getExtraservername(),
+                event.getTimeSecond(), event.getTimeMicro(), event.getConnectionstatus(), event.getConnectiontype(),
+                event.getSessioncookie(), event.getBytesIn(), event.getBytesOut());
+    }
+
+    @Test
+    public void testScannerHandlesWellFormedLines() {
+        ApacheEvent event = new ApacheEvent();
+        Assert.assertTrue(ApacheLogParser.scan(LINE, event));
+        Assert.assertEquals(200, event.getStatuscode());
+        Assert.assertEquals("01/Mar/2013:11:23:26 +0100", event.getTime());
+        Assert.assertEquals("HTTP/1.1", event.getProtocol());
+        Assert.assertEquals("noc.info.nl", event.getExtraservername());
+        Assert.assertEquals("3785", event.getBytesOut());
+    }
+
+    @Test
+    public void testScannerAgreesWithRegex() {
+        for (String line : LINES) {
+            assertSameResult(line);
+        }
+        Assert.assertTrue("Quotes and tabs in fields should not stop the scanner", ApacheLogParser.scan(LINES.get(2), new ApacheEvent()));
+    }
+
+    @Test
+    public void testScannerAgreesWithRegexOnMutatedLines() {
+        Random random = new Random(42);
+        String alphabet = " \"[]-+|X0123456789abc/:.\t";
+        List<String> lines = new ArrayList<String>(LINES);
+        int scanned = 0;
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder line = new StringBuilder(lines.get(random.nextInt(2)));
+            int mutations = 1 + random.nextInt(3);
+            for (int m = 0; m < mutations; m++) {
+                int index = random.nextInt(line.length());
+                switch (random.nextInt(3)) {
+                    case 0:
+                        line.deleteCharAt(index);
+                        break;
+                    case 1:
+                        line.insert(index, alphabet.charAt(random.nextInt(alphabet.length())));
+                        break;
+                    default:
+                        line.setCharAt(index, alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+            }
+            if (assertSameResult(line.toString())) {
+                scanned++;
+            }
+        }
+        Assert.assertTrue("The scanner should accept lines that are still well-formed", scanned > 1000);
+    }
+}
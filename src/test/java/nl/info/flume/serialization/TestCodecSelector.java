@@ -0,0 +1,141 @@
+package nl.info.flume.serialization;
+
+import com.google.common.base.Charsets;
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.flume.Context;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static nl.info.flume.serialization.SerializerFixture.APACHE_LINE;
+import static nl.info.flume.serialization.SerializerFixture.events;
+
+/**
+ * Tests the codec selection, and the adaptive codec of the serializers.
+ *
+ * @author daan.debie
+ */
+public class TestCodecSelector {
+
+    private static final Schema BYTES = Schema.create(Schema.Type.BYTES);
+
+    private static List<ByteBuffer> records(int count, boolean random) {
+        Random rnd = new Random(42);
+        List<ByteBuffer> records = new ArrayList<ByteBuffer>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] body = new byte[200];
+            if (random) {
+                rnd.nextBytes(body);
+            } else {
+                byte[] line = APACHE_LINE.getBytes(Charsets.UTF_8);
+                System.arraycopy(line, 0, body, 0, body.length);
+            }
+            // an avro bytes datum: the length as a zigzag varint, then the bytes
+            ByteBuffer record = ByteBuffer.allocate(body.length + 2);
+            record.put((byte) 0x90).put((byte) 0x03).put(body);
+            record.flip();
+            records.add(record);
+        }
+        return records;
+    }
+
+    @Test
+    public void testCompressibleRecordsGetACodec() {
+        CodecSelector selector = new CodecSelector(new String[]{"null", "deflate-1", "deflate-6"}, Double.MAX_VALUE);
+        CodecSelector.Choice choice = selector.select(BYTES, records(1000, false));
+        Assert.assertTrue(choice.getCodec().startsWith("deflate"));
+        Assert.assertTrue(choice.getRatio() < 0.1);
+        Assert.assertTrue(CodecSelector.getCounterGroup().get("codec.deflate-1.sampledBytes") > 0);
+        Assert.assertTrue(CodecSelector.getCounterGroup().get("codec.deflate-1.compressedBytes") > 0);
+        Assert.assertTrue(CodecSelector.getCounterGroup().get("codec.deflate-1.nanos") > 0);
+    }
+
+    @Test
+    public void testIncompressibleRecordsStayUncompressed() {
+        CodecSelector selector = new CodecSelector(new String[]{"deflate-1", "deflate-9"}, Double.MAX_VALUE);
+        CodecSelector.Choice choice = selector.select(BYTES, records(1000, true));
+        Assert.assertEquals(CodecSelector.NULL_CODEC, choice.getCodec());
+        Assert.assertEquals(1.0, choice.getRatio(), 0.0);
+    }
+
+    @Test
+    public void testCodecsOverBudgetAreNotSelected() {
+        CodecSelector selector = new CodecSelector(new String[]{"deflate-1", "deflate-9"}, 0);
+        Assert.assertEquals(CodecSelector.NULL_CODEC, selector.select(BYTES, records(1000, false)).getCodec());
+    }
+
+    @Test
+    public void testUnknownCodecsAreIgnored() {
+        CodecSelector selector = new CodecSelector(new String[]{"lzma", "deflate-1"}, Double.MAX_VALUE);
+        Assert.assertEquals("deflate-1", selector.select(BYTES, records(1000, false)).getCodec());
+    }
+
+    @Test
+    public void testSyncIntervalIsSizedToTargetBlock() {
+        Assert.assertEquals(1000000, new CodecSelector.Choice("deflate-6", 0.1).syncInterval(100000));
+        Assert.assertEquals(100000, new CodecSelector.Choice("null", 1).syncInterval(100000));
+        Assert.assertEquals(1 << 30, new CodecSelector.Choice("deflate-6", 0.001).syncInterval(Integer.MAX_VALUE));
+    }
+
+    private static byte[] serialize(Context ctx, int events) throws IOException {
+        String[] lines = new String[events];
+        Arrays.fill(lines, APACHE_LINE);
+        return SerializerFixture.serialize(ApacheLogAvroEventSerializer.Builder.class, ctx, events(lines, "host", "web01"));
+    }
+
+    private static void assertRecords(byte[] avro, int events, String codec) throws IOException {
+        DataFileStream<GenericRecord> reader = new DataFileStream<GenericRecord>(
+                new ByteArrayInputStream(avro), new GenericDatumReader<GenericRecord>());
+        Assert.assertEquals(codec, reader.getMetaString("avro.codec"));
+        int count = 0;
+        while (reader.hasNext()) {
+            GenericRecord record = reader.next();
+            Assert.assertEquals(APACHE_LINE, record.get("original").toString());
+            Assert.assertEquals(200, record.get("statuscode"));
+            count++;
+        }
+        reader.close();
+        Assert.assertEquals(events, count);
+    }
+
+    @Test
+    public void testAdaptiveSerializerWritesSampleAndRest() throws IOException {
+        Context ctx = new Context();
+        ctx.put("compressionCodec", "adaptive");
+        ctx.put("adaptive.candidates", "null deflate-1");
+        ctx.put("adaptive.cpuBudget", String.valueOf(Double.MAX_VALUE));
+        ctx.put("adaptive.sampleBytes", "16384");
+        ctx.put("adaptive.targetBlockBytes", "4096");
+        byte[] avro = serialize(ctx, 2000);
+        assertRecords(avro, 2000, "deflate");
+        Assert.assertTrue(avro.length < 2000 * APACHE_LINE.length() / 10);
+    }
+
+    @Test
+    public void testAdaptiveSerializerCreatesFileOnFlushBeforeSampleIsFull() throws IOException {
+        Context ctx = new Context();
+        ctx.put("compressionCodec", "adaptive");
+        ctx.put("adaptive.candidates", "deflate-1");
+        ctx.put("adaptive.cpuBudget", String.valueOf(Double.MAX_VALUE));
+        assertRecords(serialize(ctx, 10), 10, "deflate");
+        assertRecords(serialize(ctx, 0), 0, "null");
+    }
+
+    @Test
+    public void testFixedCodecIsUnchanged() throws IOException {
+        Context ctx = new Context();
+        ctx.put("compressionCodec", "deflate");
+        assertRecords(serialize(ctx, 10), 10, "deflate");
+        assertRecords(serialize(new Context(), 10), 10, "null");
+    }
+}
@@ -0,0 +1,211 @@
+package nl.info.flume.serialization;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.apache.flume.serialization.EventSerializer;
+import org.apache.trevni.ColumnFileReader;
+import org.apache.trevni.avro.AvroColumnReader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that records written to a Trevni file read back the same as from an Avro data file,
+ * with every codec, and that only the columns that are asked for are read.
+ *
+ * @author daan.debie
+ */
+public class TestColumns {
+
+    private static final String[] URIS = {"/graphs/tabledata.pl", "/graphs/rotator.pl", "/index.html"};
+
+    private static List<Event> generateApacheEvents(int count) {
+        List<Event> list = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            String bytes = i % 7 == 0 ? "-" : String.valueOf(1000 + i * 13);
+            Map<String, String> headers = new HashMap<String, String>();
+            headers.put("host", "web0" + (i % 3));
+            headers.put("customer", i % 2 == 0 ? "info" : "other");
+            headers.put("timestamp", String.valueOf(1362133406000L + i));
+            list.add(EventBuilder.withBody("80.79.194." + (i % 5) + " - - [01/Mar/2013:11:" + (10 + i / 60) + ":"
+                    + (10 + i % 50) + " +0100] \"GET " + URIS[i % URIS.length] + " HTTP/1.1\" " + (i % 10 == 0 ? 404 : 200)
+                    + " " + bytes + " \"https://noc.info.nl/graphs/alert.pl\" \"Mozilla/5.0\" noc.info.nl \"noc.info.nl\" 1 "
+                    + (1135203 + i) + " + \"text/html\" \"-\" 754 3785", Charsets.UTF_8, headers));
+        }
+        // one that doesn't parse, with nulls in every column
+        list.add(EventBuilder.withBody("not an access log line", Charsets.UTF_8));
+        return list;
+    }
+
+    private static byte[] write(Context context, List<Event> events) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventSerializer serializer = new ApacheLogAvroEventSerializer.Builder().build(context, out);
+        serializer.afterCreate();
+        for (Event event : events) {
+            serializer.write(event);
+        }
+        serializer.flush();
+        serializer.beforeClose();
+        return out.toByteArray();
+    }
+
+    private static File file(byte[] bytes) throws IOException {
+        File file = File.createTempFile("columns", ".trv");
+        file.deleteOnExit();
+        Files.write(bytes, file);
+        return file;
+    }
+
+    /**
+     * Reads the given columns of all records of the file, or all columns when there are none.
+     */
+    private static List<GenericRecord> read(byte[] bytes, String... columns) throws IOException {
+        Columns.Reader reader = new Columns.Reader(file(bytes), columns);
+        List<GenericRecord> records = Lists.newArrayList(reader.iterator());
+        reader.close();
+        return records;
+    }
+
+    /**
+     * Returns the value as a string, with the symbol for an enum. Trevni 1.7.3 reads enums that
+     * can be null back as the index of their symbol.
+     */
+    private static String symbol(Schema.Field field, Object value) {
+        if (value instanceof Integer && field.schema().getType() == Schema.Type.UNION) {
+            for (Schema type : field.schema().getTypes()) {
+                if (type.getType() == Schema.Type.ENUM) {
+                    return type.getEnumSymbols().get((Integer) value);
+                }
+            }
+        }
+        return String.valueOf(value);
+    }
+
+    private static Context context(String compressionCodec) {
+        Context context = new Context();
+        context.put(TypedSchemas.SCHEMA_VERSION, "2");
+        context.put(Columns.COLUMNAR, "true");
+        context.put(Columns.BUFFER_UNTIL_CLOSE, "true");
+        context.put("compressionCodec", compressionCodec);
+        return context;
+    }
+
+    @Test
+    public void testSameRecordsAsDataFile() throws IOException {
+        List<Event> events = generateApacheEvents(100);
+        Context rows = new Context();
+        rows.put(TypedSchemas.SCHEMA_VERSION, "2");
+        List<GenericRecord> expected = Lists.newArrayList();
+        DataFileStream<GenericRecord> dataFile = new DataFileStream<GenericRecord>(
+                new ByteArrayInputStream(write(rows, events)), new GenericDatumReader<GenericRecord>());
+        for (GenericRecord record : dataFile) {
+            expected.add(record);
+        }
+        dataFile.close();
+
+        for (String codec : new String[]{"null", "deflate", "deflate-1", "snappy"}) {
+            List<GenericRecord> actual = read(write(context(codec), events));
+            Assert.assertEquals(codec, expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                for (Schema.Field field : expected.get(i).getSchema().getFields()) {
+                    String column = field.name();
+                    Assert.assertEquals(codec + " " + column,
+                            String.valueOf(expected.get(i).get(column)), symbol(field, actual.get(i).get(column)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOnlyAskedColumnsAreRead() throws IOException {
+        Context context = context("deflate");
+        context.put(Projection.FIELDS, "time uri statuscode bytesSend");
+        List<GenericRecord> records = read(write(context, generateApacheEvents(30)), "statuscode", "time");
+        Assert.assertEquals(31, records.size());
+        Assert.assertEquals(Arrays.asList("statuscode", "time"), fieldNames(records.get(0).getSchema()));
+        Assert.assertEquals(404, records.get(0).get("statuscode"));
+        Assert.assertEquals(200, records.get(1).get("statuscode"));
+        Assert.assertTrue((Long) records.get(1).get("time") > (Long) records.get(0).get("time"));
+        Assert.assertNull(records.get(30).get("time"));
+        Assert.assertTrue(Columns.getCounterGroup().get("columns.rows") >= 31);
+    }
+
+    @Test
+    public void testPromotedHeaders() throws IOException {
+        Context context = context("null");
+        context.put(Projection.FIELDS, "statuscode");
+        context.put(Projection.PROMOTED_HEADERS, "customer timestamp:long");
+        List<GenericRecord> records = read(write(context, generateApacheEvents(30)), "headers", "customer", "timestamp");
+        Assert.assertEquals("info", records.get(0).get("customer").toString());
+        Assert.assertEquals(1362133406001L, records.get(1).get("timestamp"));
+        Map<?, ?> headers = (Map<?, ?>) records.get(2).get("headers");
+        Assert.assertEquals(1, headers.size());
+        Assert.assertEquals("web02", headers.get("host"));
+    }
+
+    @Test
+    public void testHeadersAreWrittenWithADictionary() throws IOException {
+        Context context = context("null");
+        context.put(Projection.FIELDS, "statuscode");
+        File file = file(write(context, generateApacheEvents(30)));
+
+        AvroColumnReader<GenericRecord> reader = new AvroColumnReader<GenericRecord>(new AvroColumnReader.Params(file));
+        Assert.assertEquals(Schema.Type.ARRAY, reader.getFileSchema().getField("headers").schema().getType());
+        GenericRecord raw = reader.next();
+        reader.close();
+        Assert.assertEquals(3, ((List<?>) raw.get("headers")).size());
+
+        // host, customer, timestamp, 3 hosts, 2 customers and 30 timestamps
+        ColumnFileReader fileReader = new ColumnFileReader(file);
+        Columns.Dictionary dictionary = Columns.Dictionary.fromBytes(fileReader.getMetaData().get(Columns.DICTIONARY_KEY));
+        fileReader.close();
+        Assert.assertEquals(38, dictionary.size());
+
+        List<GenericRecord> records = read(Files.toByteArray(file), "headers");
+        Assert.assertEquals(Schema.Type.MAP, records.get(0).getSchema().getField("headers").schema().getType());
+        Map<?, ?> headers = (Map<?, ?>) records.get(4).get("headers");
+        Assert.assertEquals("web01", headers.get("host"));
+        Assert.assertEquals("info", headers.get("customer"));
+        Assert.assertEquals("1362133406004", headers.get("timestamp"));
+        Assert.assertTrue(((Map<?, ?>) records.get(30).get("headers")).isEmpty());
+    }
+
+    private static List<String> fieldNames(Schema schema) {
+        List<String> names = new ArrayList<String>();
+        for (Schema.Field field : schema.getFields()) {
+            names.add(field.name());
+        }
+        return names;
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testOnlyTypedRecords() throws IOException {
+        Context context = context("null");
+        context.put(TypedSchemas.SCHEMA_VERSION, "1");
+        write(context, generateApacheEvents(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testOnlyWhenBufferingUntilCloseIsAccepted() throws IOException {
+        Context context = context("null");
+        context.put(Columns.BUFFER_UNTIL_CLOSE, "false");
+        write(context, generateApacheEvents(1));
+    }
+}
@@ -0,0 +1,149 @@
+package nl.info.flume.serialization;
+
+import nl.info.flume.serialization.ApacheLogAvroEventSerializer.ApacheEvent;
+import nl.info.flume.serialization.JavaLogAvroEventSerializer.JavaEvent;
+import nl.info.flume.serialization.SyslogAvroEventSerializer.SyslogEvent;
+import com.google.common.base.Charsets;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.reflect.ReflectDatumWriter;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static nl.info.flume.serialization.SerializerFixture.APACHE_LINE;
+import static nl.info.flume.serialization.SerializerFixture.JAVA_LINE;
+import static nl.info.flume.serialization.SerializerFixture.SYSLOG_LINE;
+
+/**
+ * Checks that the hand-written datum writers encode exactly like the reflect datum writer Flume
+ * uses. Their speed is compared by DatumWriterBenchmark, in src/jmh.
+ *
+ * @author daan.debie
+ */
+public class TestDatumWriters {
+
+    private static Map<String, String> headers() {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("host", "web01");
+        headers.put("customer", "info");
+        headers.put("timestamp", "1362133406000");
+        return headers;
+    }
+
+    private static ApacheEvent apacheEvent() {
+        ApacheEvent event = new ApacheEvent();
+        event.setHeaders(headers());
+        event.setOriginal(APACHE_LINE);
+        ApacheLogParser.parse(APACHE_LINE, event);
+        return event;
+    }
+
+    private static SyslogEvent syslogEvent() {
+        SyslogEvent event = new SyslogEvent();
+        event.setHeaders(headers());
+        event.setOriginal(SYSLOG_LINE);
+        SyslogParser.parse(SYSLOG_LINE, event);
+        return event;
+    }
+
+    private static JavaEvent javaEvent() {
+        JavaEvent event = new JavaEvent();
+        event.setHeaders(headers());
+        event.setOriginal(JAVA_LINE);
+        JavaLogParser.parse(JAVA_LINE, event);
+        return event;
+    }
+
+    private static <T> byte[] encode(DatumWriter<T> writer, T datum) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+        writer.write(datum, encoder);
+        encoder.flush();
+        return out.toByteArray();
+    }
+
+    private static Schema schemaOf(AbstractDatumEventSerializer<?> serializer) {
+        return serializer.getSchema();
+    }
+
+    @Test
+    public void testWritersEncodeLikeReflection() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ApacheEvent apache = apacheEvent();
+        Assert.assertArrayEquals(encode(new ReflectDatumWriter<ApacheEvent>(schemaOf(new ApacheLogAvroEventSerializer(out))), apache),
+                encode(new ApacheLogAvroEventSerializer.ApacheEventDatumWriter(), apache));
+
+        SyslogEvent syslog = syslogEvent();
+        Assert.assertArrayEquals(encode(new ReflectDatumWriter<SyslogEvent>(schemaOf(new SyslogAvroEventSerializer(out, "", "customer", "host"))), syslog),
+                encode(new SyslogAvroEventSerializer.SyslogEventDatumWriter(), syslog));
+
+        JavaEvent java = javaEvent();
+        Assert.assertArrayEquals(encode(new ReflectDatumWriter<JavaEvent>(schemaOf(new JavaLogAvroEventSerializer(out))), java),
+                encode(new JavaLogAvroEventSerializer.JavaEventDatumWriter(), java));
+
+        Event event = EventBuilder.withBody(JAVA_LINE, Charsets.UTF_8, headers());
+        Schema eventSchema = schemaOf((AbstractDatumEventSerializer<?>) new FlumeEventStringAvroEventSerializer.Builder().build(new Context(), out));
+        GenericRecord record = new GenericData.Record(eventSchema);
+        record.put("headers", headers());
+        record.put("body", JAVA_LINE);
+        Assert.assertArrayEquals(encode(new GenericDatumWriter<GenericRecord>(eventSchema), record),
+                encode(new FlumeEventStringAvroEventSerializer.EventDatumWriter(true), event));
+    }
+
+    @Test
+    public void testEventBodyIsWrittenAsValidUtf8() throws IOException {
+        Random random = new Random(42);
+        DatumWriter<Event> writer = new FlumeEventStringAvroEventSerializer.EventDatumWriter(true);
+        Map<String, String> headers = new HashMap<String, String>();
+        for (int i = 0; i < 20000; i++) {
+            byte[] body;
+            if (i % 2 == 0) {
+                body = new byte[random.nextInt(8)];
+                random.nextBytes(body);
+            } else {
+                // valid UTF-8 of all lengths, with one byte changed now and then
+                StringBuilder text = new StringBuilder("a");
+                int codePoint = random.nextInt(Character.MAX_CODE_POINT + 1);
+                if (codePoint < Character.MIN_SURROGATE || codePoint > Character.MAX_SURROGATE) {
+                    text.appendCodePoint(codePoint);
+                }
+                body = text.toString().getBytes(Charsets.UTF_8);
+                if (random.nextInt(4) == 0) {
+                    body[random.nextInt(body.length)] = (byte) random.nextInt(256);
+                }
+            }
+            String decoded = new String(body, Charsets.UTF_8);
+            // what Flume's string body did: decode, and encode again
+            Assert.assertArrayEquals(encode(writer, EventBuilder.withBody(decoded, Charsets.UTF_8, headers)),
+                    encode(writer, EventBuilder.withBody(body, headers)));
+            Assert.assertEquals(Arrays.equals(body, decoded.getBytes(Charsets.UTF_8)), Encoders.isUtf8(body));
+        }
+    }
+
+    @Test
+    public void testWritersWriteNullsAsEmptyStrings() throws IOException {
+        ApacheEvent apache = apacheEvent();
+        apache.setServername(null);
+        apache.setHeaders(null);
+        ApacheEvent expected = apacheEvent();
+        expected.setServername("");
+        expected.setHeaders(new HashMap<String, String>());
+        Assert.assertArrayEquals(encode(new ApacheLogAvroEventSerializer.ApacheEventDatumWriter(), expected),
+                encode(new ApacheLogAvroEventSerializer.ApacheEventDatumWriter(), apache));
+    }
+}
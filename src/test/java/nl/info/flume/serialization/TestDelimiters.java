@@ -0,0 +1,93 @@
+package nl.info.flume.serialization;
+
+import com.google.common.base.Charsets;
+import nl.info.flume.serialization.JavaLogAvroEventSerializer.JavaEvent;
+import org.apache.flume.Context;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks the word at a time delimiter search against a plain loop, and the splitting of Java
+ * log records on it.
+ *
+ * @author daan.debie
+ */
+public class TestDelimiters {
+
+    private static final String JAVA_LINE = "[#|2013-03-01T11:25:00.017+0100|INFO|sun-appserver2.1|nl.info.bva.model.service.impl.schedule.AbstractContextAwareQuartzJobBean|_ThreadID=23;_ThreadName=taskExecutor-5;|Job 'SendLotOpeningAndClosingNotificationsJob' started|#]";
+
+    private static int plainIndexOf(byte[] bytes, byte delimiter, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == delimiter) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void testIndexOfMatchesPlainLoop() {
+        Random random = new Random(42);
+        // delimiters next to bytes that borrow when subtracting, and high bytes
+        byte[] alphabet = {'|', 0, 1, '{', '}', (byte) 0x7C, (byte) 0xFC, (byte) 0x80, (byte) 0xFF, 'a'};
+        for (int run = 0; run < 5000; run++) {
+            byte[] bytes = new byte[random.nextInt(40)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = random.nextInt(4) == 0 ? alphabet[random.nextInt(alphabet.length)] : (byte) random.nextInt(256);
+            }
+            byte delimiter = alphabet[random.nextInt(alphabet.length)];
+            int from = bytes.length == 0 ? 0 : random.nextInt(bytes.length);
+            int to = from + random.nextInt(bytes.length - from + 1);
+            Assert.assertEquals(Arrays.toString(bytes) + " " + delimiter + " " + from + "-" + to,
+                    plainIndexOf(bytes, delimiter, from, to), Delimiters.indexOf(bytes, delimiter, from, to));
+        }
+    }
+
+    @Test
+    public void testSplit() {
+        byte[] line = "a|bc||d".getBytes(Charsets.UTF_8);
+        int[] bounds = new int[6];
+        Assert.assertEquals(3, Delimiters.split(line, (byte) '|', 0, line.length, bounds));
+        Assert.assertArrayEquals(new int[]{0, 1, 2, 4, 5, 5}, bounds);
+
+        bounds = new int[10];
+        Assert.assertEquals(3, Delimiters.split(line, (byte) '|', 2, line.length, bounds));
+        Assert.assertArrayEquals(new int[]{2, 4, 5, 5, 6, 7, 0, 0, 0, 0}, bounds);
+    }
+
+    @Test
+    public void testJavaLogParserDecodesOnlyWantedFields() {
+        JavaEvent jve = new JavaEvent();
+        Context context = new Context();
+        context.put(Projection.FIELDS, "timestamp loglevel message");
+        int fields = JavaLogParser.fields(Projection.fromContext(context, TypedSchemas.JAVA).getSchema());
+        Assert.assertTrue(JavaLogParser.parse(JAVA_LINE.getBytes(Charsets.UTF_8), JavaLogParser.bounds(), fields, jve));
+        Assert.assertEquals("INFO", jve.getLoglevel());
+        Assert.assertEquals("Job 'SendLotOpeningAndClosingNotificationsJob' started", jve.getMessage());
+        Assert.assertEquals("", jve.getClassname());
+        Assert.assertEquals("", jve.getDatetime());
+        Assert.assertTrue(jve.getTimestamp() != 0);
+    }
+
+    @Test
+    public void testJavaLogParserWithMissingFields() {
+        JavaEvent jve = new JavaEvent();
+        Assert.assertFalse(JavaLogParser.parse("[#|2013-03-01T11:25:00.017+0100|INFO|oops".getBytes(Charsets.UTF_8), jve));
+        Assert.assertEquals("INFO", jve.getLoglevel());
+        Assert.assertEquals("oops", jve.getMessage());
+        Assert.assertEquals("", jve.getAppservername());
+
+        jve = new JavaEvent();
+        Assert.assertFalse(JavaLogParser.parse("[#|\u00e9|INFO|a|b|c|m|#]".getBytes(Charsets.UTF_8), jve));
+        Assert.assertEquals(0, jve.getTimestamp());
+        Assert.assertEquals("m", jve.getMessage());
+
+        jve = new JavaEvent();
+        Assert.assertFalse(JavaLogParser.parse("no pipes at all".getBytes(Charsets.UTF_8), jve));
+        Assert.assertEquals("no pipes at all", jve.getMessage());
+        Assert.assertEquals(0, jve.getTimestamp());
+    }
+}
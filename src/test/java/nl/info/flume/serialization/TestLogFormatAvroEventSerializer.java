@@ -0,0 +1,93 @@
+package nl.info.flume.serialization;
+
+import nl.info.flume.serialization.ApacheLogAvroEventSerializer.ApacheEvent;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.flume.Context;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static nl.info.flume.serialization.SerializerFixture.APACHE_LINE;
+import static nl.info.flume.serialization.SerializerFixture.event;
+import static nl.info.flume.serialization.SerializerFixture.read;
+
+/**
+ * ...
+ *
+ * @author daan.debie
+ */
+public class TestLogFormatAvroEventSerializer {
+
+    private static final String CUSTOM_FORMAT = "%h %l %u %t \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\" %v \"%{Host}i\" %T %D %X \"%{Content-Type}o\" \"%{Session}C\" %I %O";
+
+    private static GenericRecord serialize(String logFormat, String line) throws IOException {
+        Context ctx = new Context();
+        ctx.put(LogFormatAvroEventSerializer.Constants.LOG_FORMAT, logFormat);
+        return read(SerializerFixture.serialize(LogFormatAvroEventSerializer.Builder.class, ctx, event(line, "host", "web01"))).get(0);
+    }
+
+    @Test
+    public void testCustomFormatGivesSameFieldsAsApacheSerializer() throws IOException {
+        GenericRecord record = serialize(CUSTOM_FORMAT, APACHE_LINE);
+        ApacheEvent expected = new ApacheEvent();
+        Assert.assertTrue(ApacheLogParser.parse(APACHE_LINE, expected));
+
+        Assert.assertEquals(APACHE_LINE, record.get("original").toString());
+        Assert.assertEquals(expected.getIp(), record.get("ip").toString());
+        Assert.assertEquals(expected.getIdentd(), record.get("identd").toString());
+        Assert.assertEquals(expected.getTime(), record.get("time").toString());
+        Assert.assertEquals(expected.getMethod(), record.get("method").toString());
+        Assert.assertEquals(expected.getUri(), record.get("uri").toString());
+        Assert.assertEquals(expected.getProtocol(), record.get("protocol").toString());
+        Assert.assertEquals(expected.getStatuscode(), record.get("statuscode"));
+        Assert.assertEquals(expected.getBytesSend(), record.get("bytesSend").toString());
+        Assert.assertEquals(expected.getReferer(), record.get("referer").toString());
+        Assert.assertEquals(expected.getUseragent(), record.get("useragent").toString());
+        Assert.assertEquals(expected.getServername(), record.get("servername").toString());
+        Assert.assertEquals(expected.getExtraservername(), record.get("host").toString());
+        Assert.assertEquals(expected.getTimeSecond(), record.get("timeSecond").toString());
+        Assert.assertEquals(expected.getTimeMicro(), record.get("timeMicro").toString());
+        Assert.assertEquals(expected.getConnectionstatus(), record.get("connectionstatus").toString());
+        Assert.assertEquals(expected.getConnectiontype(), record.get("contentType").toString());
+        Assert.assertEquals(expected.getSessioncookie(), record.get("sessionCookie").toString());
+        Assert.assertEquals(expected.getBytesIn(), record.get("bytesIn").toString());
+        Assert.assertEquals(expected.getBytesOut(), record.get("bytesOut").toString());
+    }
+
+    @Test
+    public void testCombinedFormat() throws IOException {
+        GenericRecord record = serialize("%h %l %u %t \"%r\" %>s %b \"%{Referer}i\" \"%{User-agent}i\"",
+                "127.0.0.1 - frank [10/Oct/2000:13:55:36 -0700] \"GET /apache_pb.gif HTTP/1.0\" 200 2326 \"http://www.example.com/start.html\" \"Mozilla/4.08 [en] (Win98; I ;Nav)\"");
+        Assert.assertEquals("frank", record.get("user").toString());
+        Assert.assertEquals("10/Oct/2000:13:55:36 -0700", record.get("time").toString());
+        Assert.assertEquals("/apache_pb.gif", record.get("uri").toString());
+        Assert.assertEquals(200, record.get("statuscode"));
+        Assert.assertEquals("Mozilla/4.08 [en] (Win98; I ;Nav)", record.get("useragent").toString());
+        Assert.assertTrue("Headers should be kept", record.get("headers").toString().contains("web01"));
+    }
+
+    @Test
+    public void testLinesThatDontMatchKeepOnlyTheOriginal() throws IOException {
+        GenericRecord record = serialize("%h %l %u %t \"%r\" %>s %b", "not an access log line");
+        Assert.assertEquals("not an access log line", record.get("original").toString());
+        Assert.assertEquals("", record.get("ip").toString());
+        Assert.assertEquals(0, record.get("statuscode"));
+    }
+
+    @Test
+    public void testSchemaIsDerivedFromLogFormat() {
+        Schema schema = ApacheLogFormat.compile("%a %{X-Forwarded-For}i %>s %{X-Forwarded-For}i %%").getSchema();
+        Assert.assertEquals(Schema.Type.STRING, schema.getField("remoteIp").schema().getType());
+        Assert.assertEquals(Schema.Type.INT, schema.getField("statuscode").schema().getType());
+        Assert.assertNotNull(schema.getField("xForwardedFor"));
+        Assert.assertNotNull("Duplicate names should be numbered", schema.getField("xForwardedFor2"));
+        Assert.assertEquals(6, schema.getFields().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedDirective() {
+        ApacheLogFormat.compile("%h %Z");
+    }
+}
@@ -0,0 +1,169 @@
+package nl.info.flume.serialization;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.flume.Context;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static nl.info.flume.serialization.SerializerFixture.APACHE_LINE;
+import static nl.info.flume.serialization.SerializerFixture.GARBAGE;
+import static nl.info.flume.serialization.SerializerFixture.JAVA_LINE;
+import static nl.info.flume.serialization.SerializerFixture.events;
+import static nl.info.flume.serialization.SerializerFixture.read;
+
+/**
+ * Tests the projection of the serializer output on original, headers and fields, and the
+ * promotion of headers.
+ *
+ * @author daan.debie
+ */
+public class TestProjection {
+
+    private static List<GenericRecord> serialize(Class<?> builder, Context ctx, String... lines) throws IOException {
+        return read(SerializerFixture.serialize(builder, ctx, events(lines, "host", "web01", "customer", "info")));
+    }
+
+    private static List<String> fieldNames(Schema schema) {
+        List<String> names = new ArrayList<String>();
+        for (Schema.Field field : schema.getFields()) {
+            names.add(field.name());
+        }
+        return names;
+    }
+
+    @Test
+    public void testDefaultKeepsEverything() throws IOException {
+        List<GenericRecord> records = serialize(ApacheLogAvroEventSerializer.Builder.class, new Context(), APACHE_LINE);
+        Assert.assertEquals(22, records.get(0).getSchema().getFields().size());
+        Assert.assertEquals(APACHE_LINE, records.get(0).get("original").toString());
+    }
+
+    @Test
+    public void testFieldsAndHeaderWhitelist() throws IOException {
+        Context ctx = new Context();
+        ctx.put(Projection.ORIGINAL, Projection.NEVER);
+        ctx.put(Projection.HEADERS, "host");
+        ctx.put(Projection.FIELDS, "statuscode ip uri");
+        GenericRecord record = serialize(ApacheLogAvroEventSerializer.Builder.class, ctx, APACHE_LINE).get(0);
+
+        Assert.assertEquals("[headers, ip, uri, statuscode]", fieldNames(record.getSchema()).toString());
+        Map<?, ?> headers = (Map<?, ?>) record.get("headers");
+        Assert.assertEquals(1, headers.size());
+        Assert.assertEquals("web01", headers.values().iterator().next().toString());
+        Assert.assertEquals("80.79.194.3", record.get("ip").toString());
+        Assert.assertEquals("/graphs/tabledata.pl", record.get("uri").toString());
+        Assert.assertEquals(200, record.get("statuscode"));
+    }
+
+    @Test
+    public void testOriginalOnlyOnFailure() throws IOException {
+        Context ctx = new Context();
+        ctx.put(Projection.ORIGINAL, Projection.ON_FAILURE);
+        ctx.put(Projection.HEADERS, Projection.NONE);
+        List<GenericRecord> records = serialize(ApacheLogAvroEventSerializer.Builder.class, ctx, APACHE_LINE, GARBAGE);
+
+        Assert.assertFalse(fieldNames(records.get(0).getSchema()).contains("headers"));
+        Assert.assertNull(records.get(0).get("original"));
+        Assert.assertEquals("80.79.194.3", records.get(0).get("ip").toString());
+        Assert.assertEquals(GARBAGE, records.get(1).get("original").toString());
+    }
+
+    @Test
+    public void testProjectionOfTypedSchema() throws IOException {
+        Context ctx = new Context();
+        ctx.put(TypedSchemas.SCHEMA_VERSION, "2");
+        ctx.put(Projection.ORIGINAL, Projection.ON_FAILURE);
+        ctx.put(Projection.FIELDS, "timestamp loglevel message");
+        List<GenericRecord> records = serialize(JavaLogAvroEventSerializer.Builder.class, ctx, JAVA_LINE, GARBAGE);
+
+        Assert.assertEquals("[headers, original, timestamp, loglevel, message]",
+                fieldNames(records.get(0).getSchema()).toString());
+        Assert.assertNull(records.get(0).get("original"));
+        Assert.assertEquals("INFO", records.get(0).get("loglevel").toString());
+        Assert.assertEquals(GARBAGE, records.get(1).get("original").toString());
+    }
+
+    @Test
+    public void testProjectionOfLogFormat() throws IOException {
+        Context ctx = new Context();
+        ctx.put(LogFormatAvroEventSerializer.Constants.LOG_FORMAT, "%h %l %u %t \"%r\" %>s %b");
+        ctx.put(Projection.FIELDS, "ip statuscode");
+        ctx.put(Projection.ORIGINAL, Projection.NEVER);
+        GenericRecord record = serialize(LogFormatAvroEventSerializer.Builder.class, ctx,
+                "127.0.0.1 - - [01/Mar/2013:11:23:26 +0100] \"GET / HTTP/1.1\" 404 12").get(0);
+
+        Assert.assertEquals("[headers, ip, statuscode]", fieldNames(record.getSchema()).toString());
+        Assert.assertEquals(404, record.get("statuscode"));
+    }
+
+    @Test
+    public void testPromotedHeaders() throws IOException {
+        Context ctx = new Context();
+        ctx.put(Projection.FIELDS, "statuscode");
+        ctx.put(Projection.PROMOTED_HEADERS, "customer host");
+        GenericRecord record = serialize(ApacheLogAvroEventSerializer.Builder.class, ctx, APACHE_LINE).get(0);
+
+        Assert.assertEquals("[headers, original, statuscode, customer, host]", fieldNames(record.getSchema()).toString());
+        Assert.assertEquals("info", record.get("customer").toString());
+        Assert.assertEquals("web01", record.get("host").toString());
+        Assert.assertTrue(((Map<?, ?>) record.get("headers")).isEmpty());
+    }
+
+    @Test
+    public void testTypedPromotedHeaders() throws IOException {
+        for (String spans : new String[]{"false", "true"}) {
+            Context ctx = new Context();
+            ctx.put(TypedSchemas.SCHEMA_VERSION, "true".equals(spans) ? "1" : "2");
+            ctx.put(Spans.SPANS, spans);
+            ctx.put(Projection.PROMOTED_HEADERS, "host customer:long");
+            GenericRecord record = serialize(JavaLogAvroEventSerializer.Builder.class, ctx, JAVA_LINE).get(0);
+
+            List<String> names = fieldNames(record.getSchema());
+            Assert.assertEquals("[host, customer]", names.subList(names.size() - 2, names.size()).toString());
+            Assert.assertEquals("web01", record.get("host").toString());
+            // not a number
+            Assert.assertNull(record.get("customer"));
+            Assert.assertEquals(Schema.Type.LONG, record.getSchema().getField("customer").schema().getTypes().get(1).getType());
+        }
+    }
+
+    @Test
+    public void testPromotedHeaderNames() {
+        Assert.assertEquals("x_forwarded_for", Projection.fieldName("x-forwarded.for"));
+        Assert.assertEquals("_1st", Projection.fieldName("1st"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPromotedHeaderMustNotBeAField() {
+        Context ctx = new Context();
+        ctx.put(Projection.PROMOTED_HEADERS, "timestamp");
+        Projection.fromContext(ctx, TypedSchemas.JAVA);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPromotedHeaderTypes() {
+        Context ctx = new Context();
+        ctx.put(Projection.PROMOTED_HEADERS, "host:boolean");
+        Projection.fromContext(ctx, TypedSchemas.JAVA);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnknownFieldsAreRejected() {
+        Context ctx = new Context();
+        ctx.put(Projection.FIELDS, "ip nosuchfield");
+        Projection.fromContext(ctx, TypedSchemas.APACHE);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnknownOriginalModeIsRejected() {
+        Context ctx = new Context();
+        ctx.put(Projection.ORIGINAL, "sometimes");
+        Projection.fromContext(ctx, TypedSchemas.APACHE);
+    }
+}
@@ -0,0 +1,125 @@
+package nl.info.flume.serialization;
+
+import com.google.common.base.Charsets;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.flume.Context;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static nl.info.flume.serialization.SerializerFixture.APACHE_LINE;
+import static nl.info.flume.serialization.SerializerFixture.GARBAGE;
+import static nl.info.flume.serialization.SerializerFixture.JAVA_LINE;
+import static nl.info.flume.serialization.SerializerFixture.SYSLOG_LINE;
+import static nl.info.flume.serialization.SerializerFixture.events;
+import static nl.info.flume.serialization.SerializerFixture.read;
+
+/**
+ * Checks that the span layout gives the same fields as the v1 layout once the spans are
+ * materialized.
+ *
+ * @author daan.debie
+ */
+public class TestSpans {
+
+    // no connectionstatus, so it's left to the regular expression
+    private static final String APACHE_REGEX_LINE = "80.79.194.3 - - [01/Mar/2013:11:23:26 +0100] \"GET / HTTP/1.1\" 200 3132 \"-\" \"curl\" noc.info.nl \"noc.info.nl\" 1 1135203  \"text/html\" \"-\" 754 3785";
+
+    private static byte[] serialize(Class<?> builder, Context ctx, String... lines) throws IOException {
+        return SerializerFixture.serialize(builder, ctx, events(lines, "host", "web01"));
+    }
+
+    private static Context spans() {
+        Context ctx = new Context();
+        ctx.put(Spans.SPANS, "true");
+        return ctx;
+    }
+
+    /**
+     * Compares every field of the span layout with the same field of the v1 layout.
+     */
+    private static void assertSameFields(Class<?> builder, String... lines) throws IOException {
+        byte[] v1 = serialize(builder, new Context(), lines);
+        byte[] spans = serialize(builder, spans(), lines);
+        List<GenericRecord> expected = read(v1);
+        List<GenericRecord> actual = read(spans);
+        Assert.assertEquals(lines.length, actual.size());
+        for (int i = 0; i < lines.length; i++) {
+            Assert.assertEquals(Spans.NAMESPACE, actual.get(i).getSchema().getNamespace());
+            Map<String, Object> fields = Spans.materialize(actual.get(i));
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                Object value = expected.get(i).get(field.getKey());
+                Assert.assertEquals(lines[i] + ": " + field.getKey(),
+                        String.valueOf(value), String.valueOf(field.getValue()));
+            }
+            Assert.assertEquals(String.valueOf(expected.get(i).get("message")),
+                    String.valueOf(Spans.get(actual.get(i), "message")));
+        }
+        Assert.assertTrue(spans.length < v1.length);
+    }
+
+    @Test
+    public void testApacheSpans() throws IOException {
+        assertSameFields(ApacheLogAvroEventSerializer.Builder.class, APACHE_LINE, APACHE_REGEX_LINE, GARBAGE);
+    }
+
+    @Test
+    public void testSyslogSpans() throws IOException {
+        assertSameFields(SyslogAvroEventSerializer.Builder.class, SYSLOG_LINE, GARBAGE, "short");
+    }
+
+    @Test
+    public void testJavaSpans() throws IOException {
+        assertSameFields(JavaLogAvroEventSerializer.Builder.class, JAVA_LINE, GARBAGE);
+    }
+
+    @Test
+    public void testSpansAreOffsetAndLength() throws IOException {
+        GenericRecord record = read(serialize(ApacheLogAvroEventSerializer.Builder.class, spans(), APACHE_LINE)).get(0);
+        GenericRecord ip = (GenericRecord) record.get("ip");
+        Assert.assertEquals(0, ip.get("offset"));
+        Assert.assertEquals(11, ip.get("length"));
+        Assert.assertEquals(200, record.get("statuscode"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSpansNeedSchemaVersion1() throws IOException {
+        Context ctx = spans();
+        ctx.put(TypedSchemas.SCHEMA_VERSION, "2");
+        serialize(JavaLogAvroEventSerializer.Builder.class, ctx, JAVA_LINE);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSpansNeedOriginal() throws IOException {
+        Context ctx = spans();
+        ctx.put(Projection.ORIGINAL, Projection.ON_FAILURE);
+        serialize(ApacheLogAvroEventSerializer.Builder.class, ctx, APACHE_LINE);
+    }
+
+    @Test
+    public void testCharOffsetsInOnePass() {
+        // two, three and four byte characters, the last one a surrogate pair
+        String logline = "a\u00e9|\u20ac b|\ud83d\ude00c|";
+        byte[] line = logline.getBytes(Charsets.UTF_8);
+        Spans.CharOffsets offsets = new Spans.CharOffsets(line, logline);
+        int previous = 0;
+        for (int offset = 0; offset <= line.length; offset++) {
+            if (offset == line.length || (line[offset] & 0xc0) != 0x80) {
+                int expected = new String(line, 0, offset, Charsets.UTF_8).length();
+                Assert.assertEquals("Byte offset " + offset, expected, offsets.charOffset(offset));
+                Assert.assertTrue(expected >= previous);
+                previous = expected;
+            }
+        }
+
+        // invalid bytes are replaced when decoding, so the offsets are decoded too
+        line = new byte[]{'a', (byte) 0xc3, '|', (byte) 0x80, (byte) 0xe2, '|', 'b'};
+        logline = new String(line, Charsets.UTF_8);
+        offsets = new Spans.CharOffsets(line, logline);
+        Assert.assertEquals(logline.indexOf('|'), offsets.charOffset(2));
+        Assert.assertEquals(logline.lastIndexOf('|'), offsets.charOffset(5));
+    }
+}
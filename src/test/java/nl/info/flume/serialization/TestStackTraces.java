@@ -0,0 +1,96 @@
+package nl.info.flume.serialization;
+
+import com.google.common.base.Charsets;
+import nl.info.flume.serialization.JavaLogAvroEventSerializer.JavaEvent;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.flume.Context;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks finding the stack trace in multi-line Java log records, as joined by the
+ * {@link nl.info.flume.source.MultiLineExecSource}.
+ *
+ * @author daan.debie
+ */
+public class TestStackTraces {
+
+    private static final String JOINED = "[#|2013-03-19T13:00:00.425+0100|INFO|oracle-glassfish3.1.2|org.quartz.core.JobRunShell|_ThreadID=36;_ThreadName=Thread-2;|Job site.clangUserExportJob threw a JobExecutionException:" +
+            " § org.quartz.JobExecutionException: [CLANG] Clang token 'null' is not valid... [See nested exception: org.quartz.JobExecutionException]" +
+            " § \tat nl.info.bva.model.service.impl.schedule.AbstractContextAwareQuartzJobBean.executeInternal(AbstractContextAwareQuartzJobBean.java:44)" +
+            " § \tat org.springframework.scheduling.quartz.QuartzJobBean.execute(QuartzJobBean.java:113)" +
+            " § \tat org.quartz.core.JobRunShell.run(JobRunShell.java:213)" +
+            " § Caused by: java.lang.IllegalStateException: Clang token 'null' is not valid" +
+            " § \tat nl.info.bva.clang.job.ClangUserExportJob.executeJobUsingService(ClangUserExportJob.java:26)" +
+            " § \t... 2 more" +
+            " § |#]";
+
+    @Test
+    public void testExtractFromJoinedLines() {
+        JavaEvent jve = new JavaEvent();
+        Assert.assertTrue(JavaLogParser.parse(JOINED.getBytes(Charsets.UTF_8), jve));
+        Assert.assertEquals("org.quartz.JobExecutionException", jve.getExceptionClass());
+        Assert.assertEquals("[CLANG] Clang token 'null' is not valid... [See nested exception: org.quartz.JobExecutionException]",
+                jve.getExceptionMessage());
+        Assert.assertEquals("java.lang.IllegalStateException", jve.getRootCauseClass());
+        Assert.assertEquals(Arrays.asList(
+                "nl.info.bva.model.service.impl.schedule.AbstractContextAwareQuartzJobBean.executeInternal(AbstractContextAwareQuartzJobBean.java:44)",
+                "org.springframework.scheduling.quartz.QuartzJobBean.execute(QuartzJobBean.java:113)",
+                "org.quartz.core.JobRunShell.run(JobRunShell.java:213)"), jve.getFrames());
+        Assert.assertEquals(StackTraces.hash(jve.getFrames()), jve.getFrameHash());
+    }
+
+    @Test
+    public void testNewlinesAndMaxFrames() {
+        String message = "java.lang.NullPointerException\r\n\tat a.B.c(B.java:1)\n\tat a.B.d(B.java:2)\n";
+        JavaEvent jve = new JavaEvent();
+        Assert.assertTrue(new StackTraces(" § ", 1).extract(message, jve));
+        Assert.assertEquals("java.lang.NullPointerException", jve.getExceptionClass());
+        Assert.assertEquals("", jve.getExceptionMessage());
+        Assert.assertEquals("java.lang.NullPointerException", jve.getRootCauseClass());
+        Assert.assertEquals(Arrays.asList("a.B.c(B.java:1)"), jve.getFrames());
+    }
+
+    @Test
+    public void testSameFramesSameHash() {
+        JavaEvent first = new JavaEvent();
+        JavaEvent second = new JavaEvent();
+        StackTraces.DEFAULT.extract("java.io.IOException: one § \tat a.B.c(B.java:1)", first);
+        StackTraces.DEFAULT.extract("java.io.FileNotFoundException: two § \tat a.B.c(B.java:1)", second);
+        Assert.assertEquals(first.getFrameHash(), second.getFrameHash());
+        StackTraces.DEFAULT.extract("java.io.IOException: one § \tat a.B.c(B.java:2)", second);
+        Assert.assertTrue(first.getFrameHash() != second.getFrameHash());
+    }
+
+    @Test
+    public void testNoStackTrace() {
+        JavaEvent jve = new JavaEvent();
+        Assert.assertFalse(StackTraces.DEFAULT.extract("Duration was 585 msec\tand the threshold 500", jve));
+        Assert.assertFalse(StackTraces.DEFAULT.extract("not a class: message § \tat a.B.c(B.java:1)", jve));
+        Assert.assertEquals("", jve.getExceptionClass());
+        Assert.assertNull(jve.getFrames());
+        Assert.assertNull(StackTraces.className("Job site.clangUserExportJob threw"));
+        Assert.assertNull(StackTraces.className("java.lang."));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testTypedSchemaOnlyWhenAskedFor() {
+        Context context = new Context();
+        context.put(Projection.FIELDS, "timestamp loglevel");
+        Assert.assertFalse(JavaLogParser.wantsStackTrace(
+                JavaLogParser.fields(Projection.fromContext(context, TypedSchemas.JAVA).getSchema())));
+
+        context.put(Projection.FIELDS, "timestamp exceptionClass frameHash");
+        int fields = JavaLogParser.fields(Projection.fromContext(context, TypedSchemas.JAVA).getSchema());
+        JavaEvent jve = new JavaEvent();
+        JavaLogParser.parse(JOINED.getBytes(Charsets.UTF_8), JavaLogParser.bounds(), fields, jve);
+        GenericRecord record = TypedSchemas.java(jve);
+        Assert.assertEquals("org.quartz.JobExecutionException", record.get("exceptionClass"));
+        Assert.assertEquals(3, ((List<String>) record.get("frames")).size());
+        Assert.assertNull(TypedSchemas.java(new JavaEvent()).get("frameHash"));
+    }
+}
@@ -0,0 +1,126 @@
+package nl.info.flume.serialization;
+
+import nl.info.flume.serialization.SyslogAvroEventSerializer.SyslogEvent;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Locale;
+
+/**
+ * Tests the rfc3164 and rfc5424 parsing of the {@link SyslogParser}.
+ *
+ * @author daan.debie
+ */
+public class TestSyslogParser {
+
+    private static final String RFC3164_LINE = "Mar  1 11:23:26 fac01 dhcpd: DHCPREQUEST for 10.10.222.195 from 00:1c:c4:59:d7:06 via eth1";
+    private static final String RFC5424_LINE = "<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 " +
+            "[exampleSDID@32473 iut=\"3\" eventSource=\"Application\" eventID=\"1011\"][examplePriority@32473 class=\"high\"] " +
+            "\uFEFFAn application event log entry...";
+
+    private static SyslogEvent parse(String line, boolean expectedHostname) {
+        SyslogEvent sle = new SyslogEvent();
+        Assert.assertEquals(expectedHostname, SyslogParser.parse(line, sle));
+        return sle;
+    }
+
+    @Test
+    public void testRfc3164() {
+        SyslogEvent sle = parse(RFC3164_LINE, true);
+        Assert.assertEquals("fac01", sle.getHostname());
+        Assert.assertEquals("dhcpd", sle.getAppname());
+        Assert.assertEquals("", sle.getProcid());
+        Assert.assertEquals("dhcpd: DHCPREQUEST for 10.10.222.195 from 00:1c:c4:59:d7:06 via eth1", sle.getMessage());
+        Assert.assertEquals(-1, sle.getFacility());
+
+        DateTime timestamp = new DateTime(sle.getTimestamp(), DateTimeZone.UTC);
+        Assert.assertEquals(3, timestamp.getMonthOfYear());
+        Assert.assertEquals(1, timestamp.getDayOfMonth());
+        Assert.assertEquals(11 * 3600 + 23 * 60 + 26, timestamp.getSecondOfDay());
+        Assert.assertEquals(new DateTime(sle.getTimestamp()).toString("yyyy-MM-dd HH:mm:ss"), sle.getDatetime());
+    }
+
+    @Test
+    public void testRfc3164WithPriAndPid() {
+        SyslogEvent sle = parse("<34>Oct 11 22:14:15 mymachine su[230]: 'su root' failed for lonvick on /dev/pts/8", true);
+        Assert.assertEquals(4, sle.getFacility());
+        Assert.assertEquals(2, sle.getSeverity());
+        Assert.assertEquals("mymachine", sle.getHostname());
+        Assert.assertEquals("su", sle.getAppname());
+        Assert.assertEquals("230", sle.getProcid());
+        Assert.assertEquals("su[230]: 'su root' failed for lonvick on /dev/pts/8", sle.getMessage());
+    }
+
+    /**
+     * The year is guessed from the clock, the same way as it was with the Joda formatters.
+     */
+    @Test
+    public void testRfc3164TimestampMatchesJoda() {
+        DateTime now = new DateTime(DateTimeZone.UTC);
+        for (int days = -400; days <= 400; days += 7) {
+            DateTime expected = now.plusDays(days).withMillisOfSecond(0);
+            String line = DateTimeFormat.forPattern("MMM dd HH:mm:ss").withLocale(Locale.ENGLISH)
+                    .print(expected).replaceFirst("^(\\w{3}) 0", "$1  ") + " host message";
+            SyslogEvent sle = parse(line, true);
+
+            DateTime guessed = expected.withYear(now.getYear());
+            if (guessed.isAfter(now) && guessed.minusMonths(1).isAfter(now)) {
+                guessed = expected.withYear(now.getYear() - 1);
+            } else if (guessed.isBefore(now) && guessed.plusMonths(1).isBefore(now)) {
+                guessed = expected.withYear(now.getYear() + 1);
+            }
+            Assert.assertEquals(line, guessed.getMillis(), sle.getTimestamp());
+        }
+    }
+
+    @Test
+    public void testRfc5424() {
+        SyslogEvent sle = parse(RFC5424_LINE, true);
+        Assert.assertEquals(20, sle.getFacility());
+        Assert.assertEquals(5, sle.getSeverity());
+        Assert.assertEquals(new DateTime(2003, 10, 11, 22, 14, 15, 3, DateTimeZone.UTC).getMillis(), sle.getTimestamp());
+        Assert.assertEquals("mymachine.example.com", sle.getHostname());
+        Assert.assertEquals("evntslog", sle.getAppname());
+        Assert.assertEquals("", sle.getProcid());
+        Assert.assertEquals("ID47", sle.getMsgid());
+        Assert.assertEquals("[exampleSDID@32473 iut=\"3\" eventSource=\"Application\" eventID=\"1011\"]" +
+                "[examplePriority@32473 class=\"high\"]", sle.getStructuredData());
+        Assert.assertEquals("An application event log entry...", sle.getMessage());
+    }
+
+    @Test
+    public void testRfc5424NilValuesAndOffset() {
+        SyslogEvent sle = parse("<13>1 2003-08-24T05:14:15.000003-07:00 - - - - [id p=\"a \\\"]\\\" b\"] msg", false);
+        Assert.assertEquals(new DateTime(2003, 8, 24, 12, 14, 15, 0, DateTimeZone.UTC).getMillis(), sle.getTimestamp());
+        Assert.assertEquals("", sle.getHostname());
+        Assert.assertEquals("", sle.getAppname());
+        Assert.assertEquals("", sle.getMsgid());
+        Assert.assertEquals("[id p=\"a \\\"]\\\" b\"]", sle.getStructuredData());
+        Assert.assertEquals("msg", sle.getMessage());
+
+        sle = parse("<13>1 - host app 12 - -", true);
+        Assert.assertEquals(0, sle.getTimestamp());
+        Assert.assertEquals("12", sle.getProcid());
+        Assert.assertEquals("", sle.getStructuredData());
+        Assert.assertEquals("", sle.getMessage());
+    }
+
+    @Test
+    public void testUnknownFormat() {
+        SyslogEvent sle = parse("Blablablabla dus eigenlijk werkt dit ook wel", false);
+        Assert.assertEquals(0, sle.getTimestamp());
+        Assert.assertEquals("", sle.getHostname());
+        Assert.assertEquals("Blablablabla dus eigenlijk werkt dit ook wel", sle.getMessage());
+
+        sle = parse("<999>Feb 30 11:23:26 host message", false);
+        Assert.assertEquals(-1, sle.getFacility());
+        Assert.assertEquals("<999>Feb 30 11:23:26 host message", sle.getMessage());
+
+        sle = parse("<14>Feb 30 11:23:26 host message", false);
+        Assert.assertEquals(1, sle.getFacility());
+        Assert.assertEquals("Feb 30 11:23:26 host message", sle.getMessage());
+    }
+}
@@ -0,0 +1,108 @@
+package nl.info.flume.serialization;
+
+import com.google.common.base.Charsets;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Checks that {@link Timestamps} gives the same results as the Joda formatters it replaces.
+ *
+ * @author daan.debie
+ */
+public class TestTimestamps {
+
+    private static final DateTimeFormatter JAVA = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+    private static final DateTimeFormatter APACHE =
+            DateTimeFormat.forPattern("dd/MMM/yyyy:HH:mm:ss Z").withLocale(Locale.ENGLISH);
+
+    private static final String[] ZONES = {"UTC", "Europe/Amsterdam", "America/St_Johns", "Asia/Kolkata", "Pacific/Chatham"};
+
+    /**
+     * Random times since 2000, with runs of times within the same minute to exercise the minute cache.
+     */
+    private static long[] times() {
+        Random random = new Random(42);
+        long[] times = new long[2000];
+        long time = 0;
+        for (int i = 0; i < times.length; i++) {
+            if (i % 10 == 0) {
+                // between 2000 and 2030
+                time = 946684800000L + (long) (random.nextDouble() * 30 * 365 * 86400000L);
+            } else {
+                time = time - time % 60000 + random.nextInt(60000);
+            }
+            times[i] = time;
+        }
+        return times;
+    }
+
+    @Test
+    public void testJavaTimestamps() {
+        long[] times = times();
+        for (int i = 0; i < times.length; i++) {
+            DateTimeZone zone = DateTimeZone.forID(ZONES[i / 10 % ZONES.length]);
+            String text = "|" + JAVA.withZone(zone).print(times[i]) + "|";
+            Assert.assertEquals(text, times[i], Timestamps.parseJava(text, 1, text.length() - 1));
+        }
+    }
+
+    @Test
+    public void testApacheTimes() {
+        long[] times = times();
+        for (int i = 0; i < times.length; i++) {
+            DateTimeZone zone = DateTimeZone.forID(ZONES[i / 10 % ZONES.length]);
+            String text = APACHE.withZone(zone).print(times[i]);
+            Assert.assertEquals(text, times[i] - times[i] % 1000, Timestamps.parseApache(text));
+        }
+    }
+
+    @Test
+    public void testDatetime() {
+        long[] times = times();
+        for (long time : times) {
+            Assert.assertEquals(new DateTime(time).toString("yyyy-MM-dd HH:mm:ss"), Timestamps.datetime(time));
+        }
+    }
+
+    @Test
+    public void testOtherLayoutsAreLeftToJoda() {
+        String text = "2013-03-01T11:25:00.017+01:00";
+        Assert.assertEquals(JAVA.parseMillis(text), Timestamps.parseJava(text, 0, text.length()));
+        text = "1/Mar/2013:11:23:26 +0100";
+        Assert.assertEquals(APACHE.parseMillis(text), Timestamps.parseApache(text));
+    }
+
+    @Test
+    public void testInvalidTimestamps() {
+        String[] invalid = {"2013-02-29T11:25:00.017+0100", "2013-03-01T24:25:00.017+0100",
+                "2013-03-01T11:25:00.017 0100", "2013-03-01 11:25:00.017+0100", "garbage", ""};
+        for (String text : invalid) {
+            Assert.assertEquals(text, Timestamps.INVALID, Timestamps.parseJava(text, 0, text.length()));
+        }
+        // bytes that aren't one char each
+        byte[] line = "|\u00e9t\u00e9|".getBytes(Charsets.UTF_8);
+        Assert.assertEquals(Timestamps.INVALID, Timestamps.parseJava(line, 1, line.length - 1));
+        line = "|2013-03-01T11:25:00.017+0100\u00e9|".getBytes(Charsets.UTF_8);
+        Assert.assertEquals(Timestamps.INVALID, Timestamps.parseJava(line, 1, line.length - 1));
+        Assert.assertEquals(Timestamps.INVALID, Timestamps.parseApache("01/Mar/2013:11:23:60 +0100"));
+        Assert.assertEquals(Timestamps.INVALID, Timestamps.parseApache("01/Mrt/2013:11:23:26 +0100"));
+    }
+
+    @Test
+    public void testRfc3164YearComesFromTheClock() {
+        DateTime now = new DateTime(DateTimeZone.UTC).withMillisOfSecond(0);
+        String text = String.format(Locale.ENGLISH, "%s %2d %s", now.monthOfYear().getAsShortText(Locale.ENGLISH),
+                now.getDayOfMonth(), now.toString("HH:mm:ss"));
+        Assert.assertEquals(now.getMillis(), Timestamps.parseRfc3164(text.getBytes(Charsets.UTF_8), 0));
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            Assert.assertFalse("No clock thread", thread.getName().startsWith("Timestamps"));
+        }
+    }
+}
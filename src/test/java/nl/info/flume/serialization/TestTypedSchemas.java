@@ -0,0 +1,97 @@
+package nl.info.flume.serialization;
+
+import org.apache.avro.generic.GenericRecord;
+import org.apache.flume.Context;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static nl.info.flume.serialization.SerializerFixture.JAVA_LINE;
+import static nl.info.flume.serialization.SerializerFixture.SYSLOG_LINE;
+import static nl.info.flume.serialization.SerializerFixture.event;
+import static nl.info.flume.serialization.SerializerFixture.events;
+import static nl.info.flume.serialization.SerializerFixture.read;
+
+/**
+ * ...
+ *
+ * @author daan.debie
+ */
+public class TestTypedSchemas {
+
+    // with a '-' for bytesSend and an 'X' for connectionstatus
+    private static final String APACHE_DASHES_LINE = "80.79.194.3 - - [01/Mar/2013:11:23:26 +0100] \"GET /graphs/tabledata.pl HTTP/1.1\" 200 - \"https://noc.info.nl/graphs/alert.pl\" \"Mozilla/5.0\" noc.info.nl \"noc.info.nl\" 1 1135203 X \"text/html\" \"-\" 754 3785";
+
+    private static Context v2() {
+        Context ctx = new Context();
+        ctx.put(TypedSchemas.SCHEMA_VERSION, "2");
+        return ctx;
+    }
+
+    private static GenericRecord serialize(Class<?> builder, String line) throws IOException {
+        return read(SerializerFixture.serialize(builder, v2(), event(line))).get(0);
+    }
+
+    @Test
+    public void testApacheV2() throws IOException {
+        GenericRecord record = serialize(ApacheLogAvroEventSerializer.Builder.class, APACHE_DASHES_LINE);
+        Assert.assertEquals(TypedSchemas.APACHE, record.getSchema());
+        Assert.assertEquals("80.79.194.3", record.get("ip").toString());
+        Assert.assertNull("'-' should become null", record.get("identd"));
+        Assert.assertEquals(new DateTime(2013, 3, 1, 11, 23, 26, DateTimeZone.forOffsetHours(1)).getMillis(), record.get("time"));
+        Assert.assertEquals("GET", record.get("method").toString());
+        Assert.assertEquals("HTTP_1_1", record.get("protocol").toString());
+        Assert.assertEquals(200, record.get("statuscode"));
+        Assert.assertEquals("'-' bytes should become 0", 0L, record.get("bytesSend"));
+        Assert.assertEquals(1135203L, record.get("timeMicro"));
+        Assert.assertEquals("ABORTED", record.get("connectionstatus").toString());
+        Assert.assertNull(record.get("sessioncookie"));
+        Assert.assertEquals(3785L, record.get("bytesOut"));
+    }
+
+    @Test
+    public void testApacheV2WithUnparsedLine() throws IOException {
+        GenericRecord record = serialize(ApacheLogAvroEventSerializer.Builder.class, "garbage");
+        Assert.assertEquals("garbage", record.get("original").toString());
+        Assert.assertNull(record.get("ip"));
+        Assert.assertNull(record.get("statuscode"));
+        Assert.assertNull(record.get("method"));
+    }
+
+    @Test
+    public void testSyslogV2() throws IOException {
+        GenericRecord record = serialize(SyslogAvroEventSerializer.Builder.class, SYSLOG_LINE);
+        Assert.assertEquals(TypedSchemas.SYSLOG, record.getSchema());
+        Assert.assertEquals("fac01", record.get("hostname").toString());
+        Assert.assertTrue(record.get("timestamp") instanceof Long);
+        Assert.assertNull("datetime is left out", record.getSchema().getField("datetime"));
+    }
+
+    @Test
+    public void testJavaV2() throws IOException {
+        GenericRecord record = serialize(JavaLogAvroEventSerializer.Builder.class, JAVA_LINE);
+        Assert.assertEquals(TypedSchemas.JAVA, record.getSchema());
+        Assert.assertEquals("INFO", record.get("loglevel").toString());
+        Assert.assertEquals(new DateTime(2013, 3, 1, 11, 25, 0, 17, DateTimeZone.forOffsetHours(1)).getMillis(), record.get("timestamp"));
+        Assert.assertEquals("sun-appserver2.1", record.get("appservername").toString());
+    }
+
+    @Test
+    public void testV2IsSmaller() throws IOException {
+        String[] lines = new String[1000];
+        Arrays.fill(lines, APACHE_DASHES_LINE);
+        byte[] v1 = SerializerFixture.serialize(ApacheLogAvroEventSerializer.Builder.class, new Context(), events(lines));
+        byte[] v2 = SerializerFixture.serialize(ApacheLogAvroEventSerializer.Builder.class, v2(), events(lines));
+        Assert.assertTrue(v2.length + " should be smaller than " + v1.length, v2.length < v1.length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedVersion() throws IOException {
+        new JavaLogAvroEventSerializer(new ByteArrayOutputStream(), 3);
+    }
+}
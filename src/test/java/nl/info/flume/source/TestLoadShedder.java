@@ -0,0 +1,84 @@
+package nl.info.flume.source;
+
+import com.google.common.base.Charsets;
+import nl.info.flume.interceptor.LogLevels;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * ...
+ *
+ * @author daan.debie
+ */
+public class TestLoadShedder {
+
+    private static LoadShedder shedder() {
+        return new LoadShedder(new long[]{100, 1000}, new int[]{2, 10}, "WARNING", '|', 2, "sampleRate");
+    }
+
+    private static Event event(String level) {
+        return EventBuilder.withBody("[#|2013-03-19T13:00:00.413+0100|" + level + "|glassfish|Clazz|_ThreadID=36;|message|#]", Charsets.UTF_8);
+    }
+
+    private static List<Event> events(String level, int count) {
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < count; i++) {
+            events.add(event(level));
+        }
+        return events;
+    }
+
+    @Test
+    public void testRankOfBody() {
+        LoadShedder shedder = shedder();
+        assertEquals(LogLevels.rankOf("SEVERE"), shedder.rankOf(event("SEVERE").getBody()));
+        assertEquals(LogLevels.rankOf("INFO"), shedder.rankOf(event("INFO").getBody()));
+        assertEquals(LogLevels.UNKNOWN, shedder.rankOf("no delimiters".getBytes(Charsets.UTF_8)));
+    }
+
+    @Test
+    public void testNothingIsShedWithoutPressure() {
+        LoadShedder shedder = shedder();
+        shedder.recordCommit(10);
+        List<Event> events = events("INFO", 10);
+        assertSame(events, shedder.shed(events));
+    }
+
+    @Test
+    public void testLowPriorityEventsAreSampledUnderPressure() {
+        LoadShedder shedder = shedder();
+        for (int i = 0; i < 10; i++) {
+            shedder.recordCommit(500);
+        }
+        assertEquals(1, shedder.getLevel());
+
+        List<Event> kept = shedder.shed(events("INFO", 10));
+        assertEquals(5, kept.size());
+        assertEquals("2", kept.get(0).getHeaders().get("sampleRate"));
+
+        kept = shedder.shed(events("SEVERE", 10));
+        assertEquals("High severity events are always kept", 10, kept.size());
+        assertNull(kept.get(0).getHeaders().get("sampleRate"));
+    }
+
+    @Test
+    public void testChannelFullRaisesPressureUntilCommitsAreFastAgain() {
+        LoadShedder shedder = shedder();
+        shedder.recordChannelFull();
+        assertEquals(2, shedder.getLevel());
+        assertEquals(1, shedder.shed(events("DEBUG", 10)).size());
+
+        for (int i = 0; i < 30; i++) {
+            shedder.recordCommit(1);
+        }
+        assertEquals(0, shedder.getLevel());
+    }
+}
@@ -1,6 +1,7 @@
 package nl.info.flume.source;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.flume.ChannelException;
 import org.apache.flume.CounterGroup;
 import org.apache.flume.Event;
 import org.apache.flume.channel.ChannelProcessor;
@@ -24,7 +25,9 @@ import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -106,6 +109,36 @@ public class TestMultiLineExecSourceUnit {
 		deepComparison(argument.getValue());
 	}
 
+	@Test
+	public void testBatchIsShedAgainWhileChannelStaysFull() {
+		execRunnable.setLoadShedder(new LoadShedder(new long[]{100, 1000}, new int[]{2, 10}, "WARNING", '|', 2, "sampleRate"));
+		for (int i = 0; i < 20; i++) {
+			lines.add("[#|2013-03-19T13:00:00.413+0100|INFO|oracle-glassfish3.1.2|Job|_ThreadID=36;|Job " + i + " started|#]");
+			lines.add("");
+		}
+		lines.add("[#|2013-03-19T13:00:00.424+0100|SEVERE|oracle-glassfish3.1.2|Job|_ThreadID=36;|Job failed|#]");
+		lines.add(null);
+
+		final List<Integer> batchSizes = new ArrayList<Integer>();
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocationOnMock) throws Throwable {
+				batchSizes.add(((List<?>) invocationOnMock.getArguments()[0]).size());
+				if (batchSizes.size() == 3) {
+					// stop the source while it's backing off
+					Thread.currentThread().interrupt();
+				}
+				throw new ChannelException("Channel full");
+			}
+		}).when(channelProcessor).processEventBatch(anyListOf(Event.class));
+
+		execRunnable.run();
+
+		assertTrue("The interrupt should be kept", Thread.interrupted());
+		// the first full channel raises the level to the highest, where 2 of the 20 INFO events are kept
+		assertEquals(Arrays.asList(21, 3, 3), batchSizes);
+	}
+
 	private void deepComparison(List values) {
 		assertEquals(eventLines.size(), values.size());
 